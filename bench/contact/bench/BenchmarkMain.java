@@ -0,0 +1,38 @@
+package contact.bench;
+
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Run the benchmarks with 1, 4 and 16 threads.
+ * Usage: <tt>java contact.bench.BenchmarkMain [regexp of benchmarks]</tt>
+ * <p>
+ * The benchmark classes must be compiled with jmh-core and
+ * jmh-generator-annprocess on the classpath, so the annotation
+ * processor generates the JMH harness.  For other JMH options,
+ * run <tt>org.openjdk.jmh.Main</tt> instead.
+ * </p>
+ * @author Atit Leelasuksan 5510546221
+ *
+ */
+public class BenchmarkMain {
+	/** thread counts to run each benchmark with. */
+	static final int[] THREADS = { 1, 4, 16 };
+
+	public static void main(String[] args) throws RunnerException {
+		String include = (args.length > 0) ? args[0] : "contact.bench.*";
+		for(int threads : THREADS) {
+			Options options = new OptionsBuilder()
+					.include(include)
+					.threads(threads)
+					.forks(1)
+					.warmupIterations(5)
+					.measurementIterations(5)
+					.result("bench-"+threads+"-threads.json")
+					.build();
+			new Runner(options).run();
+		}
+	}
+}
@@ -0,0 +1,113 @@
+package contact.bench;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import contact.entity.Contact;
+import contact.service.ContactDao;
+
+/**
+ * Benchmarks of the ContactDao operations, shared by each DAO implementation.
+ * The store is filled with <tt>size</tt> contacts before measuring.
+ * Subclasses create the DAO and declare the store sizes with @Param.
+ * @author Atit Leelasuksan 5510546221
+ *
+ */
+@State(Scope.Benchmark)
+public abstract class ContactDaoBenchmark {
+	/** ids of the contacts in the store. */
+	protected long[] ids;
+	protected ContactDao dao;
+
+	/**
+	 * Create an empty DAO to benchmark.
+	 * @return the DAO
+	 */
+	protected abstract ContactDao createDao();
+
+	/**
+	 * Get the number of contacts to put in the store.
+	 * @return store size
+	 */
+	protected abstract int size();
+
+	/**
+	 * Release the DAO's resources.  The default does nothing.
+	 */
+	protected void closeDao() {
+	}
+
+	@Setup(Level.Trial)
+	public void fill() {
+		dao = createDao();
+		ids = new long[size()];
+		for(int k=0; k<ids.length; k++) {
+			Contact contact = newContact(k);
+			dao.save(contact);
+			ids[k] = contact.getId();
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void close() {
+		closeDao();
+	}
+
+	/** create a contact with a title that findByTitle can search for. */
+	protected static Contact newContact(int k) {
+		return new Contact("Contact "+k, "Name "+k, "contact"+k+"@example.com");
+	}
+
+	/** pick a random id from the store. */
+	protected long randomId() {
+		return ids[ThreadLocalRandom.current().nextInt(ids.length)];
+	}
+
+	@Benchmark
+	public Contact find() {
+		return dao.find(randomId());
+	}
+
+	@Benchmark
+	public boolean update() {
+		Contact update = newContact(ThreadLocalRandom.current().nextInt(ids.length));
+		update.setId(randomId());
+		return dao.update(update);
+	}
+
+	/** save a new contact and delete it again, so the store size stays the same. */
+	@Benchmark
+	public boolean saveAndDelete() {
+		Contact contact = newContact(ThreadLocalRandom.current().nextInt(ids.length));
+		dao.save(contact);
+		return dao.delete(contact.getId());
+	}
+
+	/** search for a title that matches about one contact in a thousand. */
+	@Benchmark
+	public void findByTitle(Blackhole hole) {
+		int k = ThreadLocalRandom.current().nextInt(ids.length);
+		hole.consume(dao.findByTitle("contact "+(k % 1000)+"9"));
+	}
+
+	/** find one contact by email, in different case than it was saved. */
+	@Benchmark
+	public void findByEmail(Blackhole hole) {
+		int k = ThreadLocalRandom.current().nextInt(ids.length);
+		hole.consume(dao.findByEmail("CONTACT"+k+"@example.com"));
+	}
+
+	/** find the first 10 contacts whose name starts with a prefix. */
+	@Benchmark
+	public void findByNamePrefix(Blackhole hole) {
+		int k = ThreadLocalRandom.current().nextInt(ids.length);
+		hole.consume(dao.findByNamePrefix("name "+(k % 1000), 10));
+	}
+}
@@ -0,0 +1,47 @@
+package contact.bench;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import contact.service.ContactDao;
+import contact.service.jpa.JpaContactDao;
+
+/**
+ * ContactDao benchmarks of the JPA DAO, using an in-memory embedded Derby
+ * database that is created for each trial, so runs don't affect each other.
+ * @author Atit Leelasuksan 5510546221
+ *
+ */
+@State(Scope.Benchmark)
+public class JpaContactDaoBenchmark extends ContactDaoBenchmark {
+	@Param({"1000", "10000"})
+	public int size;
+	private EntityManagerFactory emf;
+
+	@Override
+	protected ContactDao createDao() {
+		Map<String,String> properties = new HashMap<String,String>();
+		properties.put("javax.persistence.jdbc.url", "jdbc:derby:memory:bench"+System.nanoTime()+";create=true");
+		properties.put("eclipselink.ddl-generation", "create-tables");
+		properties.put("eclipselink.logging.level", "WARNING");
+		emf = Persistence.createEntityManagerFactory("contacts", properties);
+		return new JpaContactDao(emf);
+	}
+
+	@Override
+	protected int size() {
+		return size;
+	}
+
+	@Override
+	protected void closeDao() {
+		emf.close();
+	}
+}
@@ -0,0 +1,29 @@
+package contact.bench;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import contact.service.ContactDao;
+import contact.service.mem.OffHeapContactDao;
+
+/**
+ * ContactDao benchmarks of the DAO that keeps contacts outside the heap.
+ * @author Atit Leelasuksan 5510546221
+ *
+ */
+@State(Scope.Benchmark)
+public class OffHeapContactDaoBenchmark extends ContactDaoBenchmark {
+	@Param({"1000", "100000", "1000000"})
+	public int size;
+
+	@Override
+	protected ContactDao createDao() {
+		return new OffHeapContactDao();
+	}
+
+	@Override
+	protected int size() {
+		return size;
+	}
+}
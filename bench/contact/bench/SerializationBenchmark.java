@@ -0,0 +1,144 @@
+package contact.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.ws.rs.core.EntityTag;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.stream.XMLStreamException;
+
+import org.eclipse.persistence.jaxb.JAXBContextFactory;
+import org.eclipse.persistence.jaxb.MarshallerProperties;
+import org.glassfish.jersey.internal.RuntimeDelegateImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import contact.entity.Contact;
+import contact.entity.ContactBinding;
+import contact.entity.ContactCodec;
+import contact.entity.ContactList;
+import contact.resource.ContactCursorWriter;
+
+/**
+ * Benchmarks of the per-request work outside the DAO:
+ * computing an ETag and writing Contact and ContactList as XML and JSON.
+ * JSON is written both by MOXy, as Jersey does for a single contact,
+ * and by ContactCursorWriter, as the service does for a list.
+ * The binary format of ContactCodec is measured for comparison.
+ * @author Atit Leelasuksan 5510546221
+ *
+ */
+@State(Scope.Thread)
+public class SerializationBenchmark {
+	@Param({"10", "1000"})
+	public int listSize;
+	private Contact contact;
+	private ContactList list;
+	private ByteArrayOutputStream out;
+	private Marshaller moxyJson;
+
+	@Setup
+	public void setup() throws JAXBException {
+		javax.ws.rs.ext.RuntimeDelegate.setInstance(new RuntimeDelegateImpl());
+		contact = new Contact("Contact title", "Contact Name", "contact@example.com");
+		contact.setId(1234);
+		contact.setVersion(1879322773395865601L);
+		List<Contact> contacts = new ArrayList<Contact>(listSize);
+		for(int k=0; k<listSize; k++) {
+			Contact c = new Contact("Contact "+k, "Name "+k, "contact"+k+"@example.com");
+			c.setId(k+1);
+			contacts.add(c);
+		}
+		list = new ContactList(contacts);
+		out = new ByteArrayOutputStream(1 << 16);
+		JAXBContext context = JAXBContextFactory.createContext(new Class<?>[] { Contact.class, ContactList.class }, null);
+		moxyJson = context.createMarshaller();
+		moxyJson.setProperty(MarshallerProperties.MEDIA_TYPE, "application/json");
+		moxyJson.setProperty(MarshallerProperties.JSON_INCLUDE_ROOT, false);
+	}
+
+	/** the ETag of a contact, as ContactResource makes it. */
+	@Benchmark
+	public EntityTag etag() {
+		return new EntityTag(Long.toString(contact.getVersion()));
+	}
+
+	@Benchmark
+	public int hashCodeOfContact() {
+		return contact.hashCode();
+	}
+
+	@Benchmark
+	public int contactToXml() throws JAXBException {
+		out.reset();
+		ContactBinding.getMarshaller().marshal(contact, out);
+		return out.size();
+	}
+
+	@Benchmark
+	public int contactToJsonWithMoxy() throws JAXBException {
+		out.reset();
+		moxyJson.marshal(contact, out);
+		return out.size();
+	}
+
+	@Benchmark
+	public int contactToJson() throws IOException {
+		out.reset();
+		Writer json = new OutputStreamWriter(out, "UTF-8");
+		ContactCursorWriter.writeJson(contact, json);
+		json.flush();
+		return out.size();
+	}
+
+	@Benchmark
+	public int listToXmlWithJaxb() throws JAXBException {
+		out.reset();
+		ContactBinding.getMarshaller().marshal(list, out);
+		return out.size();
+	}
+
+	@Benchmark
+	public int listToXmlWithStax() throws XMLStreamException {
+		out.reset();
+		ContactCursorWriter.writeXml(list.getContactList(), out);
+		return out.size();
+	}
+
+	@Benchmark
+	public int listToJsonWithMoxy() throws JAXBException {
+		out.reset();
+		moxyJson.marshal(list, out);
+		return out.size();
+	}
+
+	@Benchmark
+	public int listToJson() throws IOException {
+		out.reset();
+		ContactCursorWriter.writeJson(list.getContactList(), out);
+		return out.size();
+	}
+
+	@Benchmark
+	public int contactToBinary() throws IOException {
+		out.reset();
+		ContactCodec.write(contact, out);
+		return out.size();
+	}
+
+	@Benchmark
+	public int listToBinary() throws IOException {
+		out.reset();
+		ContactCodec.writeList(list.getContactList(), out);
+		return out.size();
+	}
+}
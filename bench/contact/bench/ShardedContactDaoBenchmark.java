@@ -0,0 +1,39 @@
+package contact.bench;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import contact.service.ContactDao;
+import contact.service.mem.ShardedContactDao;
+
+/**
+ * ContactDao benchmarks of the in-memory DAO split into shards.
+ * @author Atit Leelasuksan 5510546221
+ *
+ */
+@State(Scope.Benchmark)
+public class ShardedContactDaoBenchmark extends ContactDaoBenchmark {
+	@Param({"1000", "100000", "1000000"})
+	public int size;
+
+	@Param({"4", "16"})
+	public int shards;
+	private ShardedContactDao sharded;
+
+	@Override
+	protected ContactDao createDao() {
+		sharded = new ShardedContactDao(shards);
+		return sharded;
+	}
+
+	@Override
+	protected void closeDao() {
+		sharded.shutdown();
+	}
+
+	@Override
+	protected int size() {
+		return size;
+	}
+}
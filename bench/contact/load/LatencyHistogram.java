@@ -0,0 +1,129 @@
+package contact.load;
+
+import java.io.PrintStream;
+
+/**
+ * A histogram of latencies in microseconds with about 1% precision,
+ * in the style of HdrHistogram.  Values below 128 have their own bucket;
+ * larger values are counted in 64 buckets per power of two.
+ * The histogram is not thread-safe: each load thread records into its own
+ * histogram and they are combined with add() for the report.
+ * @author Atit Leelasuksan 5510546221
+ *
+ */
+public class LatencyHistogram {
+	/** values below this are counted exactly. */
+	private static final int LINEAR = 128;
+	private static final int SUB_BUCKETS = 64;
+	/** largest power of two above the linear range, larger values are counted in the last bucket. */
+	private static final int MAX_MAGNITUDE = 40;
+
+	private final long[] counts = new long[LINEAR + MAX_MAGNITUDE * SUB_BUCKETS];
+	private long total;
+	private long max;
+	private long sum;
+
+	/**
+	 * Record one latency.
+	 * @param micros latency in microseconds
+	 */
+	public void record(long micros) {
+		if (micros < 0) micros = 0;
+		counts[indexOf(micros)]++;
+		total++;
+		sum += micros;
+		if (micros > max) max = micros;
+	}
+
+	/**
+	 * Add all values of another histogram to this one.
+	 * @param other histogram to add
+	 */
+	public void add(LatencyHistogram other) {
+		for(int k=0; k<counts.length; k++) counts[k] += other.counts[k];
+		total += other.total;
+		sum += other.sum;
+		max = Math.max(max, other.max);
+	}
+
+	/**
+	 * Get the number of recorded values.
+	 * @return count of values
+	 */
+	public long getCount() {
+		return total;
+	}
+
+	/**
+	 * Get the largest recorded value.
+	 * @return max latency in microseconds
+	 */
+	public long getMax() {
+		return max;
+	}
+
+	/**
+	 * Get the average of recorded values.
+	 * @return mean latency in microseconds
+	 */
+	public double getMean() {
+		return (total == 0) ? 0 : (double) sum / total;
+	}
+
+	/**
+	 * Get the value at a percentile.  The result is the highest value
+	 * that falls in the same bucket, so it is never less than the true value.
+	 * @param percentile between 0 and 100
+	 * @return latency in microseconds
+	 */
+	public long getValueAtPercentile(double percentile) {
+		if (total == 0) return 0;
+		long rank = (long) Math.ceil(percentile / 100.0 * total);
+		if (rank < 1) rank = 1;
+		long seen = 0;
+		for(int k=0; k<counts.length; k++) {
+			seen += counts[k];
+			if (seen >= rank) return Math.min(highestValueAt(k), max);
+		}
+		return max;
+	}
+
+	/**
+	 * Print count, mean, percentiles and max on one line.
+	 * @param out stream to print to
+	 * @param label name of the line
+	 * @param seconds length of the measurement, for throughput
+	 */
+	public void print(PrintStream out, String label, double seconds) {
+		out.printf("%-12s %10d %10.1f %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f%n", label, total, total / seconds
+				, getMean() / 1000.0
+				, getValueAtPercentile(50) / 1000.0, getValueAtPercentile(90) / 1000.0
+				, getValueAtPercentile(99) / 1000.0, getValueAtPercentile(99.9) / 1000.0
+				, max / 1000.0);
+	}
+
+	/**
+	 * Print the header line for print().
+	 * @param out stream to print to
+	 */
+	public static void printHeader(PrintStream out) {
+		out.printf("%-12s %10s %10s %9s %9s %9s %9s %9s %9s%n", "operation", "count", "req/sec"
+				, "mean ms", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+	}
+
+	static int indexOf(long value) {
+		if (value < LINEAR) return (int) value;
+		// magnitude is the shift that puts value in [64,128)
+		int magnitude = 63 - Long.numberOfLeadingZeros(value) - 6;
+		if (magnitude > MAX_MAGNITUDE) return LINEAR + MAX_MAGNITUDE * SUB_BUCKETS - 1;
+		int sub = (int) (value >>> magnitude) - SUB_BUCKETS;
+		return LINEAR + (magnitude - 1) * SUB_BUCKETS + sub;
+	}
+
+	static long highestValueAt(int index) {
+		if (index < LINEAR) return index;
+		int magnitude = (index - LINEAR) / SUB_BUCKETS + 1;
+		long sub = (index - LINEAR) % SUB_BUCKETS + SUB_BUCKETS;
+		return ((sub + 1) << magnitude) - 1;
+	}
+}
@@ -0,0 +1,327 @@
+package contact.load;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import main.JettyMain;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.util.StringContentProvider;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpMethod;
+
+import contact.entity.Contact;
+import contact.service.ContactDao;
+import contact.service.DaoFactory;
+import contact.service.mem.MemDaoFactory;
+
+/**
+ * Load test of the contact web service, end to end over HTTP.
+ * The server is started in this JVM with JettyMain on an ephemeral port
+ * (or the port given by --port) and filled with contacts.  Then each of
+ * the connections runs a loop that sends requests from a mix of operations
+ * as fast as the server answers (closed loop) and records their latencies.
+ * After a warmup, throughput and latency percentiles of each operation are printed.
+ * <p>
+ * Options, all optional:
+ * <pre>
+ * --connections N  concurrent connections (64)
+ * --duration S     seconds to measure (30)
+ * --warmup S       seconds to run before measuring (5)
+ * --contacts N     contacts to put in the store before the test (10000)
+ * --mix MIX        weights of operations (get=60,search=10,post=10,put=10,delete=5,conditional=5)
+ * --accept TYPE    media type of responses (application/xml)
+ * --port N         port for the server (0 to pick a free port)
+ * --seed N         seed of the random numbers, for repeatable runs (1)
+ * --threads KIND   "virtual" to run the server on virtual threads, or "platform" (platform)
+ * </pre>
+ * For example, a read-only run with 200 connections:
+ * <tt>java contact.load.LoadTest --connections 200 --mix get=90,conditional=10</tt>
+ * @author Atit Leelasuksan 5510546221
+ *
+ */
+public class LoadTest {
+	/** operations that the load test can send. */
+	enum Operation {
+		/** GET one contact by id. */
+		GET,
+		/** GET contacts with a title query. */
+		SEARCH,
+		/** POST a new contact. */
+		POST,
+		/** PUT an update of a contact. */
+		PUT,
+		/** DELETE a contact that this load test created. */
+		DELETE,
+		/** GET one contact with If-None-Match, usually answered 304. */
+		CONDITIONAL
+	}
+
+	private int connections = 64;
+	private int duration = 30;
+	private int warmup = 5;
+	private int contacts = 10000;
+	private String accept = "application/xml";
+	private int port = 0;
+	private long seed = 1;
+	private final Map<Operation,Integer> mix = new EnumMap<Operation,Integer>(Operation.class);
+
+	private HttpClient client;
+	private String url;
+	private long[] ids;
+	/** number of requests that failed with an exception or an unexpected status. */
+	private final AtomicLong errors = new AtomicLong();
+
+	/**
+	 * Create a load test with the default options.
+	 */
+	public LoadTest() {
+		setMix("get=60,search=10,post=10,put=10,delete=5,conditional=5");
+	}
+
+	/**
+	 * Set the mix of operations.
+	 * @param text comma separated operation=weight, such as "get=90,put=10".
+	 *        Operations that are not named are not sent.
+	 */
+	public void setMix(String text) {
+		mix.clear();
+		for(String part : text.split(",")) {
+			String[] pair = part.trim().split("=");
+			if (pair.length != 2) throw new IllegalArgumentException("Bad mix: "+part);
+			mix.put(Operation.valueOf(pair[0].trim().toUpperCase()), Integer.parseInt(pair[1].trim()));
+		}
+	}
+
+	/**
+	 * Start the server and the HTTP client and fill the store with contacts.
+	 * @throws Exception if the server or client can't be started
+	 */
+	public void start() throws Exception {
+		DaoFactory.setFactory(new MemDaoFactory());
+		ContactDao dao = DaoFactory.getInstance().getContactDao();
+		ids = new long[contacts];
+		for(int k=0; k<contacts; k++) {
+			Contact contact = new Contact("Contact "+k, "Name "+k, "contact"+k+"@example.com");
+			dao.save(contact);
+			ids[k] = contact.getId();
+		}
+		url = JettyMain.startServer(port, "contact.resource");
+		client = new HttpClient();
+		client.setMaxConnectionsPerDestination(connections);
+		client.setMaxRequestsQueuedPerDestination(connections * 2);
+		client.start();
+	}
+
+	/**
+	 * Stop the HTTP client and the server.
+	 * @throws Exception if the client can't be stopped
+	 */
+	public void stop() throws Exception {
+		client.stop();
+		JettyMain.stopServer();
+	}
+
+	/**
+	 * Run the warmup and the measurement, then print the results.
+	 * @param out stream to print results to
+	 * @throws InterruptedException if interrupted while waiting for the connections
+	 */
+	public void run(PrintStream out) throws InterruptedException {
+		out.printf("%s: %d contacts, %d connections, mix %s, warmup %d s, duration %d s%n"
+				, url, contacts, connections, mix, warmup, duration);
+		long start = System.nanoTime();
+		long measureFrom = start + TimeUnit.SECONDS.toNanos(warmup);
+		long end = measureFrom + TimeUnit.SECONDS.toNanos(duration);
+		List<Worker> workers = new ArrayList<Worker>();
+		for(int k=0; k<connections; k++) {
+			Worker worker = new Worker(new Random(seed + k), measureFrom, end);
+			workers.add(worker);
+			worker.start();
+		}
+		for(Worker worker : workers) worker.join();
+		report(workers, out);
+	}
+
+	private void report(List<Worker> workers, PrintStream out) {
+		double seconds = duration;
+		Map<Operation,LatencyHistogram> byOperation = new EnumMap<Operation,LatencyHistogram>(Operation.class);
+		LatencyHistogram all = new LatencyHistogram();
+		long[] statuses = new long[600];
+		for(Worker worker : workers) {
+			for(Operation op : Operation.values()) {
+				LatencyHistogram histogram = byOperation.get(op);
+				if (histogram == null) byOperation.put(op, histogram = new LatencyHistogram());
+				histogram.add(worker.histograms.get(op));
+			}
+			for(int k=0; k<statuses.length; k++) statuses[k] += worker.statuses[k];
+		}
+		out.println();
+		LatencyHistogram.printHeader(out);
+		for(Operation op : Operation.values()) {
+			LatencyHistogram histogram = byOperation.get(op);
+			if (histogram.getCount() == 0) continue;
+			histogram.print(out, op.name().toLowerCase(), seconds);
+			all.add(histogram);
+		}
+		all.print(out, "all", seconds);
+		out.println();
+		out.print("status codes:");
+		for(int k=0; k<statuses.length; k++) if (statuses[k] > 0) out.printf(" %d=%d", k, statuses[k]);
+		out.println();
+		out.printf("errors: %d%n", errors.get());
+	}
+
+	/** one connection that sends requests in a loop. */
+	private class Worker extends Thread {
+		private final Random random;
+		private final long measureFrom;
+		private final long end;
+		final Map<Operation,LatencyHistogram> histograms = new EnumMap<Operation,LatencyHistogram>(Operation.class);
+		final long[] statuses = new long[600];
+		/** ids of contacts this worker created and hasn't deleted. */
+		private final List<Long> created = new ArrayList<Long>();
+		/** last ETag this worker saw for each contact. */
+		private final Map<Long,String> etags = new HashMap<Long,String>();
+		/** ids in etags, to pick a contact to revalidate. */
+		private final List<Long> tagged = new ArrayList<Long>();
+		private final Operation[] choices;
+
+		Worker(Random random, long measureFrom, long end) {
+			this.random = random;
+			this.measureFrom = measureFrom;
+			this.end = end;
+			for(Operation op : Operation.values()) histograms.put(op, new LatencyHistogram());
+			List<Operation> list = new ArrayList<Operation>();
+			for(Map.Entry<Operation,Integer> entry : mix.entrySet())
+				for(int k=0; k<entry.getValue(); k++) list.add(entry.getKey());
+			choices = list.toArray(new Operation[list.size()]);
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			if (choices.length == 0) return;
+			long now = System.nanoTime();
+			while(now < end) {
+				Operation op = choices[random.nextInt(choices.length)];
+				if (op == Operation.DELETE && created.isEmpty()) op = Operation.POST;
+				int status;
+				try {
+					status = send(op);
+				} catch (Exception ex) {
+					errors.incrementAndGet();
+					status = 0;
+				}
+				long done = System.nanoTime();
+				if (now >= measureFrom) {
+					histograms.get(op).record((done - now) / 1000);
+					statuses[status]++;
+				}
+				now = done;
+			}
+		}
+
+		/** send one request and check the status. */
+		private int send(Operation op) throws Exception {
+			long id = ids[random.nextInt(ids.length)];
+			ContentResponse response;
+			switch(op) {
+			case GET:
+				response = request(HttpMethod.GET, url+"/"+id).send();
+				remember(id, response);
+				return check(response, 200);
+			case SEARCH:
+				response = request(HttpMethod.GET, url).param("title", "contact "+random.nextInt(1000)).send();
+				return check(response, 200);
+			case POST:
+				int k = random.nextInt(contacts);
+				response = request(HttpMethod.POST, url)
+						.content(new StringContentProvider(xml(0, "Load "+k, "Name "+k)), "application/xml").send();
+				String location = response.getHeaders().get(HttpHeader.LOCATION);
+				if (location != null) created.add(Long.parseLong(location.substring(location.lastIndexOf('/') + 1)));
+				return check(response, 201);
+			case PUT:
+				k = random.nextInt(contacts);
+				response = request(HttpMethod.PUT, url+"/"+id)
+						.content(new StringContentProvider(xml(id, "Contact "+k, "Name "+k)), "application/xml").send();
+				return check(response, 200);
+			case DELETE:
+				id = created.remove(created.size() - 1);
+				response = request(HttpMethod.DELETE, url+"/"+id).send();
+				return check(response, 200);
+			case CONDITIONAL:
+				if (!tagged.isEmpty()) id = tagged.get(random.nextInt(tagged.size()));
+				Request request = request(HttpMethod.GET, url+"/"+id);
+				String etag = etags.get(id);
+				if (etag != null) request.header(HttpHeader.IF_NONE_MATCH, etag);
+				response = request.send();
+				remember(id, response);
+				// 200 if the contact changed since this worker saw it
+				if (response.getStatus() == 304) return 304;
+				return check(response, 200);
+			default:
+				throw new IllegalStateException(op.name());
+			}
+		}
+
+		private Request request(HttpMethod method, String uri) {
+			return client.newRequest(uri).method(method).accept(accept).timeout(30, TimeUnit.SECONDS);
+		}
+
+		private void remember(long id, ContentResponse response) {
+			String etag = response.getHeaders().get(HttpHeader.ETAG);
+			if (etag != null && etags.put(id, etag) == null) tagged.add(id);
+		}
+
+		private int check(ContentResponse response, int expected) {
+			if (response.getStatus() != expected) errors.incrementAndGet();
+			return response.getStatus();
+		}
+	}
+
+	/** XML of a contact, as a client would send it. */
+	private static String xml(long id, String title, String name) {
+		StringBuilder sb = new StringBuilder("<contact");
+		if (id > 0) sb.append(" id=\"").append(id).append('"');
+		sb.append("><title>").append(title).append("</title><name>").append(name)
+			.append("</name><email>load@example.com</email></contact>");
+		return sb.toString();
+	}
+
+	public static void main(String[] args) throws Exception {
+		LoadTest test = new LoadTest();
+		for(int k=0; k+1<args.length; k+=2) {
+			String value = args[k+1];
+			switch(args[k]) {
+			case "--connections": test.connections = Integer.parseInt(value); break;
+			case "--duration": test.duration = Integer.parseInt(value); break;
+			case "--warmup": test.warmup = Integer.parseInt(value); break;
+			case "--contacts": test.contacts = Integer.parseInt(value); break;
+			case "--mix": test.setMix(value); break;
+			case "--accept": test.accept = value; break;
+			case "--port": test.port = Integer.parseInt(value); break;
+			case "--seed": test.seed = Long.parseLong(value); break;
+			case "--threads": JettyMain.setVirtualThreads(value.equals("virtual")); break;
+			default:
+				System.err.println("Unknown option "+args[k]);
+				System.exit(1);
+			}
+		}
+		test.start();
+		try {
+			test.run(System.out);
+		} finally {
+			test.stop();
+		}
+	}
+}
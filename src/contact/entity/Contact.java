@@ -1,29 +1,47 @@
 package contact.entity;
 
 import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.GenerationType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
 import javax.persistence.Table;
+import javax.persistence.Version;
 import javax.validation.constraints.NotNull;
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlAttribute;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlTransient;
 /**
  * A person is a contact with a name, title, and email.
  * title is text to display for this contact in a list of contacts,
  * such as a nickname or company name.
+ * The database also stores the email and name in lower case, in indexed
+ * columns, so they can be found ignoring case without a full table scan.
  * @author jim, Atit Leelasuksan 5510546221
  */
 @Entity
-@Table(name="CONTACTS")
+@Table(name="CONTACTS", indexes={
+		@Index(name="CONTACTS_EMAIL_KEY", columnList="EMAIL_KEY"),
+		@Index(name="CONTACTS_NAME_KEY", columnList="NAME_KEY")})
 @XmlRootElement(name="contact")
 @XmlAccessorType(XmlAccessType.FIELD)
 public class Contact implements Serializable {
 	private static final long serialVersionUID = 1L;
+	/** names of the fields that can be selected by {@link #project(Set)}. The id is always included. */
+	public static final List<String> FIELDS = Collections.unmodifiableList(Arrays.asList("title", "name", "email", "photoUrl"));
 
 	@Id
 	@GeneratedValue(strategy=GenerationType.AUTO)
@@ -39,6 +57,21 @@ public class Contact implements Serializable {
 	@XmlElement
 	/** URL of photo */
 	private String photoUrl;
+	/**
+	 * Version of this contact, changed by the DAO each time the contact
+	 * is saved or updated.  Used as the ETag of the contact.
+	 */
+	@Version
+	@XmlTransient
+	private long version;
+	/** email in lower case, for indexed lookups in the database. */
+	@Column(name="EMAIL_KEY")
+	@XmlTransient
+	private String emailKey;
+	/** name in lower case, for indexed lookups in the database. */
+	@Column(name="NAME_KEY")
+	@XmlTransient
+	private String nameKey;
 	
 	/** Create a new contact with no data.  Intended for use by persistence framework. */
 	public Contact() {
@@ -98,6 +131,34 @@ public class Contact implements Serializable {
 		this.id = id;
 	}
 	
+	public long getVersion() {
+		return version;
+	}
+	
+	public void setVersion(long version) {
+		this.version = version;
+	}
+	
+	/**
+	 * Set the lower case email and name from the email and name,
+	 * before the contact is written to the database.
+	 */
+	@PrePersist
+	@PreUpdate
+	void updateKeys() {
+		emailKey = toKey(email);
+		nameKey = toKey(name);
+	}
+	
+	/**
+	 * Get the key of a string in the lower case email and name columns.
+	 * @param value an email or name, may be null.
+	 * @return the value in lower case, or null if value is null.
+	 */
+	public static String toKey(String value) {
+		return (value == null) ? null : value.toLowerCase(Locale.ROOT);
+	}
+	
 	@Override
 	public String toString() {
 		return String.format("%s: %s <%s> (%d)", title, name, email, id);
@@ -146,6 +207,23 @@ public class Contact implements Serializable {
 		this.setPhotoUrl(update.getPhotoUrl());
 	}
 	
+	/**
+	 * Create a copy of this contact with only some of its fields.
+	 * Fields that are not selected are null, so they are left out
+	 * when the copy is written as XML or JSON.
+	 * @param fields names of fields to copy (see FIELDS), or null to copy all fields.
+	 * @return a new contact with the same id and the selected fields.
+	 */
+	public Contact project(Set<String> fields) {
+		Contact copy = new Contact(this.id);
+		copy.setVersion(this.version);
+		if (fields == null || fields.contains("title")) copy.setTitle(this.title);
+		if (fields == null || fields.contains("name")) copy.setName(this.name);
+		if (fields == null || fields.contains("email")) copy.setEmail(this.email);
+		if (fields == null || fields.contains("photoUrl")) copy.setPhotoUrl(this.photoUrl);
+		return copy;
+	}
+	
 	/**
 	 * Test if a string is null or only whitespace.
 	 * @param arg the string to test
@@ -155,8 +233,12 @@ public class Contact implements Serializable {
 		return arg == null || arg.matches("\\s*") ;
 	}
 	
+	/**
+	 * Hash code is based on id only, to be consistent with equals.
+	 * Use the version, not the hash code, to detect changes.
+	 */
 	@Override
 	public int hashCode() {
-		return (this.id+this.title+this.name+this.email+this.photoUrl).hashCode();
+		return (int) (id ^ (id >>> 32));
 	}
 }
\ No newline at end of file
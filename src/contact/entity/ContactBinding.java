@@ -0,0 +1,95 @@
+package contact.entity;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+
+/**
+ * Shared JAXB binding for Contact and ContactList, and for the
+ * ContactChangeList of the change feed.
+ * Creating a JAXBContext is expensive, so one context is created and
+ * shared by the web resources and the file loader and saver.
+ * Marshaller and Unmarshaller are not thread-safe, so each thread
+ * reuses its own instance instead of creating one per use.
+ * @author Atit Leelasuksan 5510546221
+ *
+ */
+public class ContactBinding {
+	/** the shared context, created when this class is first used. */
+	private static final JAXBContext CONTEXT = createContext();
+	
+	private static final ThreadLocal<Marshaller> MARSHALLER = new ThreadLocal<Marshaller>() {
+		@Override
+		protected Marshaller initialValue() {
+			try {
+				return CONTEXT.createMarshaller();
+			} catch (JAXBException ex) {
+				throw new IllegalStateException(ex);
+			}
+		}
+	};
+	
+	private static final ThreadLocal<Unmarshaller> UNMARSHALLER = new ThreadLocal<Unmarshaller>() {
+		@Override
+		protected Unmarshaller initialValue() {
+			try {
+				return CONTEXT.createUnmarshaller();
+			} catch (JAXBException ex) {
+				throw new IllegalStateException(ex);
+			}
+		}
+	};
+	
+	/** this class only has static methods. */
+	private ContactBinding() {
+	}
+	
+	private static JAXBContext createContext() {
+		try {
+			return JAXBContext.newInstance(Contact.class, ContactList.class, ContactChangeList.class);
+		} catch (JAXBException ex) {
+			throw new ExceptionInInitializerError(ex);
+		}
+	}
+	
+	/**
+	 * Get the shared JAXBContext.
+	 * @return context that binds Contact, ContactList and ContactChangeList.
+	 */
+	public static JAXBContext getContext() {
+		return CONTEXT;
+	}
+	
+	/**
+	 * Get the Marshaller of the current thread, with default properties
+	 * (UTF-8, not formatted, not a fragment), so settings made by
+	 * an earlier user on this thread don't leak.
+	 * @return marshaller for the current thread.
+	 * @throws JAXBException if properties can't be set.
+	 */
+	public static Marshaller getMarshaller() throws JAXBException {
+		Marshaller marshaller = MARSHALLER.get();
+		marshaller.setProperty(Marshaller.JAXB_ENCODING, "UTF-8");
+		marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, false);
+		marshaller.setProperty(Marshaller.JAXB_FRAGMENT, false);
+		return marshaller;
+	}
+	
+	/**
+	 * Get the Unmarshaller of the current thread.
+	 * @return unmarshaller for the current thread.
+	 */
+	public static Unmarshaller getUnmarshaller() {
+		return UNMARSHALLER.get();
+	}
+	
+	/**
+	 * Test if a class is bound by the shared context.
+	 * @param type class to test
+	 * @return true if type is Contact, ContactList or ContactChangeList.
+	 */
+	public static boolean isBound(Class<?> type) {
+		return type == Contact.class || type == ContactList.class || type == ContactChangeList.class;
+	}
+}
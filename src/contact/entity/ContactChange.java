@@ -0,0 +1,68 @@
+package contact.entity;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlEnum;
+import javax.xml.bind.annotation.XmlEnumValue;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * One change to a contact, as listed by GET /contacts/changes.
+ * Changes are numbered in the order they were made by their sequence number.
+ * @author Atit Leelasuksan 5510546221
+ *
+ */
+@XmlRootElement(name="change")
+@XmlAccessorType(XmlAccessType.FIELD)
+public class ContactChange {
+	/** the DAO operation that made a change. */
+	@XmlEnum
+	public enum Op {
+		@XmlEnumValue("save") SAVE,
+		@XmlEnumValue("update") UPDATE,
+		@XmlEnumValue("delete") DELETE;
+	}
+
+	@XmlAttribute
+	private long seq;
+	@XmlElement
+	private long id;
+	@XmlElement
+	private Op op;
+	/** version of the contact after a save or update, or of the store after a delete. */
+	@XmlElement
+	private long version;
+
+	public ContactChange() {
+	}
+
+	public ContactChange(long seq, long id, Op op, long version) {
+		this.seq = seq;
+		this.id = id;
+		this.op = op;
+		this.version = version;
+	}
+
+	public long getSeq() {
+		return seq;
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	public Op getOp() {
+		return op;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d: %s %d (%d)", seq, op, id, version);
+	}
+}
@@ -0,0 +1,47 @@
+package contact.entity;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * A page of changes from GET /contacts/changes.
+ * <tt>next</tt> is the sequence number to ask for changes since next time.
+ * @author Atit Leelasuksan 5510546221
+ *
+ */
+@XmlRootElement(name="changes")
+@XmlAccessorType(XmlAccessType.FIELD)
+public class ContactChangeList {
+	@XmlAttribute
+	private long next;
+	@XmlElement(name="change")
+	private List<ContactChange> changes;
+
+	public ContactChangeList() {
+		changes = new ArrayList<ContactChange>();
+	}
+
+	/**
+	 * Create a page of changes.
+	 * @param next sequence number of the last change, or the one asked for if there are no changes.
+	 * @param changes in order of sequence number
+	 */
+	public ContactChangeList(long next, List<ContactChange> changes) {
+		this.next = next;
+		this.changes = changes;
+	}
+
+	public long getNext() {
+		return next;
+	}
+
+	public List<ContactChange> getChanges() {
+		return changes;
+	}
+}
@@ -0,0 +1,285 @@
+package contact.entity;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact binary encoding of Contact and ContactList, for service-to-service
+ * traffic.  The encoding is the Protocol Buffers wire format of
+ * <pre>
+ * message Contact {
+ *   int64  id       = 1;
+ *   string title    = 2;
+ *   string name     = 3;
+ *   string email    = 4;
+ *   string photoUrl = 5;
+ * }
+ * message ContactList {
+ *   repeated Contact contact = 1;
+ * }
+ * </pre>
+ * so clients can also use generated protobuf classes.  Null fields are
+ * left out, and unknown fields are skipped when decoding.
+ * The version of a contact is not encoded, just as in XML and JSON.
+ * @author Atit Leelasuksan 5510546221
+ *
+ */
+public class ContactCodec {
+	private static final int ID = 1, TITLE = 2, NAME = 3, EMAIL = 4, PHOTO_URL = 5;
+	private static final int LIST_CONTACT = 1;
+	private static final int VARINT = 0, FIXED64 = 1, LENGTH_DELIMITED = 2, FIXED32 = 5;
+	/** largest message or string accepted when decoding. */
+	private static final int MAX_LENGTH = 16 << 20;
+
+	/**
+	 * A growable byte buffer that contacts are encoded into.
+	 * Reuse one buffer to write many contacts.
+	 */
+	public static class Buffer {
+		private byte[] bytes = new byte[256];
+		private int size;
+
+		/** empty the buffer. */
+		public void clear() {
+			size = 0;
+		}
+
+		/** @return number of bytes in the buffer. */
+		public int size() {
+			return size;
+		}
+
+		/**
+		 * Write the content of the buffer.
+		 * @param out stream to write to
+		 * @throws IOException if writing fails
+		 */
+		public void writeTo(OutputStream out) throws IOException {
+			out.write(bytes, 0, size);
+		}
+
+		/** @return a copy of the content of the buffer. */
+		public byte[] toByteArray() {
+			byte[] copy = new byte[size];
+			System.arraycopy(bytes, 0, copy, 0, size);
+			return copy;
+		}
+
+		void write(int b) {
+			if (size == bytes.length) grow(1);
+			bytes[size++] = (byte) b;
+		}
+
+		void write(byte[] data) {
+			if (size + data.length > bytes.length) grow(data.length);
+			System.arraycopy(data, 0, bytes, size, data.length);
+			size += data.length;
+		}
+
+		void writeVarint(long value) {
+			while((value & ~0x7FL) != 0) {
+				write((int) ((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+			write((int) value);
+		}
+
+		private void grow(int needed) {
+			byte[] larger = new byte[Math.max(bytes.length * 2, size + needed)];
+			System.arraycopy(bytes, 0, larger, 0, size);
+			bytes = larger;
+		}
+	}
+
+	/** this class only has static methods. */
+	private ContactCodec() {
+	}
+
+	/**
+	 * Encode a contact and append it to a buffer.
+	 * @param contact to encode
+	 * @param buffer to append to
+	 */
+	public static void encode(Contact contact, Buffer buffer) {
+		if (contact.getId() != 0) {
+			buffer.writeVarint(ID << 3 | VARINT);
+			buffer.writeVarint(contact.getId());
+		}
+		encodeString(buffer, TITLE, contact.getTitle());
+		encodeString(buffer, NAME, contact.getName());
+		encodeString(buffer, EMAIL, contact.getEmail());
+		encodeString(buffer, PHOTO_URL, contact.getPhotoUrl());
+	}
+
+	private static void encodeString(Buffer buffer, int field, String value) {
+		if (value == null) return;
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		buffer.writeVarint(field << 3 | LENGTH_DELIMITED);
+		buffer.writeVarint(bytes.length);
+		buffer.write(bytes);
+	}
+
+	/**
+	 * Write a contact as a Contact message.
+	 * @param contact to write
+	 * @param out stream to write to
+	 * @throws IOException if writing fails
+	 */
+	public static void write(Contact contact, OutputStream out) throws IOException {
+		Buffer buffer = new Buffer();
+		encode(contact, buffer);
+		buffer.writeTo(out);
+	}
+
+	/**
+	 * Write contacts as a ContactList message, one contact at a time.
+	 * @param contacts to write
+	 * @param out stream to write to
+	 * @throws IOException if writing fails
+	 */
+	public static void writeList(Iterable<Contact> contacts, OutputStream out) throws IOException {
+		Buffer message = new Buffer();
+		Buffer header = new Buffer();
+		for(Contact contact : contacts) {
+			message.clear();
+			encode(contact, message);
+			header.clear();
+			header.writeVarint(LIST_CONTACT << 3 | LENGTH_DELIMITED);
+			header.writeVarint(message.size());
+			header.writeTo(out);
+			message.writeTo(out);
+		}
+	}
+
+	/**
+	 * Read a Contact message, up to the end of the stream.
+	 * @param in stream to read
+	 * @return the contact
+	 * @throws IOException if the stream can't be read or is not a Contact message.
+	 */
+	public static Contact read(InputStream in) throws IOException {
+		Contact contact = new Contact();
+		int tag;
+		while((tag = readTag(in)) >= 0) {
+			readField(in, tag, contact);
+		}
+		return contact;
+	}
+
+	/**
+	 * Read a ContactList message, up to the end of the stream.
+	 * @param in stream to read
+	 * @return the contacts
+	 * @throws IOException if the stream can't be read or is not a ContactList message.
+	 */
+	public static List<Contact> readList(InputStream in) throws IOException {
+		List<Contact> contacts = new ArrayList<Contact>();
+		int tag;
+		while((tag = readTag(in)) >= 0) {
+			if (tag == (LIST_CONTACT << 3 | LENGTH_DELIMITED)) {
+				contacts.add(read(new LimitedInputStream(in, readLength(in))));
+			} else {
+				skip(in, tag);
+			}
+		}
+		return contacts;
+	}
+
+	private static void readField(InputStream in, int tag, Contact contact) throws IOException {
+		switch(tag) {
+		case ID << 3 | VARINT: contact.setId(readVarint(in)); break;
+		case TITLE << 3 | LENGTH_DELIMITED: contact.setTitle(readString(in)); break;
+		case NAME << 3 | LENGTH_DELIMITED: contact.setName(readString(in)); break;
+		case EMAIL << 3 | LENGTH_DELIMITED: contact.setEmail(readString(in)); break;
+		case PHOTO_URL << 3 | LENGTH_DELIMITED: contact.setPhotoUrl(readString(in)); break;
+		default: skip(in, tag);
+		}
+	}
+
+	/** read a field tag, or return -1 at the end of the stream. */
+	private static int readTag(InputStream in) throws IOException {
+		int b = in.read();
+		if (b < 0) return -1;
+		if ((b & 0x80) == 0) return b;
+		long value = (b & 0x7F) | (readVarint(in) << 7);
+		if (value > Integer.MAX_VALUE) throw new IOException("Bad field tag");
+		return (int) value;
+	}
+
+	private static long readVarint(InputStream in) throws IOException {
+		long value = 0;
+		for(int shift=0; shift<64; shift+=7) {
+			int b = in.read();
+			if (b < 0) throw new EOFException("Truncated varint");
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return value;
+		}
+		throw new IOException("Malformed varint");
+	}
+
+	private static int readLength(InputStream in) throws IOException {
+		long length = readVarint(in);
+		if (length < 0 || length > MAX_LENGTH) throw new IOException("Bad length "+length);
+		return (int) length;
+	}
+
+	private static String readString(InputStream in) throws IOException {
+		return new String(readBytes(in, readLength(in)), StandardCharsets.UTF_8);
+	}
+
+	private static byte[] readBytes(InputStream in, int length) throws IOException {
+		byte[] bytes = new byte[length];
+		int read = 0;
+		while(read < length) {
+			int n = in.read(bytes, read, length - read);
+			if (n < 0) throw new EOFException("Truncated field");
+			read += n;
+		}
+		return bytes;
+	}
+
+	/** skip a field that this version doesn't know. */
+	private static void skip(InputStream in, int tag) throws IOException {
+		switch(tag & 7) {
+		case VARINT: readVarint(in); break;
+		case FIXED64: readBytes(in, 8); break;
+		case LENGTH_DELIMITED: readBytes(in, readLength(in)); break;
+		case FIXED32: readBytes(in, 4); break;
+		default: throw new IOException("Unsupported wire type "+(tag & 7));
+		}
+	}
+
+	/** the part of a stream that holds one embedded message. */
+	private static class LimitedInputStream extends InputStream {
+		private final InputStream in;
+		private int remaining;
+
+		LimitedInputStream(InputStream in, int length) {
+			this.in = in;
+			this.remaining = length;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (remaining == 0) return -1;
+			int b = in.read();
+			if (b < 0) throw new EOFException("Truncated message");
+			remaining--;
+			return b;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) throws IOException {
+			if (remaining == 0) return -1;
+			int n = in.read(bytes, offset, Math.min(length, remaining));
+			if (n < 0) throw new EOFException("Truncated message");
+			remaining -= n;
+			return n;
+		}
+	}
+}
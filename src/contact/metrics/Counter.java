@@ -0,0 +1,35 @@
+package contact.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A count that only increases, such as the number of requests.
+ * @author Atit Leelasuksan 5510546221
+ *
+ */
+public class Counter {
+	private final AtomicLong count = new AtomicLong();
+
+	/**
+	 * Add one to the count.
+	 */
+	public void increment() {
+		count.incrementAndGet();
+	}
+
+	/**
+	 * Add to the count.
+	 * @param amount to add, should not be negative.
+	 */
+	public void add(long amount) {
+		count.addAndGet(amount);
+	}
+
+	/**
+	 * Get the count.
+	 * @return current count
+	 */
+	public long get() {
+		return count.get();
+	}
+}
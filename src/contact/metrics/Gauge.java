@@ -0,0 +1,14 @@
+package contact.metrics;
+
+/**
+ * A value that is read when metrics are written, such as the number of contacts.
+ * @author Atit Leelasuksan 5510546221
+ *
+ */
+public interface Gauge {
+	/**
+	 * Get the current value.
+	 * @return the value
+	 */
+	public abstract double getValue();
+}
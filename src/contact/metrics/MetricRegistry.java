@@ -0,0 +1,183 @@
+package contact.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Holds the metrics of the application and writes them in the
+ * Prometheus text format.  A metric is identified by its name and labels.
+ * Looking up a metric is not free, so code that records often should look
+ * up its Counter or Timer once and keep it.
+ * <p>
+ * Get the singleton registry with <tt>MetricRegistry.getInstance()</tt>.
+ * </p>
+ * @author Atit Leelasuksan 5510546221
+ *
+ */
+public class MetricRegistry {
+	private static final MetricRegistry instance = new MetricRegistry();
+
+	/** metrics with the same name, which differ by labels. */
+	private static class Family {
+		final String name;
+		final String help;
+		final String type;
+		final ConcurrentMap<String,Object> metrics = new ConcurrentSkipListMap<String,Object>();
+
+		Family(String name, String help, String type) {
+			this.name = name;
+			this.help = help;
+			this.type = type;
+		}
+	}
+
+	private final ConcurrentMap<String,Family> families = new ConcurrentSkipListMap<String,Family>();
+
+	/**
+	 * Get the registry that the application records metrics in.
+	 * @return the singleton registry
+	 */
+	public static MetricRegistry getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Get a counter, creating it if it doesn't exist.
+	 * @param name of the metric, such as "http_requests_total"
+	 * @param help description of the metric
+	 * @param labels labels of the metric made by labels(), or "" for none.
+	 * @return the counter
+	 */
+	public Counter counter(String name, String help, String labels) {
+		Family family = family(name, help, "counter");
+		Object metric = family.metrics.get(labels);
+		if (metric == null) {
+			Object created = family.metrics.putIfAbsent(labels, metric = new Counter());
+			if (created != null) metric = created;
+		}
+		return (Counter) metric;
+	}
+
+	/**
+	 * Add a counter whose count is kept elsewhere and read when metrics are written,
+	 * replacing any such counter with the same name and labels.
+	 * @param name of the metric, such as "contact_cache_hits_total"
+	 * @param help description of the metric
+	 * @param labels labels of the metric made by labels(), or "" for none.
+	 * @param count to read the count from, which should only increase.
+	 */
+	public void counter(String name, String help, String labels, Gauge count) {
+		family(name, help, "counter").metrics.put(labels, count);
+	}
+
+	/**
+	 * Get a timer, creating it if it doesn't exist.
+	 * @param name of the metric, such as "http_request_seconds"
+	 * @param help description of the metric
+	 * @param labels labels of the metric made by labels(), or "" for none.
+	 * @return the timer
+	 */
+	public Timer timer(String name, String help, String labels) {
+		Family family = family(name, help, "histogram");
+		Object metric = family.metrics.get(labels);
+		if (metric == null) {
+			Object created = family.metrics.putIfAbsent(labels, metric = new Timer());
+			if (created != null) metric = created;
+		}
+		return (Timer) metric;
+	}
+
+	/**
+	 * Add a gauge, replacing any gauge with the same name and labels.
+	 * @param name of the metric, such as "contacts_stored"
+	 * @param help description of the metric
+	 * @param labels labels of the metric made by labels(), or "" for none.
+	 * @param gauge to read the value from
+	 */
+	public void gauge(String name, String help, String labels, Gauge gauge) {
+		family(name, help, "gauge").metrics.put(labels, gauge);
+	}
+
+	private Family family(String name, String help, String type) {
+		Family family = families.get(name);
+		if (family == null) {
+			Family created = families.putIfAbsent(name, family = new Family(name, help, type));
+			if (created != null) family = created;
+		}
+		if (!family.type.equals(type)) throw new IllegalArgumentException(name+" is a "+family.type);
+		return family;
+	}
+
+	/**
+	 * Make the labels of a metric.
+	 * @param namesAndValues label names and values, alternating.
+	 * @return labels in Prometheus format, such as <tt>method="GET",status="200"</tt>
+	 */
+	public static String labels(String... namesAndValues) {
+		StringBuilder sb = new StringBuilder();
+		for(int k=0; k+1<namesAndValues.length; k+=2) {
+			if (sb.length() > 0) sb.append(',');
+			sb.append(namesAndValues[k]).append("=\"");
+			String value = namesAndValues[k+1];
+			for(int i=0; i<value.length(); i++) {
+				char c = value.charAt(i);
+				if (c == '\\' || c == '"') sb.append('\\').append(c);
+				else if (c == '\n') sb.append("\\n");
+				else sb.append(c);
+			}
+			sb.append('"');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Write all metrics in the Prometheus text exposition format (version 0.0.4).
+	 * @param out writer to write to
+	 * @throws IOException if writing fails
+	 */
+	public void write(Writer out) throws IOException {
+		for(Family family : families.values()) {
+			out.write("# HELP "+family.name+" "+family.help+"\n");
+			out.write("# TYPE "+family.name+" "+family.type+"\n");
+			for(Map.Entry<String,Object> entry : family.metrics.entrySet()) {
+				String labels = entry.getKey();
+				Object metric = entry.getValue();
+				if (metric instanceof Counter) {
+					writeSample(out, family.name, labels, Long.toString(((Counter) metric).get()));
+				} else if (metric instanceof Gauge) {
+					writeSample(out, family.name, labels, format(((Gauge) metric).getValue()));
+				} else {
+					Timer timer = (Timer) metric;
+					long[] counts = timer.getCumulativeCounts();
+					String prefix = labels.isEmpty() ? "" : labels+",";
+					for(int k=0; k<counts.length; k++) {
+						String le = (k < Timer.BOUNDS.length) ? format(Timer.BOUNDS[k]) : "+Inf";
+						writeSample(out, family.name+"_bucket", prefix+"le=\""+le+"\"", Long.toString(counts[k]));
+					}
+					writeSample(out, family.name+"_sum", labels, format(timer.getSum()));
+					writeSample(out, family.name+"_count", labels, Long.toString(counts[counts.length-1]));
+				}
+			}
+		}
+	}
+
+	private static void writeSample(Writer out, String name, String labels, String value) throws IOException {
+		out.write(name);
+		if (!labels.isEmpty()) {
+			out.write('{');
+			out.write(labels);
+			out.write('}');
+		}
+		out.write(' ');
+		out.write(value);
+		out.write('\n');
+	}
+
+	private static String format(double value) {
+		if (value == Math.rint(value) && !Double.isInfinite(value)) return Long.toString((long) value);
+		return Double.toString(value);
+	}
+}
@@ -0,0 +1,180 @@
+package contact.metrics;
+
+import java.util.List;
+import java.util.Set;
+
+import contact.entity.Contact;
+import contact.service.ContactCursor;
+import contact.service.ContactDao;
+import contact.service.ForwardingContactDao;
+
+/**
+ * A ContactDao that records the latency of each operation of another DAO
+ * in the "dao_operation_seconds" timer, labeled by operation.
+ * The time of scan is the time to open the cursor; reading the
+ * contacts is part of writing the response.
+ * @author Atit Leelasuksan 5510546221
+ *
+ */
+public class TimedContactDao extends ForwardingContactDao {
+	private static final String NAME = "dao_operation_seconds";
+	private static final String HELP = "Latency of ContactDao operations.";
+
+	private final Timer find;
+	private final Timer findAll;
+	private final Timer findByTitle;
+	private final Timer findByEmail;
+	private final Timer findByNamePrefix;
+	private final Timer scan;
+	private final Timer delete;
+	private final Timer save;
+	private final Timer update;
+	private final Timer saveAll;
+	private final Timer updateAll;
+	private final Timer deleteAll;
+
+	/**
+	 * Create a DAO that times the operations of a delegate.
+	 * @param delegate DAO to time
+	 * @param registry where to record the times
+	 */
+	public TimedContactDao(ContactDao delegate, MetricRegistry registry) {
+		super(delegate);
+		find = timer(registry, "find");
+		findAll = timer(registry, "findAll");
+		findByTitle = timer(registry, "findByTitle");
+		findByEmail = timer(registry, "findByEmail");
+		findByNamePrefix = timer(registry, "findByNamePrefix");
+		scan = timer(registry, "scan");
+		delete = timer(registry, "delete");
+		save = timer(registry, "save");
+		update = timer(registry, "update");
+		saveAll = timer(registry, "saveAll");
+		updateAll = timer(registry, "updateAll");
+		deleteAll = timer(registry, "deleteAll");
+	}
+
+	private static Timer timer(MetricRegistry registry, String operation) {
+		return registry.timer(NAME, HELP, MetricRegistry.labels("operation", operation));
+	}
+
+	@Override
+	public Contact find(long id) {
+		long start = System.nanoTime();
+		try {
+			return delegate.find(id);
+		} finally {
+			find.recordSince(start);
+		}
+	}
+
+	@Override
+	public List<Contact> findAll() {
+		long start = System.nanoTime();
+		try {
+			return delegate.findAll();
+		} finally {
+			findAll.recordSince(start);
+		}
+	}
+
+	@Override
+	public List<Contact> findByTitle(String prefix) {
+		long start = System.nanoTime();
+		try {
+			return delegate.findByTitle(prefix);
+		} finally {
+			findByTitle.recordSince(start);
+		}
+	}
+
+	@Override
+	public List<Contact> findByEmail(String email) {
+		long start = System.nanoTime();
+		try {
+			return delegate.findByEmail(email);
+		} finally {
+			findByEmail.recordSince(start);
+		}
+	}
+
+	@Override
+	public List<Contact> findByNamePrefix(String prefix, int limit) {
+		long start = System.nanoTime();
+		try {
+			return delegate.findByNamePrefix(prefix, limit);
+		} finally {
+			findByNamePrefix.recordSince(start);
+		}
+	}
+
+	@Override
+	public ContactCursor scan(String title, long after, int limit, Set<String> fields) {
+		long start = System.nanoTime();
+		try {
+			return delegate.scan(title, after, limit, fields);
+		} finally {
+			scan.recordSince(start);
+		}
+	}
+
+	@Override
+	public boolean delete(long id) {
+		long start = System.nanoTime();
+		try {
+			return delegate.delete(id);
+		} finally {
+			delete.recordSince(start);
+		}
+	}
+
+	@Override
+	public boolean save(Contact contact) {
+		long start = System.nanoTime();
+		try {
+			return delegate.save(contact);
+		} finally {
+			save.recordSince(start);
+		}
+	}
+
+	@Override
+	public boolean update(Contact update) {
+		long start = System.nanoTime();
+		try {
+			return delegate.update(update);
+		} finally {
+			this.update.recordSince(start);
+		}
+	}
+
+	@Override
+	public List<Contact> saveAll(List<Contact> contacts) {
+		long start = System.nanoTime();
+		try {
+			return delegate.saveAll(contacts);
+		} finally {
+			saveAll.recordSince(start);
+		}
+	}
+
+	@Override
+	public List<Contact> updateAll(List<Contact> updates) {
+		long start = System.nanoTime();
+		try {
+			return delegate.updateAll(updates);
+		} finally {
+			updateAll.recordSince(start);
+		}
+	}
+
+	@Override
+	public long[] deleteAll(long[] ids) {
+		long start = System.nanoTime();
+		try {
+			return delegate.deleteAll(ids);
+		} finally {
+			deleteAll.recordSince(start);
+		}
+	}
+}
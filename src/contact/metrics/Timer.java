@@ -0,0 +1,79 @@
+package contact.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations with fixed buckets, as a Prometheus histogram.
+ * Recording is lock-free and doesn't allocate.
+ * @author Atit Leelasuksan 5510546221
+ *
+ */
+public class Timer {
+	/** upper bounds of the buckets in seconds.  The last bucket (+Inf) is implicit. */
+	static final double[] BOUNDS = {
+		0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10
+	};
+	private static final long[] BOUNDS_NANOS = new long[BOUNDS.length];
+	static {
+		for(int k=0; k<BOUNDS.length; k++) BOUNDS_NANOS[k] = (long) (BOUNDS[k] * 1e9);
+	}
+
+	/** count of durations in each bucket, not cumulative. */
+	private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS.length + 1);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sumNanos = new AtomicLong();
+
+	/**
+	 * Record a duration.
+	 * @param nanos duration in nanoseconds
+	 */
+	public void record(long nanos) {
+		int k = 0;
+		while(k < BOUNDS_NANOS.length && nanos > BOUNDS_NANOS[k]) k++;
+		buckets.incrementAndGet(k);
+		sumNanos.addAndGet(nanos);
+		count.incrementAndGet();
+	}
+
+	/**
+	 * Record the time since a start time.
+	 * @param startNanos value of System.nanoTime() at the start
+	 */
+	public void recordSince(long startNanos) {
+		record(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * Get the number of recorded durations.
+	 * @return count of durations
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * Get the total of recorded durations.
+	 * @return sum in seconds
+	 */
+	public double getSum() {
+		return sumNanos.get() / (double) TimeUnit.SECONDS.toNanos(1);
+	}
+
+	/**
+	 * Get the cumulative counts of the buckets, as Prometheus expects.
+	 * Element k is the number of durations less or equal to BOUNDS[k];
+	 * the last element is the number of all durations.
+	 * @return cumulative bucket counts
+	 */
+	long[] getCumulativeCounts() {
+		long[] counts = new long[buckets.length()];
+		long total = 0;
+		for(int k=0; k<counts.length; k++) {
+			total += buckets.get(k);
+			counts[k] = total;
+		}
+		return counts;
+	}
+}
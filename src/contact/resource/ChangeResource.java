@@ -0,0 +1,413 @@
+package contact.resource;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import javax.inject.Singleton;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.container.TimeoutHandler;
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+
+import org.glassfish.jersey.server.ChunkedOutput;
+
+import contact.entity.ContactChange;
+import contact.entity.ContactChangeList;
+import contact.service.ChangeLog;
+
+/**
+ * Provide the changes made to contacts on GET /contacts/changes,
+ * in the order they were made, from the ChangeLog.
+ * <p>
+ * A client asks for the changes since the sequence number of the last
+ * change it has seen, and is given at most <tt>limit</tt> changes and
+ * the sequence number to ask with next time.  With <tt>wait</tt> the
+ * request is held until there is a change or the wait is over (long-polling).
+ * A client that asks with text/event-stream gets the changes as
+ * Server-Sent Events instead, for as long as it stays connected; the id
+ * of each event is its sequence number, so a client that reconnects
+ * with Last-Event-ID continues where it left off.
+ * </p><p>
+ * Only the last changes are kept.  A client that asks for changes that
+ * are no longer kept gets Gone (or a "reset" event on a stream) and must
+ * fetch the contacts again, then ask for changes since the sequence number
+ * it had before fetching.  Clients never hold back changes: each waiting
+ * client holds only its sequence number, and events are written by one
+ * of WRITER_THREADS threads of this resource, not the thread that made
+ * the change.  A stream whose client reads too slowly is dropped so it
+ * doesn't keep a writer thread: when it is more than MAX_LAG changes
+ * behind it gets a "reset" event, and when a write takes longer than
+ * WRITE_TIMEOUT_SECONDS it is closed.
+ * </p>
+ * @author Atit Leelasuksan 5510546221
+ *
+ */
+@Path("/contacts/changes")
+@Singleton
+public class ChangeResource {
+	/** media type of Server-Sent Events. */
+	public static final String TEXT_EVENT_STREAM = "text/event-stream";
+	/** only sent as events when the client asks for them, not for a wildcard. */
+	public static final String TEXT_EVENT_STREAM_QS = TEXT_EVENT_STREAM+";qs=0.5";
+	/** most changes in one response, and the default limit. */
+	static final int MAX_LIMIT = 1000;
+	/** most seconds a request may wait for changes. */
+	static final int MAX_WAIT_SECONDS = 60;
+	/** most clients waiting for changes, by long-polling or on a stream. */
+	static final int MAX_LISTENERS = 1000;
+	/** seconds between comments sent on an idle stream, so proxies keep it open. */
+	static final int HEARTBEAT_SECONDS = 15;
+	/** milliseconds an event stream client should wait before reconnecting. */
+	static final int RETRY_MILLIS = 1000;
+	/** threads that write events and resume long-polls. */
+	static final int WRITER_THREADS = 16;
+	/** most changes a stream may be behind the log before it is reset. */
+	static final int MAX_LAG = 10 * MAX_LIMIT;
+	/** most seconds one write to a stream may take before the stream is closed. */
+	static final int WRITE_TIMEOUT_SECONDS = 10;
+	private static final Logger logger = Logger.getLogger(ChangeResource.class.getName());
+
+	private final ChangeLog log = ChangeLog.getInstance();
+	/**
+	 * writes events and resumes long-polls, so the thread that made a change never waits for a client.
+	 * Each listener has at most one task waiting, so the queue only fills if there are more listeners than MAX_LISTENERS.
+	 */
+	private final ThreadPoolExecutor executor;
+	private final ScheduledExecutorService heartbeats;
+	private final Set<Stream> streams = Collections.newSetFromMap(new ConcurrentHashMap<Stream,Boolean>());
+	private final CacheControl cc;
+
+	/**
+	 * Initialize the resource, start sending heartbeats on streams and closing stuck ones.
+	 */
+	public ChangeResource() {
+		executor = new ThreadPoolExecutor(WRITER_THREADS, WRITER_THREADS, 60, TimeUnit.SECONDS
+				, new ArrayBlockingQueue<Runnable>(MAX_LISTENERS), daemonThreads("contact-changes-"));
+		executor.allowCoreThreadTimeOut(true);
+		heartbeats = Executors.newSingleThreadScheduledExecutor(daemonThreads("contact-heartbeat-"));
+		heartbeats.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				for(Stream stream : streams) stream.heartbeat();
+			}
+		}, HEARTBEAT_SECONDS, HEARTBEAT_SECONDS, TimeUnit.SECONDS);
+		heartbeats.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				long now = System.nanoTime();
+				for(Stream stream : streams) {
+					if(stream.isStuck(now)) {
+						logger.info("Closing an event stream whose client stopped reading");
+						stream.close();
+					}
+				}
+			}
+		}, 1, 1, TimeUnit.SECONDS);
+		cc = new CacheControl();
+		cc.setNoStore(true);
+	}
+
+	private static ThreadFactory daemonThreads(final String name) {
+		final AtomicInteger threads = new AtomicInteger();
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, name+threads.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	/**
+	 * GET method to read the changes since a sequence number.
+	 * @param since sequence number of the last change the client has seen.
+	 * 			If not given, only changes from now on are returned.
+	 * @param limit maximum number of changes to return.
+	 * @param wait seconds to wait for a change if there are none yet, 0 to answer at once.
+	 * @param response resumed with OK response with entity of the changes and the sequence number to ask with next.
+	 * 			Gone if changes after since are no longer kept.
+	 * 			Bad Request if limit or wait is out of range.
+	 * 			Service Unavailable if too many clients are waiting.
+	 */
+	@GET
+	@Produces({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON})
+	public void getChanges(@QueryParam("since") Long since
+			,@QueryParam("limit") @DefaultValue("1000") int limit
+			,@QueryParam("wait") @DefaultValue("0") int wait, @Suspended AsyncResponse response) {
+		if(limit<=0 || limit>MAX_LIMIT || wait<0 || wait>MAX_WAIT_SECONDS) {
+			response.resume(Response.status(Status.BAD_REQUEST).build());
+			return;
+		}
+		long seq = (since==null) ? log.getLastSequence() : since;
+		List<ContactChange> changes = log.since(seq, limit);
+		if(changes==null || !changes.isEmpty() || wait==0) {
+			response.resume(page(seq, changes));
+			return;
+		}
+		if(log.getListenerCount()>=MAX_LISTENERS) {
+			response.resume(unavailable());
+			return;
+		}
+		Waiter waiter = new Waiter(response, seq, limit);
+		response.setTimeoutHandler(waiter);
+		response.setTimeout(wait, TimeUnit.SECONDS);
+		log.addListener(waiter);
+		// a change made before the listener was added would not wake it
+		if(log.getLastSequence()!=seq) waiter.changed(log.getLastSequence());
+	}
+
+	/**
+	 * GET method to read the changes as Server-Sent Events.
+	 * Each change is an event named "change" whose id is its sequence number
+	 * and whose data is the change as JSON.  If the client falls so far behind
+	 * that its changes are no longer kept, a "reset" event is sent and the stream ends.
+	 * @param since sequence number of the last change the client has seen.
+	 * @param lastEventId sent by a reconnecting client instead of since.
+	 * @return OK response with a stream of events.
+	 * 			Gone if changes after since are no longer kept.
+	 * 			Service Unavailable if too many clients are waiting.
+	 */
+	@GET
+	@Produces(TEXT_EVENT_STREAM_QS)
+	public Response streamChanges(@QueryParam("since") Long since, @HeaderParam("Last-Event-ID") String lastEventId) {
+		long seq = log.getLastSequence();
+		try {
+			if(since!=null) seq = since;
+			else if(lastEventId!=null && !lastEventId.trim().isEmpty()) seq = Long.parseLong(lastEventId.trim());
+		} catch (NumberFormatException ex) {
+			return Response.status(Status.BAD_REQUEST).build();
+		}
+		if(log.since(seq, 1)==null) return Response.status(Status.GONE).cacheControl(cc).build();
+		if(log.getListenerCount()>=MAX_LISTENERS) return unavailable();
+		Stream stream = new Stream(seq);
+		streams.add(stream);
+		log.addListener(stream);
+		stream.send("retry: "+RETRY_MILLIS+"\n\n");
+		stream.changed(log.getLastSequence());
+		return Response.ok(stream.output, TEXT_EVENT_STREAM).cacheControl(cc).build();
+	}
+
+	/**
+	 * Make the response for a page of changes.
+	 * @param since sequence number the changes were asked for since
+	 * @param changes from the log, null if they are no longer kept
+	 * @return OK response with the changes, or Gone.
+	 */
+	private Response page(long since, List<ContactChange> changes) {
+		if(changes==null) return Response.status(Status.GONE).cacheControl(cc).build();
+		long next = changes.isEmpty() ? since : changes.get(changes.size()-1).getSeq();
+		return Response.ok(new ContactChangeList(next, changes)).cacheControl(cc).build();
+	}
+
+	/**
+	 * Make a Service Unavailable response that asks the client to try again later.
+	 * @return the response
+	 */
+	private static Response unavailable() {
+		return Response.status(Status.SERVICE_UNAVAILABLE).header("Retry-After", ContactResource.RETRY_AFTER_SECONDS).build();
+	}
+
+	/**
+	 * Format a change as a Server-Sent Event.
+	 * @param change to format
+	 * @param event to append the event to
+	 */
+	static void formatEvent(ContactChange change, StringBuilder event) {
+		event.append("id: ").append(change.getSeq()).append('\n');
+		event.append("event: change\n");
+		event.append("data: {\"seq\":").append(change.getSeq())
+			.append(",\"id\":").append(change.getId())
+			.append(",\"op\":\"").append(change.getOp().name().toLowerCase(Locale.ENGLISH))
+			.append("\",\"version\":").append(change.getVersion()).append("}\n\n");
+	}
+
+	/**
+	 * A long-polling request waiting for a change.
+	 * It is resumed once, by the first change or by the time out.
+	 */
+	private final class Waiter implements ChangeLog.Listener, TimeoutHandler {
+		private final AsyncResponse response;
+		private final long since;
+		private final int limit;
+		private final AtomicBoolean done = new AtomicBoolean();
+
+		Waiter(AsyncResponse response, long since, int limit) {
+			this.response = response;
+			this.since = since;
+			this.limit = limit;
+		}
+
+		@Override
+		public void changed(long last) {
+			if(!done.compareAndSet(false, true)) return;
+			log.removeListener(this);
+			try {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						response.resume(page(since, log.since(since, limit)));
+					}
+				});
+			} catch (RejectedExecutionException ex) {
+				response.resume(unavailable());
+			}
+		}
+
+		@Override
+		public void handleTimeout(AsyncResponse asyncResponse) {
+			if(!done.compareAndSet(false, true)) return;
+			log.removeListener(this);
+			asyncResponse.resume(page(since, log.since(since, limit)));
+		}
+	}
+
+	/**
+	 * An event stream to one client.  Events are written by one task at a
+	 * time on the executor: each change or heartbeat counts as pending work,
+	 * and the task keeps writing until there is none left.
+	 * A write blocks while the client doesn't read, so a stream can be closed
+	 * during a write; the writing thread then closes the output when the write
+	 * returns, which the container makes it do at its idle timeout at the latest.
+	 */
+	private final class Stream implements ChangeLog.Listener, Runnable {
+		final ChunkedOutput<String> output = new ChunkedOutput<String>(String.class);
+		/** sequence number of the last change sent. */
+		private long cursor;
+		private final AtomicInteger pending = new AtomicInteger();
+		private volatile boolean heartbeat;
+		private final AtomicBoolean closed = new AtomicBoolean();
+		private final AtomicBoolean outputClosed = new AtomicBoolean();
+		private volatile boolean writing;
+		/** System.nanoTime when the current write started. */
+		private volatile long writeStarted;
+
+		Stream(long since) {
+			cursor = since;
+		}
+
+		@Override
+		public void changed(long last) {
+			if(pending.getAndIncrement()==0) {
+				try {
+					executor.execute(this);
+				} catch (RejectedExecutionException ex) {
+					close();
+				}
+			}
+		}
+
+		/** send a comment if nothing else is sent before the next drain. */
+		void heartbeat() {
+			heartbeat = true;
+			changed(cursor);
+		}
+
+		@Override
+		public void run() {
+			int work;
+			do {
+				work = pending.get();
+				drain();
+			} while(pending.addAndGet(-work)!=0);
+		}
+
+		/** send the changes after the cursor, or a heartbeat if there are none. */
+		private void drain() {
+			if(closed.get()) return;
+			boolean sent = false;
+			while(true) {
+				// a client this far behind would hold a writer thread for a long time
+				List<ContactChange> changes = (log.getLastSequence()-cursor > MAX_LAG) ? null : log.since(cursor, MAX_LIMIT);
+				if(changes==null) {
+					send("event: reset\ndata: "+cursor+"\n\n");
+					close();
+					return;
+				}
+				if(changes.isEmpty()) break;
+				StringBuilder events = new StringBuilder(changes.size() * 80);
+				for(ContactChange change : changes) formatEvent(change, events);
+				if(!send(events.toString())) return;
+				cursor = changes.get(changes.size()-1).getSeq();
+				sent = true;
+			}
+			if(heartbeat) {
+				heartbeat = false;
+				if(!sent) send(": heartbeat\n\n");
+			}
+		}
+
+		/**
+		 * Write to the client, closing the stream if it has gone.
+		 * @param chunk to write
+		 * @return true if it was written
+		 */
+		boolean send(String chunk) {
+			writeStarted = System.nanoTime();
+			writing = true;
+			try {
+				output.write(chunk);
+			} catch (IOException ex) {
+				close();
+				return false;
+			} finally {
+				writing = false;
+			}
+			// closed during the write, when close left the output to this thread
+			if(closed.get()) {
+				closeOutput();
+				return false;
+			}
+			return true;
+		}
+
+		/**
+		 * Check if a write has taken longer than WRITE_TIMEOUT_SECONDS.
+		 * @param now System.nanoTime
+		 * @return true if the client is not reading
+		 */
+		boolean isStuck(long now) {
+			return writing && now - writeStarted > TimeUnit.SECONDS.toNanos(WRITE_TIMEOUT_SECONDS);
+		}
+
+		/** stop sending changes, and close the output unless a write is blocked on it. */
+		void close() {
+			if(!closed.compareAndSet(false, true)) return;
+			log.removeListener(this);
+			streams.remove(this);
+			if(!writing) closeOutput();
+		}
+
+		private void closeOutput() {
+			if(!outputClosed.compareAndSet(false, true)) return;
+			try {
+				output.close();
+			} catch (IOException ex) {
+				// the client has gone already
+			}
+		}
+	}
+}
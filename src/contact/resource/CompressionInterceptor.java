@@ -0,0 +1,269 @@
+package contact.resource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.Priority;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+
+/**
+ * Compress response entities with gzip or deflate, whichever the client
+ * prefers in its Accept-Encoding header.
+ * <p>
+ * Entities are compressed while they are written, so a long list of
+ * contacts is never held in memory.  The first MIN_SIZE bytes are buffered
+ * to decide: an entity smaller than that is sent as it is, since compressing
+ * it saves less than it costs.  A Representation from the cache that
+ * already has a gzip variant is sent without compressing it again.
+ * Event streams are not compressed, since each event is written as it happens.
+ * A compressed response has its own entity tag, the tag of the identity
+ * response with the coding appended such as "5-gzip", since its bytes differ.
+ * Use withoutEncoding to compare a tag from a request with a resource's tag.
+ * </p>
+ * @author Atit Leelasuksan 5510546221
+ *
+ */
+@Provider
+@Priority(Priorities.ENTITY_CODER)
+public class CompressionInterceptor implements WriterInterceptor {
+	/** entities shorter than this many bytes are not compressed. */
+	static final int MIN_SIZE = 512;
+	/** content codings that can be used, most preferred first. */
+	private static final String[] ENCODINGS = { "gzip", "deflate" };
+	private static final int BUFFER_SIZE = 8192;
+	private static final MediaType EVENT_STREAM = MediaType.valueOf(ChangeResource.TEXT_EVENT_STREAM);
+
+	@Context
+	private HttpHeaders requestHeaders;
+
+	@Override
+	public void aroundWriteTo(WriterInterceptorContext context) throws IOException, WebApplicationException {
+		MultivaluedMap<String,Object> headers = context.getHeaders();
+		if (headers.containsKey(HttpHeaders.CONTENT_ENCODING) || isEventStream(context.getMediaType())) {
+			context.proceed();
+			return;
+		}
+		headers.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+		String encoding = negotiate(requestHeaders.getHeaderString(HttpHeaders.ACCEPT_ENCODING));
+		Object entity = context.getEntity();
+		if (encoding != null && entity instanceof Representation) {
+			Representation representation = (Representation) entity;
+			if (representation.getBytes().length < MIN_SIZE) encoding = null;
+			else if (encoding.equals("gzip") && representation.getGzipped() != null) {
+				setEncoding(headers, encoding);
+				context.setEntity(representation.getGzipped());
+				encoding = null;
+			}
+		}
+		if (encoding == null) {
+			context.proceed();
+			return;
+		}
+		CompressingOutputStream out = new CompressingOutputStream(context.getOutputStream(), encoding, headers);
+		context.setOutputStream(out);
+		context.proceed();
+		out.finish();
+	}
+
+	/**
+	 * Set the Content-Encoding header, and give the response the entity tag
+	 * of the encoding.
+	 * @param headers of the response
+	 * @param encoding content coding of the entity
+	 */
+	private static void setEncoding(MultivaluedMap<String,Object> headers, String encoding) {
+		headers.putSingle(HttpHeaders.CONTENT_ENCODING, encoding);
+		Object tag = headers.getFirst(HttpHeaders.ETAG);
+		if (tag == null) return;
+		EntityTag entityTag = (tag instanceof EntityTag) ? (EntityTag) tag : EntityTag.valueOf(tag.toString());
+		headers.putSingle(HttpHeaders.ETAG, new EntityTag(entityTag.getValue()+"-"+encoding, entityTag.isWeak()));
+	}
+
+	/**
+	 * Remove the content coding from an entity tag of a compressed response,
+	 * to get the tag of the resource.
+	 * @param tag value of an entity tag, without quotes
+	 * @return the tag without "-gzip" or "-deflate" at its end
+	 */
+	static String withoutEncoding(String tag) {
+		for(String encoding : ENCODINGS) {
+			int start = tag.length() - encoding.length() - 1;
+			if (start > 0 && tag.charAt(start) == '-' && tag.endsWith(encoding)) return tag.substring(0, start);
+		}
+		return tag;
+	}
+
+	private static boolean isEventStream(MediaType mediaType) {
+		return mediaType != null && mediaType.isCompatible(EVENT_STREAM);
+	}
+
+	/**
+	 * Choose the content coding to use from an Accept-Encoding header.
+	 * The coding with the highest q-value is chosen, and gzip wins a tie.
+	 * A wildcard stands for any coding not listed by name.
+	 * @param acceptEncoding value of the header, may be null
+	 * @return "gzip" or "deflate", or null to send the entity as it is.
+	 */
+	static String negotiate(String acceptEncoding) {
+		if (acceptEncoding == null) return null;
+		float[] quality = new float[ENCODINGS.length];
+		boolean[] listed = new boolean[ENCODINGS.length];
+		float wildcard = 0;
+		for(String element : acceptEncoding.split(",")) {
+			String[] parts = element.split(";");
+			String name = parts[0].trim().toLowerCase(Locale.ENGLISH);
+			if (name.equals("x-gzip")) name = "gzip";
+			float q = 1;
+			for(int k=1; k<parts.length; k++) {
+				String param = parts[k].trim();
+				if (param.startsWith("q=")) {
+					try {
+						q = Float.parseFloat(param.substring(2));
+					} catch (NumberFormatException ex) {
+						q = 0;
+					}
+				}
+			}
+			if (name.equals("*")) wildcard = q;
+			for(int k=0; k<ENCODINGS.length; k++) {
+				if (name.equals(ENCODINGS[k])) {
+					quality[k] = q;
+					listed[k] = true;
+				}
+			}
+		}
+		String best = null;
+		float bestQuality = 0;
+		for(int k=0; k<ENCODINGS.length; k++) {
+			float q = listed[k] ? quality[k] : wildcard;
+			if (q > bestQuality) {
+				best = ENCODINGS[k];
+				bestQuality = q;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Compress bytes with gzip.
+	 * @param bytes to compress
+	 * @return the gzip stream of the bytes
+	 */
+	static byte[] gzip(byte[] bytes) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2 + 32);
+		try {
+			GZIPOutputStream gzip = new GZIPOutputStream(out);
+			gzip.write(bytes);
+			gzip.close();
+		} catch (IOException ex) {
+			// a ByteArrayOutputStream doesn't throw
+			throw new IllegalStateException(ex);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * A stream that buffers bytes until MIN_SIZE are written, then sets the
+	 * Content-Encoding header and compresses everything written to it.
+	 * If fewer bytes are written, they are sent as they are when finished.
+	 */
+	private static final class CompressingOutputStream extends OutputStream {
+		private final OutputStream out;
+		private final String encoding;
+		private final MultivaluedMap<String,Object> headers;
+		private byte[] buffer = new byte[MIN_SIZE - 1];
+		private int count;
+		private DeflaterOutputStream encoder;
+		private boolean finished;
+
+		CompressingOutputStream(OutputStream out, String encoding, MultivaluedMap<String,Object> headers) {
+			this.out = out;
+			this.encoding = encoding;
+			this.headers = headers;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if (encoder == null && count < buffer.length) buffer[count++] = (byte) b;
+			else encoder().write(b);
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int length) throws IOException {
+			if (encoder == null && count + length <= buffer.length) {
+				System.arraycopy(bytes, offset, buffer, count, length);
+				count += length;
+			} else {
+				encoder().write(bytes, offset, length);
+			}
+		}
+
+		/** start compressing, before anything is written to the response. */
+		private DeflaterOutputStream encoder() throws IOException {
+			if (encoder == null) {
+				setEncoding(headers, encoding);
+				// closing the encoder releases its Deflater but mustn't close the response
+				OutputStream unclosed = new FilterOutputStream(out) {
+					@Override
+					public void write(byte[] bytes, int offset, int length) throws IOException {
+						out.write(bytes, offset, length);
+					}
+
+					@Override
+					public void close() throws IOException {
+						flush();
+					}
+				};
+				if (encoding.equals("gzip")) encoder = new GZIPOutputStream(unclosed, BUFFER_SIZE);
+				else encoder = new DeflaterOutputStream(unclosed, new Deflater(), BUFFER_SIZE) {
+					@Override
+					public void close() throws IOException {
+						super.close();
+						def.end();
+					}
+				};
+				encoder.write(buffer, 0, count);
+				buffer = null;
+			}
+			return encoder;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			// a short entity stays buffered until we know if it will be compressed
+			if (encoder != null) encoder.flush();
+		}
+
+		/**
+		 * Write what is buffered, or the end of the compressed stream.
+		 * @throws IOException if the response can't be written
+		 */
+		void finish() throws IOException {
+			if (finished) return;
+			finished = true;
+			if (encoder == null) out.write(buffer, 0, count);
+			else encoder.close();
+		}
+
+		@Override
+		public void close() throws IOException {
+			finish();
+			out.close();
+		}
+	}
+}
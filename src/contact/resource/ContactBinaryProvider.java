@@ -0,0 +1,125 @@
+package contact.resource;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyReader;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+import javax.xml.bind.JAXBElement;
+import javax.xml.namespace.QName;
+
+import contact.entity.Contact;
+import contact.entity.ContactCodec;
+import contact.entity.ContactList;
+import contact.service.ContactCursor;
+
+/**
+ * Read and write contacts in the binary media type application/x-contact
+ * (see ContactCodec for the format).
+ * Writes Contact, ContactList and ContactCursor, and reads Contact and
+ * ContactList, also wrapped in a JAXBElement as ContactResource expects.
+ * A cursor is closed after writing.
+ * @author Atit Leelasuksan 5510546221
+ *
+ */
+@Provider
+@Produces(ContactBinaryProvider.APPLICATION_CONTACT)
+@Consumes(ContactBinaryProvider.APPLICATION_CONTACT)
+public class ContactBinaryProvider implements MessageBodyReader<Object>, MessageBodyWriter<Object> {
+	/** the binary media type of contacts. */
+	public static final String APPLICATION_CONTACT = "application/x-contact";
+	/**
+	 * the binary media type with a lower quality for @Produces,
+	 * so clients that accept any type still get XML.
+	 */
+	public static final String APPLICATION_CONTACT_QS = APPLICATION_CONTACT+";qs=0.5";
+	/** the binary media type of contacts. */
+	public static final MediaType APPLICATION_CONTACT_TYPE = new MediaType("application", "x-contact");
+
+	@Override
+	public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+		return Contact.class.isAssignableFrom(type) || ContactList.class.isAssignableFrom(type)
+				|| ContactCursor.class.isAssignableFrom(type);
+	}
+
+	@Override
+	public long getSize(Object entity, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+		return -1;
+	}
+
+	@Override
+	public void writeTo(Object entity, Class<?> type, Type genericType, Annotation[] annotations
+			, MediaType mediaType, MultivaluedMap<String, Object> httpHeaders, OutputStream out)
+			throws IOException, WebApplicationException {
+		if (entity instanceof Contact) {
+			ContactCodec.write((Contact) entity, out);
+		} else if (entity instanceof ContactList) {
+			BufferedOutputStream buffered = new BufferedOutputStream(out, 8192);
+			ContactCodec.writeList(((ContactList) entity).getContactList(), buffered);
+			buffered.flush();
+		} else {
+			ContactCursor cursor = (ContactCursor) entity;
+			try {
+				BufferedOutputStream buffered = new BufferedOutputStream(out, 8192);
+				ContactCodec.writeList(cursor, buffered);
+				buffered.flush();
+			} finally {
+				cursor.close();
+			}
+		}
+	}
+
+	@Override
+	public boolean isReadable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+		return entityClassOf(type, genericType) != null;
+	}
+
+	@Override
+	public Object readFrom(Class<Object> type, Type genericType, Annotation[] annotations, MediaType mediaType
+			, MultivaluedMap<String, String> httpHeaders, InputStream in) throws IOException, WebApplicationException {
+		Class<?> entityClass = entityClassOf(type, genericType);
+		InputStream buffered = new BufferedInputStream(in, 8192);
+		Object entity;
+		try {
+			if (entityClass == Contact.class) entity = ContactCodec.read(buffered);
+			else entity = new ContactList(ContactCodec.readList(buffered));
+		} catch (IOException ex) {
+			throw new BadRequestException("Malformed "+APPLICATION_CONTACT+" entity", ex);
+		}
+		if (!JAXBElement.class.equals(type)) return entity;
+		String name = (entityClass == Contact.class) ? "contact" : "contacts";
+		return newElement(name, entityClass, entity);
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static JAXBElement<?> newElement(String name, Class entityClass, Object entity) {
+		return new JAXBElement(new QName(name), entityClass, entity);
+	}
+
+	/**
+	 * Get the entity class to read: Contact or ContactList,
+	 * or the type argument of a JAXBElement of one of them.
+	 * @return the class, or null if this provider can't read the type.
+	 */
+	private static Class<?> entityClassOf(Class<?> type, Type genericType) {
+		if (type == JAXBElement.class && genericType instanceof ParameterizedType) {
+			Type[] arguments = ((ParameterizedType) genericType).getActualTypeArguments();
+			if (arguments.length == 1 && arguments[0] instanceof Class) type = (Class<?>) arguments[0];
+		}
+		if (type == Contact.class || type == ContactList.class) return type;
+		return null;
+	}
+}
@@ -0,0 +1,159 @@
+package contact.resource;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import contact.entity.Contact;
+import contact.service.ContactCursor;
+
+/**
+ * Write a ContactCursor as a list of contacts, one contact at a time,
+ * directly to the response stream.
+ * The XML is written with StAX and the JSON by hand, in the same
+ * format that JAXB produces for a ContactList, so clients can't tell
+ * the difference.  The cursor is closed after writing.
+ * @author Atit Leelasuksan 5510546221
+ *
+ */
+@Provider
+@Produces({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON})
+public class ContactCursorWriter implements MessageBodyWriter<ContactCursor> {
+
+	private static final XMLOutputFactory XML_FACTORY = XMLOutputFactory.newInstance();
+
+	@Override
+	public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+		return ContactCursor.class.isAssignableFrom(type);
+	}
+
+	@Override
+	public long getSize(ContactCursor cursor, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+		// length is not known until the cursor is consumed
+		return -1;
+	}
+
+	@Override
+	public void writeTo(ContactCursor cursor, Class<?> type, Type genericType, Annotation[] annotations
+			, MediaType mediaType, MultivaluedMap<String, Object> httpHeaders, OutputStream out)
+			throws IOException, WebApplicationException {
+		try {
+			if (MediaType.APPLICATION_JSON_TYPE.isCompatible(mediaType)) writeJson(cursor, out);
+			else writeXml(cursor, out);
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		} finally {
+			cursor.close();
+		}
+	}
+
+	/**
+	 * Write contacts as a &lt;contacts&gt; XML document.
+	 * @param contacts to write
+	 * @param out stream to write to
+	 * @throws XMLStreamException if XML can't be written
+	 */
+	public static void writeXml(Iterable<Contact> contacts, OutputStream out) throws XMLStreamException {
+		XMLStreamWriter xml = XML_FACTORY.createXMLStreamWriter(out, "UTF-8");
+		xml.writeStartDocument("UTF-8", "1.0");
+		xml.writeStartElement("contacts");
+		for(Contact contact : contacts) writeXml(contact, xml);
+		xml.writeEndElement();
+		xml.writeEndDocument();
+		xml.flush();
+		xml.close();
+	}
+
+	/**
+	 * Write one &lt;contact&gt; element.  Null fields are left out.
+	 * @param contact to write
+	 * @param xml writer to write to
+	 * @throws XMLStreamException if XML can't be written
+	 */
+	public static void writeXml(Contact contact, XMLStreamWriter xml) throws XMLStreamException {
+		xml.writeStartElement("contact");
+		xml.writeAttribute("id", Long.toString(contact.getId()));
+		writeXmlElement(xml, "title", contact.getTitle());
+		writeXmlElement(xml, "name", contact.getName());
+		writeXmlElement(xml, "email", contact.getEmail());
+		writeXmlElement(xml, "photoUrl", contact.getPhotoUrl());
+		xml.writeEndElement();
+	}
+
+	private static void writeXmlElement(XMLStreamWriter xml, String name, String value) throws XMLStreamException {
+		if (value == null) return;
+		xml.writeStartElement(name);
+		xml.writeCharacters(value);
+		xml.writeEndElement();
+	}
+
+	/**
+	 * Write contacts as a JSON object with a "contact" array.
+	 * @param contacts to write
+	 * @param out stream to write to
+	 * @throws IOException if JSON can't be written
+	 */
+	public static void writeJson(Iterable<Contact> contacts, OutputStream out) throws IOException {
+		Writer json = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+		json.write("{\"contact\":[");
+		boolean first = true;
+		for(Contact contact : contacts) {
+			if (!first) json.write(',');
+			writeJson(contact, json);
+			first = false;
+		}
+		json.write("]}");
+		json.flush();
+	}
+
+	/**
+	 * Write one contact as a JSON object.  Null fields are left out.
+	 * @param contact to write
+	 * @param json writer to write to
+	 * @throws IOException if JSON can't be written
+	 */
+	public static void writeJson(Contact contact, Writer json) throws IOException {
+		json.write("{\"id\":");
+		json.write(Long.toString(contact.getId()));
+		writeJsonField(json, "title", contact.getTitle());
+		writeJsonField(json, "name", contact.getName());
+		writeJsonField(json, "email", contact.getEmail());
+		writeJsonField(json, "photoUrl", contact.getPhotoUrl());
+		json.write('}');
+	}
+
+	private static void writeJsonField(Writer json, String name, String value) throws IOException {
+		if (value == null) return;
+		json.write(",\"");
+		json.write(name);
+		json.write("\":\"");
+		for(int k=0; k<value.length(); k++) {
+			char c = value.charAt(k);
+			switch(c) {
+			case '"': json.write("\\\""); break;
+			case '\\': json.write("\\\\"); break;
+			case '\n': json.write("\\n"); break;
+			case '\r': json.write("\\r"); break;
+			case '\t': json.write("\\t"); break;
+			default:
+				if (c < 0x20) json.write(String.format("\\u%04x", (int) c));
+				else json.write(c);
+			}
+		}
+		json.write('"');
+	}
+}
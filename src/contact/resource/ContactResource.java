@@ -1,40 +1,72 @@
 package contact.resource;
 
+import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.inject.Singleton;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.HeaderParam;
+import javax.ws.rs.InternalServerErrorException;
 import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.container.TimeoutHandler;
 import javax.ws.rs.core.CacheControl;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
-import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.Response.Status;
 import javax.ws.rs.core.UriInfo;
+import javax.ws.rs.core.Variant;
+import javax.ws.rs.ext.Providers;
 import javax.xml.bind.JAXBElement;
 
 import contact.entity.Contact;
 import contact.entity.ContactList;
+import contact.metrics.MetricRegistry;
+import contact.metrics.TimedContactDao;
+import contact.service.AsyncContactDao;
+import contact.service.ChangeLog;
+import contact.service.ChangeLogContactDao;
+import contact.service.ContactCursor;
 import contact.service.ContactDao;
+import contact.service.DaoCallback;
 import contact.service.DaoFactory;
+import contact.service.DaoOperation;
 
 /**
  * Provide Contact web resource that response to HTTP request
  * With GET, GET with parameter, GET with query, POST, PUT with parameter, DELETE method.
  * now GET with id parameter, POST and PUT support ETag, If-Match, If-None-Match Header.
+ * POST, PUT and DELETE on /contacts/batch work on many contacts at once.
+ * Requests are handled asynchronously: the request thread is released while
+ * the DAO works, and the response is resumed when the DAO operation finishes.
+ * If the DAO runs on its own executor, responses are resumed, and so
+ * written to the client, on other threads, so DAO threads only run DAO operations.
  * @author Atit Leelasuksan 5510546221
  *
  */
@@ -47,96 +79,217 @@ public class ContactResource {
 	 * use to get data, save data and update data.
 	 */
 	private ContactDao dao;
+	/** runs DAO operations without blocking request threads. */
+	private AsyncContactDao asyncDao;
+	/** resumes responses of DAO operations, or null if the DAO runs on the calling thread. */
+	private Executor responder;
 	private CacheControl cc;
-	private EntityTag eTag;
-	ResponseBuilder rb;
+	/** lists change often, so clients must revalidate them with If-None-Match. */
+	private CacheControl listCc;
+	/** contacts already encoded as XML and JSON, by id. */
+	private RepresentationCache representations;
+	/** media types a contact can be sent as. */
+	private List<Variant> variants;
+	@Context
+	private Providers providers;
+	/** most bytes of encoded contacts to keep. */
+	static final long REPRESENTATION_CACHE_BYTES = 32L << 20;
+	/** seconds to wait for the DAO before answering Service Unavailable. */
+	static final long TIMEOUT_SECONDS = 30;
+	/** seconds a client should wait before retrying after Service Unavailable. */
+	static final int RETRY_AFTER_SECONDS = 1;
+	/** threads that write responses when the DAO has its own executor. */
+	static final int RESPONSE_THREADS = 32;
+	/**
+	 * responses that may wait for a responder thread.  When more are waiting,
+	 * the DAO thread writes the response itself, which slows the DAO down
+	 * to the speed that clients read responses.
+	 */
+	static final int RESPONSE_QUEUE = 1000;
 	
 	/**
 	 * Initialize Resource and Contact Data Access Object.
+	 * The latency of each DAO operation is recorded in the MetricRegistry,
+	 * and each change is appended to the ChangeLog for /contacts/changes.
 	 */
 	public ContactResource() {
-		dao = DaoFactory.getInstance().getContactDao();
+		DaoFactory factory = DaoFactory.getInstance();
+		dao = new TimedContactDao(new ChangeLogContactDao(factory.getContactDao(), ChangeLog.getInstance()), MetricRegistry.getInstance());
+		asyncDao = new AsyncContactDao(dao, factory.getDaoExecutor());
+		if(factory.getDaoExecutor()!=null) responder = newResponder();
 		cc = new CacheControl();
 		cc.setMaxAge(3600);
+		listCc = new CacheControl();
+		listCc.setNoCache(true);
+		representations = new RepresentationCache(REPRESENTATION_CACHE_BYTES);
+		variants = Variant.mediaTypes(RepresentationCache.MEDIA_TYPES).build();
 	}
 	
 	/**
 	 * Standard GET method to get all exist contact.
 	 * Alternate version is for query parameter, check for contact's name that contain searchText. 
+	 * Contacts are returned in order of id, one page at a time if limit is given.
+	 * To get the next page, use the id of the last contact as after.
+	 * The ETag is the version of the whole store, so any query can be
+	 * answered with Not Modified while nothing in the store has changed.
+	 * Contacts are streamed from a DAO cursor by ContactCursorWriter
+	 * instead of building a ContactList in memory.
+	 * Contacts can also be looked up by email or by the start of their name,
+	 * both ignoring case, using the DAO's indexes.  Those results are
+	 * a ContactList, in order of id for email and of name for name,
+	 * and <tt>after</tt> is not used.
 	 * @param searchText is query text to search
-	 * @return OK response with entity of ContactList that provide all contact.
+	 * @param email find contacts with this email address.
+	 * @param namePrefix find contacts whose name starts with this.
+	 * @param after only return contacts with id greater than this.
+	 * @param limit maximum number of contacts to return, 0 for all.
+	 * @param fieldList comma separated names of fields to return, such as "title,email".
+	 * @param ifNoneMatch ETag of a list that client already has.
+	 * @param response resumed with OK response with entity that provide matching contacts, include ETag.
+	 * 			Not Modified if If-None-Match header exist and matches.
+	 * 			Bad Request if limit is negative, a field name is unknown,
+	 * 			or more than one of title, email and name is given.
 	 */
 	@GET
-	@Produces({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON}) 
-	public Response getContact(@QueryParam("title") String searchText) {
-		if(searchText==null) {
-			ContactList contacts = new ContactList(dao.findAll());
-			return Response.ok(contacts).build();
+	@Produces({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON, ContactBinaryProvider.APPLICATION_CONTACT_QS}) 
+	public void getContact(@QueryParam("title") String searchText
+			,@QueryParam("email") String email, @QueryParam("name") String namePrefix
+			,@QueryParam("after") @DefaultValue("0") long after
+			,@QueryParam("limit") @DefaultValue("0") int limit, @QueryParam("fields") String fieldList
+			,@HeaderParam("If-None-Match") String ifNoneMatch, @Suspended AsyncResponse response) {
+		int queries = (searchText==null ? 0 : 1) + (email==null ? 0 : 1) + (namePrefix==null ? 0 : 1);
+		if(limit<0 || queries>1) {
+			response.resume(Response.status(Status.BAD_REQUEST).build());
+			return;
+		}
+		Set<String> fields = null;
+		if(fieldList!=null) {
+			fields = new HashSet<String>();
+			for(String field : fieldList.split(",")) {
+				field = field.trim();
+				if(field.isEmpty() || field.equals("id")) continue;
+				if(!Contact.FIELDS.contains(field)) {
+					response.resume(Response.status(Status.BAD_REQUEST).build());
+					return;
+				}
+				fields.add(field);
+			}
 		}
-		else {
-			List<Contact> cont = dao.findByTitle(searchText);
-			ContactList contacts = new ContactList(cont);
-			return Response.ok(contacts).build();
+		// read version before the contacts, so the tag is never newer than the data
+		final EntityTag listTag = new EntityTag(Long.toString(dao.getStoreVersion()));
+		if(!handleIfMatchAndNoneMatch(null, ifNoneMatch, listTag.getValue())) {
+			response.resume(Response.notModified(listTag).cacheControl(listCc).header("Vary", "Accept").build());
+			return;
 		}
+		if(email!=null || namePrefix!=null) {
+			final Set<String> selected = fields;
+			Reply<List<Contact>> found = new Reply<List<Contact>>(response) {
+				@Override
+				protected Response respond(List<Contact> contacts) {
+					List<Contact> list = new ArrayList<Contact>(contacts.size());
+					for(Contact contact : contacts) list.add(selected==null ? contact : contact.project(selected));
+					return Response.ok(new ContactList(list)).cacheControl(listCc).tag(listTag).header("Vary", "Accept").build();
+				}
+			};
+			if(email!=null) found.start(asyncDao.findByEmail(email, found));
+			else found.start(asyncDao.findByNamePrefix(namePrefix, limit, found));
+			return;
+		}
+		Reply<ContactCursor> reply = new Reply<ContactCursor>(response) {
+			@Override
+			protected Response respond(ContactCursor contacts) {
+				return Response.ok(contacts).cacheControl(listCc).tag(listTag).header("Vary", "Accept").build();
+			}
+			
+			@Override
+			protected void discard(ContactCursor contacts) {
+				contacts.close();
+			}
+		};
+		reply.start(asyncDao.scan(searchText, after, limit, fields, reply));
 	}
 	
 	/**
 	 * GET method with path parameter of id.
+	 * The contact is sent from the cache of encoded contacts
+	 * if this version was already encoded in the media type.
 	 * @param id to GET specific contact that match the id.
-	 * @return OK response with entity of Contact include ETag.
+	 * @param response resumed with OK response with entity of Contact include ETag.
 	 * 			Not Modified if If-Match header exist and matches.
 	 * 				or If-None-Match header exist and matches
 	 * 			Not Found if can't find contact.
 	 */
 	@GET
 	@Path("{id: [1-9]\\d*}")
-	@Produces({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON})
-	public Response getContactByID(@PathParam("id") long id, @Context Request req
-			,@HeaderParam("If-Match") String ifMatch, @HeaderParam("If-None-Match") String ifNoneMatch) {
-		Contact contact = dao.find(id);
-		if(contact!=null) {
-			String tag = contact.hashCode()+"";
-			if(!handleIfMatchAndNoneMatch(ifMatch, ifNoneMatch, tag))
-				return Response.status(Status.NOT_MODIFIED).build();
-			eTag = new EntityTag(tag);
-			return Response.ok(contact).cacheControl(cc).tag(eTag).build();
-		}
-		return Response.status(Status.NOT_FOUND).build();
+	@Produces({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON, ContactBinaryProvider.APPLICATION_CONTACT_QS})
+	public void getContactByID(@PathParam("id") long id, @Context Request req
+			,@HeaderParam("If-Match") final String ifMatch, @HeaderParam("If-None-Match") final String ifNoneMatch
+			,@Suspended AsyncResponse response) {
+		// choose the media type on the request thread, the DAO may answer on another thread
+		Variant variant = req.selectVariant(variants);
+		final MediaType mediaType = (variant==null) ? MediaType.APPLICATION_XML_TYPE : variant.getMediaType();
+		Reply<Contact> reply = new Reply<Contact>(response) {
+			@Override
+			protected Response respond(Contact contact) {
+				if(contact!=null) {
+					String tag = tagOf(contact);
+					if(!handleIfMatchAndNoneMatch(ifMatch, ifNoneMatch, tag))
+						return Response.status(Status.NOT_MODIFIED).build();
+					try {
+						return Response.ok(representations.get(contact, mediaType, providers), mediaType)
+								.cacheControl(cc).tag(new EntityTag(tag)).build();
+					} catch (IOException ex) {
+						throw new InternalServerErrorException(ex);
+					}
+				}
+				return Response.status(Status.NOT_FOUND).build();
+			}
+		};
+		reply.start(asyncDao.find(id, reply));
 	}
 	
 	/**
 	 * POST method to create new contact from xml input.
 	 * if create success, response created with ETag
 	 * if id conflict with exist contact's id, response Conflict
-	 * otherwise Bad Request
+	 * otherwise, such as for a negative id, Bad Request
 	 * @param element of contact.
 	 * @param uriInfo info of requested uri.
-	 * @return Created response with ETag if create success.
+	 * @param response resumed with Created response with ETag if create success.
 	 * 			Conflict if id that try to create is already exist.
 	 * 			Bad Request for otherwise.
 	 * 	
 	 */
 	@POST
-	@Consumes({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON})
-	public Response createContactXML(JAXBElement<Contact> element, @Context UriInfo uriInfo) {
-		Contact contact = element.getValue();
-		if(contact.getId()==0 || dao.find(contact.getId())==null) {
-			boolean isSuccess = dao.save(contact);
-			if( isSuccess ) {
-				URI locationHeader = null;
-				try {
-					locationHeader = new URI(uriInfo.getAbsolutePath() + "/" + contact.getId());
-				} catch (URISyntaxException e) {
-					e.printStackTrace();
+	@Consumes({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON, ContactBinaryProvider.APPLICATION_CONTACT})
+	public void createContactXML(JAXBElement<Contact> element, @Context final UriInfo uriInfo, @Suspended AsyncResponse response) {
+		final Contact contact = element.getValue();
+		Reply<Response> reply = new Reply<Response>(response);
+		reply.start(asyncDao.call(new DaoOperation<Response>() {
+			@Override
+			public Response run(ContactDao dao) {
+				if(contact.getId()<0) return Response.status(Status.BAD_REQUEST).build();
+				if(contact.getId()==0 || dao.find(contact.getId())==null) {
+					boolean isSuccess = dao.save(contact);
+					if( isSuccess ) {
+						// a GET racing the delete may have cached the deleted contact, and a new
+						// contact with its id can start at the same version, such as 1 in JPA
+						representations.invalidate(contact.getId());
+						URI locationHeader = null;
+						try {
+							locationHeader = new URI(uriInfo.getAbsolutePath() + "/" + contact.getId());
+						} catch (URISyntaxException e) {
+							e.printStackTrace();
+						}
+						return Response.created(locationHeader).cacheControl(cc).tag(new EntityTag(tagOf(contact))).build();
+					}
+					return Response.status(Status.BAD_REQUEST).build();
+				}
+				else {
+					return Response.status(Status.CONFLICT).location(uriInfo.getRequestUri()).entity(contact).build();
 				}
-				eTag = new EntityTag(contact.hashCode()+"");
-				return Response.created(locationHeader).cacheControl(cc).tag(eTag).build();
 			}
-			return Response.status(Status.BAD_REQUEST).build();
-		}
-		else {
-			return Response.status(Status.CONFLICT).location(uriInfo.getRequestUri()).entity(contact).build();
-		}
+		}, reply));
 	}
 	
 	/**
@@ -145,64 +298,332 @@ public class ContactResource {
 	 * @param id of contact to update.
 	 * @param element of contact.
 	 * @param uriInfo info of requested uri.
-	 * @return OK response if update success.
+	 * @param response resumed with OK response if update success.
 	 * 			Precondition Failed if If-Match/If-None-Match exist and condition fail
 	 * 			Not Found if update id is not exist.
 	 */
 	@PUT
 	@Path("{id: [1-9]\\d*}")
-	@Consumes({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON})
-	public Response updateContact(@PathParam("id") long id, JAXBElement<Contact> element, @Context UriInfo uriInfo, @Context Request req
-			,@HeaderParam("If-Match") String ifMatch, @HeaderParam("If-None-Match") String ifNoneMatch) {
-		Contact contact = element.getValue();
-		Contact testCon = dao.find(id);
-		if(testCon!=null) {
-			if(contact.getId()!=id) return Response.status(Status.BAD_REQUEST).build();
-			String tag = testCon.hashCode()+"";
-			if(!handleIfMatchAndNoneMatch(ifMatch, ifNoneMatch, tag))
-				return Response.status(Status.PRECONDITION_FAILED).build();
-			boolean isSuccess = dao.update(contact);
-			if( isSuccess ) {
-				eTag = new EntityTag(dao.find(id).hashCode()+"");
-				return Response.ok().cacheControl(cc).tag(eTag).build();
+	@Consumes({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON, ContactBinaryProvider.APPLICATION_CONTACT})
+	public void updateContact(@PathParam("id") final long id, JAXBElement<Contact> element, @Context UriInfo uriInfo, @Context Request req
+			,@HeaderParam("If-Match") final String ifMatch, @HeaderParam("If-None-Match") final String ifNoneMatch
+			,@Suspended AsyncResponse response) {
+		final Contact contact = element.getValue();
+		Reply<Response> reply = new Reply<Response>(response);
+		reply.start(asyncDao.call(new DaoOperation<Response>() {
+			@Override
+			public Response run(ContactDao dao) {
+				Contact testCon = dao.find(id);
+				if(testCon!=null) {
+					if(contact.getId()!=id) return Response.status(Status.BAD_REQUEST).build();
+					String tag = tagOf(testCon);
+					if(!handleIfMatchAndNoneMatch(ifMatch, ifNoneMatch, tag))
+						return Response.status(Status.PRECONDITION_FAILED).build();
+					boolean isSuccess = dao.update(contact);
+					if( isSuccess ) {
+						representations.invalidate(id);
+						// update sets the new version on the contact that was sent
+						return Response.ok().cacheControl(cc).tag(new EntityTag(tagOf(contact))).build();
+					}
+				}
+				return Response.status(Status.NOT_FOUND).build();
 			}
-		}
-		return Response.status(Status.NOT_FOUND).build();
+		}, reply));
 	}
 	
 	/**
 	 * DELETE method to delete specific contact.
 	 * use if to indicate contact to delete.
 	 * @param id of contact.
-	 * @return OK response if delete success.
+	 * @param response resumed with OK response if delete success.
 	 * 			Precondition Failed if If-Match/If-None-Match exist and condition fail
 	 * 			Not Found if update id is not exist.
 	 */
 	@DELETE
 	@Path("{id: [1-9]\\d*}")
-	public Response deleteContact(@PathParam("id") long id, @Context Request req
-			,@HeaderParam("If-Match") String ifMatch, @HeaderParam("If-None-Match") String ifNoneMatch) {
-		Contact testCon = dao.find(id);
-		if(testCon!=null) {
-			String tag = testCon.hashCode()+"";
-			if(!handleIfMatchAndNoneMatch(ifMatch, ifNoneMatch, tag))
-					return Response.status(Status.PRECONDITION_FAILED).build();
-			boolean isSuccess = dao.delete(id);
-			if( isSuccess ) {
-				return Response.ok().build();
+	public void deleteContact(@PathParam("id") final long id, @Context Request req
+			,@HeaderParam("If-Match") final String ifMatch, @HeaderParam("If-None-Match") final String ifNoneMatch
+			,@Suspended AsyncResponse response) {
+		Reply<Response> reply = new Reply<Response>(response);
+		reply.start(asyncDao.call(new DaoOperation<Response>() {
+			@Override
+			public Response run(ContactDao dao) {
+				Contact testCon = dao.find(id);
+				if(testCon!=null) {
+					String tag = tagOf(testCon);
+					if(!handleIfMatchAndNoneMatch(ifMatch, ifNoneMatch, tag))
+							return Response.status(Status.PRECONDITION_FAILED).build();
+					boolean isSuccess = dao.delete(id);
+					if( isSuccess ) {
+						representations.invalidate(id);
+						return Response.ok().build();
+					}
+				}
+				return Response.status(Status.NOT_FOUND).build();
+			}
+		}, reply));
+	}
+	
+	/**
+	 * POST method to create many contacts from a list of contacts.
+	 * The contacts are saved in one batch, which fails if any id is taken,
+	 * so ids are only looked up to find the conflict when it fails.
+	 * An empty list saves nothing.
+	 * @param element list of contacts.
+	 * @param response resumed with OK response with entity of saved contacts, including their ids.
+	 * 			Conflict if any id that try to create is already exist, or is in the list twice.
+	 * 			Bad Request if an id is negative, or contacts could not be saved.
+	 */
+	@POST
+	@Path("batch")
+	@Consumes({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON, ContactBinaryProvider.APPLICATION_CONTACT})
+	@Produces({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON, ContactBinaryProvider.APPLICATION_CONTACT_QS})
+	public void createContacts(JAXBElement<ContactList> element, @Suspended AsyncResponse response) {
+		final List<Contact> contacts = contactsOf(element);
+		Reply<Response> reply = new Reply<Response>(response);
+		reply.start(asyncDao.call(new DaoOperation<Response>() {
+			@Override
+			public Response run(ContactDao dao) {
+				if(contacts.isEmpty()) return Response.ok(new ContactList(contacts)).build();
+				if(hasNegativeId(contacts)) return Response.status(Status.BAD_REQUEST).build();
+				List<Contact> saved = dao.saveAll(contacts);
+				if(saved.size()<contacts.size()) {
+					Contact conflict = conflictOf(contacts, dao);
+					if(conflict!=null) return Response.status(Status.CONFLICT).entity(conflict).build();
+					return Response.status(Status.BAD_REQUEST).build();
+				}
+				for(Contact contact : saved) representations.invalidate(contact.getId());
+				return Response.ok(new ContactList(saved)).build();
+			}
+		}, reply));
+	}
+	
+	/**
+	 * PUT method to update many contacts from a list of contacts.
+	 * The updates are applied in one batch.  Contacts whose id does not exist are skipped.
+	 * @param element list of contacts.
+	 * @param response resumed with OK response with entity of contacts that were updated.
+	 */
+	@PUT
+	@Path("batch")
+	@Consumes({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON, ContactBinaryProvider.APPLICATION_CONTACT})
+	@Produces({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON, ContactBinaryProvider.APPLICATION_CONTACT_QS})
+	public void updateContacts(JAXBElement<ContactList> element, @Suspended AsyncResponse response) {
+		Reply<List<Contact>> reply = new Reply<List<Contact>>(response) {
+			@Override
+			protected Response respond(List<Contact> updated) {
+				for(Contact contact : updated) representations.invalidate(contact.getId());
+				return Response.ok(new ContactList(updated)).build();
+			}
+		};
+		reply.start(asyncDao.updateAll(contactsOf(element), reply));
+	}
+	
+	/**
+	 * DELETE method to delete many contacts.
+	 * Contacts to delete are given by id in a list of contacts,
+	 * other fields are ignored.  Contacts whose id does not exist are skipped.
+	 * @param element list of contacts.
+	 * @param response resumed with OK response with the number of deleted contacts as text.
+	 */
+	@DELETE
+	@Path("batch")
+	@Consumes({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON, ContactBinaryProvider.APPLICATION_CONTACT})
+	@Produces(MediaType.TEXT_PLAIN)
+	public void deleteContacts(JAXBElement<ContactList> element, @Suspended AsyncResponse response) {
+		List<Contact> contacts = contactsOf(element);
+		final long[] ids = new long[contacts.size()];
+		for(int k=0; k<ids.length; k++) ids[k] = contacts.get(k).getId();
+		Reply<long[]> reply = new Reply<long[]>(response) {
+			@Override
+			protected Response respond(long[] deleted) {
+				for(long id : ids) representations.invalidate(id);
+				return Response.ok(Integer.toString(deleted.length)).build();
 			}
+		};
+		reply.start(asyncDao.deleteAll(ids, reply));
+	}
+	
+	/**
+	 * Resumes a suspended response with the result of a DAO operation.
+	 * If the operation takes longer than TIMEOUT_SECONDS, or there are too
+	 * many operations waiting for the DAO, the response is Service Unavailable
+	 * with Retry-After, and an operation that hasn't started is cancelled.
+	 * By default the result of the operation is the response itself.
+	 * Jersey writes the response inside resume, so the callbacks resume
+	 * on the responder, not on the DAO thread that calls them.
+	 * @param <T> type of the result of the DAO operation
+	 */
+	private class Reply<T> implements DaoCallback<T>, TimeoutHandler {
+		private final AsyncResponse response;
+		private volatile Future<T> task;
+		
+		Reply(AsyncResponse response) {
+			this.response = response;
+			response.setTimeoutHandler(this);
+			response.setTimeout(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		}
+		
+		/**
+		 * Remember the DAO operation, to cancel it on time out.
+		 * @param task future result of the DAO operation
+		 */
+		void start(Future<T> task) {
+			this.task = task;
+		}
+		
+		/**
+		 * Make the response for the result of the DAO operation.
+		 * @param result of the operation
+		 * @return the response
+		 */
+		protected Response respond(T result) {
+			return (Response) result;
+		}
+		
+		/**
+		 * Release a result that arrived after the response timed out.
+		 * @param result of the operation
+		 */
+		protected void discard(T result) {
+		}
+		
+		@Override
+		public void completed(final T result) {
+			dispatch(new Runnable() {
+				@Override
+				public void run() {
+					finish(result);
+				}
+			});
+		}
+		
+		private void finish(T result) {
+			Response reply;
+			try {
+				reply = respond(result);
+			} catch (RuntimeException ex) {
+				discard(result);
+				response.resume(ex);
+				return;
+			}
+			if(!response.resume(reply)) discard(result);
+		}
+		
+		@Override
+		public void failed(final Throwable ex) {
+			if(ex instanceof CancellationException) return;
+			dispatch(new Runnable() {
+				@Override
+				public void run() {
+					if(ex instanceof RejectedExecutionException) response.resume(unavailable());
+					else response.resume(ex);
+				}
+			});
 		}
-		return Response.status(Status.NOT_FOUND).build();
+		
+		/**
+		 * Run a task that resumes the response on the responder, if there is one.
+		 * @param task to run
+		 */
+		private void dispatch(Runnable task) {
+			if(responder==null) task.run();
+			else responder.execute(task);
+		}
+		
+		@Override
+		public void handleTimeout(AsyncResponse asyncResponse) {
+			Future<T> pending = task;
+			if(pending!=null) pending.cancel(false);
+			asyncResponse.resume(unavailable());
+		}
+	}
+	
+	/**
+	 * Create the executor that resumes responses.  It has at most
+	 * RESPONSE_THREADS daemon threads and RESPONSE_QUEUE waiting responses;
+	 * beyond that the caller runs the task.
+	 * @return the executor
+	 */
+	private static Executor newResponder() {
+		final AtomicInteger threads = new AtomicInteger();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(RESPONSE_THREADS, RESPONSE_THREADS, 60, TimeUnit.SECONDS
+				, new ArrayBlockingQueue<Runnable>(RESPONSE_QUEUE), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, "contact-response-"+threads.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		}, new ThreadPoolExecutor.CallerRunsPolicy());
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+	
+	/**
+	 * Make a Service Unavailable response that asks the client to try again later.
+	 * @return the response
+	 */
+	private static Response unavailable() {
+		return Response.status(Status.SERVICE_UNAVAILABLE).header("Retry-After", RETRY_AFTER_SECONDS).build();
+	}
+	
+	/**
+	 * Get the contacts of a list, never null.
+	 * @param element list of contacts
+	 * @return contacts in the list
+	 */
+	private static List<Contact> contactsOf(JAXBElement<ContactList> element) {
+		List<Contact> contacts = element.getValue().getContactList();
+		return (contacts == null) ? new ArrayList<Contact>() : contacts;
+	}
+	
+	/**
+	 * Check a batch for an id that can't be saved, since ids of contacts are positive.
+	 * @param contacts batch to check
+	 * @return true if any contact has a negative id
+	 */
+	private static boolean hasNegativeId(List<Contact> contacts) {
+		for(Contact contact : contacts) {
+			if(contact.getId()<0) return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Find the contact that made a batch fail to save, because its id
+	 * is saved already or is in the batch twice.
+	 * @param contacts batch that was not saved
+	 * @param dao the contacts were saved to
+	 * @return the conflicting contact, or null if there is none.
+	 */
+	private static Contact conflictOf(List<Contact> contacts, ContactDao dao) {
+		Set<Long> seen = new HashSet<Long>();
+		for(Contact contact : contacts) {
+			long id = contact.getId();
+			if(id!=0 && (!seen.add(id) || dao.find(id)!=null)) return contact;
+		}
+		return null;
+	}
+	
+	/**
+	 * Get the ETag value of a contact, which is its version.
+	 * @param contact to get tag
+	 * @return tag of contact
+	 */
+	private static String tagOf(Contact contact) {
+		return Long.toString(contact.getVersion());
 	}
 	
 	private boolean handleIfMatchAndNoneMatch(String ifMatch, String ifNoneMatch,String tag) {
+		// a compressed response has the tag with its coding appended
 		if(ifMatch!=null) {
-			ifMatch = ifMatch.replace("\"", "");
+			ifMatch = CompressionInterceptor.withoutEncoding(ifMatch.replace("\"", ""));
 			if(!(tag.equals(ifMatch))) 
 				return false;
 		}
 		else if(ifNoneMatch!=null) {
-			ifNoneMatch = ifNoneMatch.replace("\"", "");
+			ifNoneMatch = CompressionInterceptor.withoutEncoding(ifNoneMatch.replace("\"", ""));
 			if(tag.equals(ifNoneMatch)) 
 				return false;
 		}
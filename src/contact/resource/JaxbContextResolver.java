@@ -0,0 +1,26 @@
+package contact.resource;
+
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.ext.ContextResolver;
+import javax.ws.rs.ext.Provider;
+import javax.xml.bind.JAXBContext;
+
+import contact.entity.ContactBinding;
+
+/**
+ * Give Jersey's XML providers the shared JAXBContext for Contact and
+ * ContactList, so the context is created once for the whole service.
+ * Only used for XML; JSON is handled by MOXy with its own context.
+ * @author Atit Leelasuksan 5510546221
+ *
+ */
+@Provider
+@Produces({MediaType.APPLICATION_XML, MediaType.TEXT_XML})
+public class JaxbContextResolver implements ContextResolver<JAXBContext> {
+
+	@Override
+	public JAXBContext getContext(Class<?> type) {
+		return ContactBinding.isBound(type) ? ContactBinding.getContext() : null;
+	}
+}
@@ -0,0 +1,31 @@
+package contact.resource;
+
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.ext.ContextResolver;
+import javax.ws.rs.ext.Provider;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+
+import contact.entity.ContactBinding;
+
+/**
+ * Give Jersey's XML providers the Marshaller of the current thread
+ * for Contact and ContactList, instead of a new Marshaller per response.
+ * @author Atit Leelasuksan 5510546221
+ *
+ */
+@Provider
+@Produces({MediaType.APPLICATION_XML, MediaType.TEXT_XML})
+public class MarshallerResolver implements ContextResolver<Marshaller> {
+
+	@Override
+	public Marshaller getContext(Class<?> type) {
+		if (!ContactBinding.isBound(type)) return null;
+		try {
+			return ContactBinding.getMarshaller();
+		} catch (JAXBException ex) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,185 @@
+package contact.resource;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.Path;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+
+import contact.metrics.Counter;
+import contact.metrics.MetricRegistry;
+import contact.metrics.Timer;
+
+/**
+ * Record metrics of every request: the time and status code of each
+ * endpoint, the time to write each type of entity, and how many
+ * conditional requests were answered 304 Not Modified or 412 Precondition Failed.
+ * The time of a request includes writing its entity, because lists
+ * of contacts are read from the DAO while they are written.
+ * Metrics are looked up once per endpoint, so recording doesn't lock.
+ * @author Atit Leelasuksan 5510546221
+ *
+ */
+@Provider
+public class MetricsFilter implements ContainerRequestFilter, ContainerResponseFilter, WriterInterceptor {
+	private static final String START = MetricsFilter.class.getName()+".start";
+	private static final String ENDPOINT = MetricsFilter.class.getName()+".endpoint";
+
+	/** metrics of one resource method. */
+	private class Endpoint {
+		final String name;
+		final Timer timer;
+		/** counters by status code, created when a status is first seen. */
+		final AtomicReferenceArray<Counter> statuses = new AtomicReferenceArray<Counter>(600);
+
+		Endpoint(String name) {
+			this.name = name;
+			timer = registry.timer("http_request_seconds", "Time to handle requests, including writing the response."
+					, MetricRegistry.labels("endpoint", name));
+		}
+
+		void count(int status) {
+			if (status < 0 || status >= statuses.length()) return;
+			Counter counter = statuses.get(status);
+			if (counter == null) {
+				counter = registry.counter("http_requests_total", "Requests by endpoint and status code."
+						, MetricRegistry.labels("endpoint", name, "status", Integer.toString(status)));
+				statuses.set(status, counter);
+			}
+			counter.increment();
+		}
+	}
+
+	@Context
+	private ResourceInfo resourceInfo;
+	private final MetricRegistry registry = MetricRegistry.getInstance();
+	private final ConcurrentMap<Method,Endpoint> endpoints = new ConcurrentHashMap<Method,Endpoint>();
+	private final Endpoint unmatched = new Endpoint("unmatched");
+	private final Counter conditional;
+	private final Counter notModified;
+	private final Counter preconditionFailed;
+	/** timers of writing entities by entity class and media subtype. */
+	private final ConcurrentMap<Class<?>,ConcurrentMap<String,Timer>> writeTimers
+			= new ConcurrentHashMap<Class<?>,ConcurrentMap<String,Timer>>();
+
+	/**
+	 * Create the filter and its counters.
+	 */
+	public MetricsFilter() {
+		conditional = registry.counter("http_conditional_requests_total"
+				, "Requests with If-Match or If-None-Match.", "");
+		notModified = registry.counter("http_not_modified_total"
+				, "Conditional requests answered 304 Not Modified.", "");
+		preconditionFailed = registry.counter("http_precondition_failed_total"
+				, "Conditional requests answered 412 Precondition Failed.", "");
+	}
+
+	@Override
+	public void filter(ContainerRequestContext request) throws IOException {
+		request.setProperty(START, System.nanoTime());
+	}
+
+	@Override
+	public void filter(ContainerRequestContext request, ContainerResponseContext response) throws IOException {
+		Object start = request.getProperty(START);
+		if (start == null) return;
+		Endpoint endpoint = endpointOf(request.getMethod());
+		int status = response.getStatus();
+		endpoint.count(status);
+		if (request.getHeaderString(HttpHeaders.IF_NONE_MATCH) != null
+				|| request.getHeaderString(HttpHeaders.IF_MATCH) != null) {
+			conditional.increment();
+			if (status == 304) notModified.increment();
+			else if (status == 412) preconditionFailed.increment();
+		}
+		// the entity is written after this filter, so record the time after writing it
+		if (response.hasEntity()) request.setProperty(ENDPOINT, endpoint);
+		else {
+			request.removeProperty(START);
+			endpoint.timer.recordSince((Long) start);
+		}
+	}
+
+	@Override
+	public void aroundWriteTo(WriterInterceptorContext context) throws IOException, WebApplicationException {
+		long begin = System.nanoTime();
+		try {
+			context.proceed();
+		} finally {
+			writeTimer(context.getType(), context.getMediaType()).recordSince(begin);
+			Endpoint endpoint = (Endpoint) context.getProperty(ENDPOINT);
+			Object start = context.getProperty(START);
+			if (endpoint != null && start != null) {
+				// a stream writes many chunks; only the first ends the request
+				context.removeProperty(START);
+				endpoint.timer.recordSince((Long) start);
+			}
+		}
+	}
+
+	private Endpoint endpointOf(String httpMethod) {
+		Method method = resourceInfo.getResourceMethod();
+		if (method == null) return unmatched;
+		Endpoint endpoint = endpoints.get(method);
+		if (endpoint == null) {
+			endpoint = new Endpoint(httpMethodOf(method, httpMethod)+" "+pathOf(resourceInfo.getResourceClass(), method));
+			Endpoint old = endpoints.putIfAbsent(method, endpoint);
+			if (old != null) endpoint = old;
+		}
+		return endpoint;
+	}
+
+	private static String httpMethodOf(Method method, String requested) {
+		for(java.lang.annotation.Annotation annotation : method.getAnnotations()) {
+			HttpMethod http = annotation.annotationType().getAnnotation(HttpMethod.class);
+			if (http != null) return http.value();
+		}
+		return requested;
+	}
+
+	/** the path template of a resource method, without regular expressions of parameters. */
+	private static String pathOf(Class<?> resource, Method method) {
+		StringBuilder path = new StringBuilder();
+		if (resource != null && resource.getAnnotation(Path.class) != null) path.append(resource.getAnnotation(Path.class).value());
+		if (method.getAnnotation(Path.class) != null) {
+			String sub = method.getAnnotation(Path.class).value();
+			if (!sub.startsWith("/")) path.append('/');
+			path.append(sub);
+		}
+		return path.toString().replaceAll("\\{\\s*(\\w+)\\s*:[^}]*\\}", "{$1}");
+	}
+
+	private Timer writeTimer(Class<?> type, MediaType mediaType) {
+		ConcurrentMap<String,Timer> timers = writeTimers.get(type);
+		if (timers == null) {
+			ConcurrentMap<String,Timer> old = writeTimers.putIfAbsent(type, timers = new ConcurrentHashMap<String,Timer>());
+			if (old != null) timers = old;
+		}
+		String subtype = (mediaType == null) ? "unknown" : mediaType.getSubtype();
+		Timer timer = timers.get(subtype);
+		if (timer == null) {
+			// cursors are anonymous classes, so name them by their superclass
+			Class<?> named = type;
+			while(named.getSimpleName().isEmpty() && named.getSuperclass() != null) named = named.getSuperclass();
+			timer = registry.timer("http_response_write_seconds", "Time to serialize response entities."
+					, MetricRegistry.labels("type", named.getSimpleName(), "media", subtype));
+			timers.putIfAbsent(subtype, timer);
+		}
+		return timer;
+	}
+}
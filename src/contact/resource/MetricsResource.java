@@ -0,0 +1,115 @@
+package contact.resource;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+
+import javax.inject.Singleton;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import contact.metrics.Gauge;
+import contact.metrics.MetricRegistry;
+import contact.service.CachingContactDao;
+import contact.service.ContactDao;
+import contact.service.DaoFactory;
+
+/**
+ * Provide the metrics of the service in Prometheus text format on GET /metrics.
+ * Besides the request and DAO metrics recorded while serving,
+ * it reports the number of stored contacts, statistics of the contact
+ * cache (if the DAO has one) and heap use when scraped.
+ * @author Atit Leelasuksan 5510546221
+ *
+ */
+@Path("/metrics")
+@Singleton
+public class MetricsResource {
+	/** media type of the Prometheus text format. */
+	public static final String PROMETHEUS_TEXT = "text/plain; version=0.0.4; charset=utf-8";
+
+	private final MetricRegistry registry = MetricRegistry.getInstance();
+	private CacheControl cc;
+
+	/**
+	 * Initialize the resource and register gauges, and counters of the cache.
+	 */
+	public MetricsResource() {
+		cc = new CacheControl();
+		cc.setNoStore(true);
+		registry.gauge("contacts_stored", "Number of contacts in the store.", "", new Gauge() {
+			@Override
+			public double getValue() {
+				return DaoFactory.getInstance().getContactDao().count();
+			}
+		});
+		registry.counter("contact_cache_hits_total", "Finds answered from the contact cache.", "", new Gauge() {
+			@Override
+			public double getValue() {
+				CachingContactDao cache = cache();
+				return (cache == null) ? 0 : cache.getHitCount();
+			}
+		});
+		registry.counter("contact_cache_misses_total", "Finds that missed the contact cache.", "", new Gauge() {
+			@Override
+			public double getValue() {
+				CachingContactDao cache = cache();
+				return (cache == null) ? 0 : cache.getMissCount();
+			}
+		});
+		registry.counter("contact_cache_evictions_total", "Contacts evicted from the contact cache.", "", new Gauge() {
+			@Override
+			public double getValue() {
+				CachingContactDao cache = cache();
+				return (cache == null) ? 0 : cache.getEvictionCount();
+			}
+		});
+		registry.gauge("contact_cache_size", "Contacts in the contact cache.", "", new Gauge() {
+			@Override
+			public double getValue() {
+				CachingContactDao cache = cache();
+				return (cache == null) ? 0 : cache.size();
+			}
+		});
+		registry.gauge("jvm_heap_used_bytes", "Used heap memory.", "", new Gauge() {
+			@Override
+			public double getValue() {
+				return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+			}
+		});
+	}
+
+	/**
+	 * Get the cache in front of the current DAO.
+	 * @return the cache, or null if the DAO is not cached.
+	 */
+	private static CachingContactDao cache() {
+		ContactDao dao = DaoFactory.getInstance().getContactDao();
+		return (dao instanceof CachingContactDao) ? (CachingContactDao) dao : null;
+	}
+	
+	/**
+	 * GET method to read all metrics.
+	 * @return OK response with metrics in Prometheus text format.
+	 */
+	@GET
+	@Produces(PROMETHEUS_TEXT)
+	public Response getMetrics() {
+		StreamingOutput metrics = new StreamingOutput() {
+			@Override
+			public void write(OutputStream out) throws IOException, WebApplicationException {
+				Writer writer = new OutputStreamWriter(out, "UTF-8");
+				registry.write(writer);
+				writer.flush();
+			}
+		};
+		return Response.ok(metrics).cacheControl(cc).build();
+	}
+}
@@ -0,0 +1,74 @@
+package contact.resource;
+
+import javax.ws.rs.core.MediaType;
+
+/**
+ * A contact already encoded in one media type, as sent to clients.
+ * Written as it is by RepresentationWriter.
+ * A large representation may also have a gzip variant, so it can be
+ * sent compressed without compressing it for every request.
+ * @author Atit Leelasuksan 5510546221
+ *
+ */
+public class Representation {
+	private final long version;
+	private final MediaType mediaType;
+	private final byte[] bytes;
+	private final Representation gzipped;
+
+	/**
+	 * Create a representation.
+	 * @param version of the contact that was encoded
+	 * @param mediaType of the bytes
+	 * @param bytes the encoded contact, must not be changed afterwards.
+	 */
+	public Representation(long version, MediaType mediaType, byte[] bytes) {
+		this(version, mediaType, bytes, null);
+	}
+
+	/**
+	 * Create a representation with a gzip variant.
+	 * @param version of the contact that was encoded
+	 * @param mediaType of the bytes
+	 * @param bytes the encoded contact, must not be changed afterwards.
+	 * @param gzipBytes the bytes compressed with gzip, or null if there is no gzip variant.
+	 */
+	public Representation(long version, MediaType mediaType, byte[] bytes, byte[] gzipBytes) {
+		this.version = version;
+		this.mediaType = mediaType;
+		this.bytes = bytes;
+		this.gzipped = (gzipBytes == null) ? null : new Representation(version, mediaType, gzipBytes);
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	public MediaType getMediaType() {
+		return mediaType;
+	}
+
+	/**
+	 * Get the encoded contact.  The array is shared, don't change it.
+	 * @return the bytes
+	 */
+	public byte[] getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Get the gzip variant, whose bytes are this representation compressed with gzip.
+	 * @return the gzip variant, or null if there is none.
+	 */
+	public Representation getGzipped() {
+		return gzipped;
+	}
+
+	/**
+	 * Get the memory used by the bytes of this representation and its gzip variant.
+	 * @return number of bytes
+	 */
+	public int size() {
+		return bytes.length + (gzipped == null ? 0 : gzipped.bytes.length);
+	}
+}
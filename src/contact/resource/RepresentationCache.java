@@ -0,0 +1,132 @@
+package contact.resource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Providers;
+
+import contact.entity.Contact;
+
+/**
+ * Keeps contacts already encoded as XML and JSON, so a GET of a contact
+ * that hasn't changed doesn't marshal it again.  A representation is only
+ * used for the same version of the contact, so a stale one is never sent
+ * even if a write didn't invalidate it.
+ * <p>
+ * Contacts are encoded by the same MessageBodyWriter that Jersey would use,
+ * so cached responses are byte for byte the same as uncached ones.
+ * Representations of at least CompressionInterceptor.MIN_SIZE bytes are
+ * also kept compressed with gzip, since most clients accept gzip.
+ * When the cache holds more than its maximum bytes, some representations
+ * are dropped; which ones is not specified.
+ * </p>
+ * @author Atit Leelasuksan 5510546221
+ *
+ */
+class RepresentationCache {
+	private static final Annotation[] NO_ANNOTATIONS = new Annotation[0];
+	/** media types that are cached, one map for each. */
+	static final MediaType[] MEDIA_TYPES = { MediaType.APPLICATION_XML_TYPE, MediaType.APPLICATION_JSON_TYPE
+			, ContactBinaryProvider.APPLICATION_CONTACT_TYPE };
+
+	private final List<ConcurrentMap<Long,Representation>> maps;
+	private final long maxBytes;
+	private final AtomicLong bytes = new AtomicLong();
+	private final AtomicBoolean evicting = new AtomicBoolean();
+
+	/**
+	 * Create an empty cache.
+	 * @param maxBytes most bytes of representations to keep
+	 */
+	RepresentationCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+		maps = new ArrayList<ConcurrentMap<Long,Representation>>(MEDIA_TYPES.length);
+		for(int k=0; k<MEDIA_TYPES.length; k++) maps.add(new ConcurrentHashMap<Long,Representation>());
+	}
+
+	/**
+	 * Get a contact encoded in a media type, encoding it if the cache
+	 * doesn't have this version.
+	 * @param contact to encode
+	 * @param mediaType to encode as
+	 * @param providers to find the MessageBodyWriter for Contact
+	 * @return the representation
+	 * @throws IOException if the contact can't be encoded
+	 */
+	Representation get(Contact contact, MediaType mediaType, Providers providers) throws IOException {
+		int index = indexOf(mediaType);
+		if (index >= 0) {
+			Representation cached = maps.get(index).get(contact.getId());
+			if (cached != null && cached.getVersion() == contact.getVersion()) return cached;
+		}
+		byte[] encoded = encode(contact, mediaType, providers);
+		byte[] gzipBytes = (encoded.length < CompressionInterceptor.MIN_SIZE) ? null : CompressionInterceptor.gzip(encoded);
+		Representation representation = new Representation(contact.getVersion(), mediaType, encoded, gzipBytes);
+		if (index >= 0) put(index, contact.getId(), representation);
+		return representation;
+	}
+
+	/**
+	 * Drop the representations of a contact, after it is changed or deleted.
+	 * @param id of the contact
+	 */
+	void invalidate(long id) {
+		for(ConcurrentMap<Long,Representation> map : maps) {
+			Representation removed = map.remove(id);
+			if (removed != null) bytes.addAndGet(-removed.size());
+		}
+	}
+
+	private static int indexOf(MediaType mediaType) {
+		for(int k=0; k<MEDIA_TYPES.length; k++) {
+			if (MEDIA_TYPES[k].getType().equals(mediaType.getType())
+					&& MEDIA_TYPES[k].getSubtype().equals(mediaType.getSubtype())) return k;
+		}
+		return -1;
+	}
+
+	private void put(int index, long id, Representation representation) {
+		Representation old = maps.get(index).put(id, representation);
+		long size = bytes.addAndGet(representation.size() - (old == null ? 0 : old.size()));
+		if (size > maxBytes) evict();
+	}
+
+	/** drop representations until the cache is 10% below its maximum. */
+	private void evict() {
+		if (!evicting.compareAndSet(false, true)) return;
+		try {
+			long target = maxBytes - maxBytes / 10;
+			for(ConcurrentMap<Long,Representation> map : maps) {
+				Iterator<Map.Entry<Long,Representation>> iterator = map.entrySet().iterator();
+				while(bytes.get() > target && iterator.hasNext()) {
+					Map.Entry<Long,Representation> entry = iterator.next();
+					if (map.remove(entry.getKey(), entry.getValue())) bytes.addAndGet(-entry.getValue().size());
+				}
+			}
+		} finally {
+			evicting.set(false);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static byte[] encode(Contact contact, MediaType mediaType, Providers providers) throws IOException {
+		MessageBodyWriter<Contact> writer = providers.getMessageBodyWriter(Contact.class, Contact.class, NO_ANNOTATIONS, mediaType);
+		if (writer == null) throw new IOException("No writer for "+mediaType);
+		ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+		writer.writeTo(contact, Contact.class, Contact.class, NO_ANNOTATIONS, mediaType
+				, new MultivaluedHashMap<String,Object>(), out);
+		return out.toByteArray();
+	}
+}
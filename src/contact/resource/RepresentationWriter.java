@@ -0,0 +1,41 @@
+package contact.resource;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+
+/**
+ * Write an already encoded Representation straight to the response stream,
+ * with its length so the response has a Content-Length.
+ * @author Atit Leelasuksan 5510546221
+ *
+ */
+@Provider
+@Produces(MediaType.WILDCARD)
+public class RepresentationWriter implements MessageBodyWriter<Representation> {
+
+	@Override
+	public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+		return Representation.class.isAssignableFrom(type);
+	}
+
+	@Override
+	public long getSize(Representation representation, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+		return representation.getBytes().length;
+	}
+
+	@Override
+	public void writeTo(Representation representation, Class<?> type, Type genericType, Annotation[] annotations
+			, MediaType mediaType, MultivaluedMap<String, Object> httpHeaders, OutputStream out)
+			throws IOException, WebApplicationException {
+		out.write(representation.getBytes());
+	}
+}
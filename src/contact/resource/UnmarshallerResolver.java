@@ -0,0 +1,25 @@
+package contact.resource;
+
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.ext.ContextResolver;
+import javax.ws.rs.ext.Provider;
+import javax.xml.bind.Unmarshaller;
+
+import contact.entity.ContactBinding;
+
+/**
+ * Give Jersey's XML providers the Unmarshaller of the current thread
+ * for Contact and ContactList, instead of a new Unmarshaller per request.
+ * @author Atit Leelasuksan 5510546221
+ *
+ */
+@Provider
+@Produces({MediaType.APPLICATION_XML, MediaType.TEXT_XML})
+public class UnmarshallerResolver implements ContextResolver<Unmarshaller> {
+
+	@Override
+	public Unmarshaller getContext(Class<?> type) {
+		return ContactBinding.isBound(type) ? ContactBinding.getUnmarshaller() : null;
+	}
+}
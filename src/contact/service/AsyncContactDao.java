@@ -0,0 +1,231 @@
+package contact.service;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import contact.entity.Contact;
+
+/**
+ * Runs the operations of a ContactDao without blocking the caller.
+ * Each operation returns a Future and calls a DaoCallback when it finishes.
+ * <p>
+ * Operations of a DAO that blocks, such as a database, run on an executor
+ * given by the DaoFactory (see DaoFactory.getDaoExecutor()).  The executor
+ * should be bounded: when it rejects an operation, the callback fails with
+ * RejectedExecutionException so the caller can answer "try later" instead
+ * of queueing more work.  Without an executor, operations run at once on
+ * the calling thread, which suits DAOs that don't block, such as MemContactDao.
+ * </p>
+ * @author Atit Leelasuksan 5510546221
+ *
+ */
+public class AsyncContactDao {
+	private static final Logger logger = Logger.getLogger(AsyncContactDao.class.getName());
+	private final ContactDao dao;
+	private final Executor executor;
+
+	/**
+	 * Create an async view of a DAO.
+	 * @param dao the DAO that does the work
+	 * @param executor to run operations on, or null to run them on the calling thread.
+	 */
+	public AsyncContactDao(ContactDao dao, Executor executor) {
+		this.dao = dao;
+		this.executor = executor;
+	}
+
+	/**
+	 * Get the DAO that does the work.
+	 * @return the DAO
+	 */
+	public ContactDao getDao() {
+		return dao;
+	}
+
+	/**
+	 * Run work with the DAO as one operation.
+	 * @param operation the work to do
+	 * @param callback to call with the result, may be null
+	 * @return future result, which can be cancelled before the work starts.
+	 */
+	public <T> Future<T> call(final DaoOperation<T> operation, DaoCallback<T> callback) {
+		DaoTask<T> task = new DaoTask<T>(new Callable<T>() {
+			@Override
+			public T call() {
+				return operation.run(dao);
+			}
+		}, callback);
+		if (executor == null) {
+			task.run();
+		} else {
+			try {
+				executor.execute(task);
+			} catch (RejectedExecutionException ex) {
+				task.reject(ex);
+			}
+		}
+		return task;
+	}
+
+	/** @see ContactDao#find(long) */
+	public Future<Contact> find(final long id, DaoCallback<Contact> callback) {
+		return call(new DaoOperation<Contact>() {
+			@Override
+			public Contact run(ContactDao dao) {
+				return dao.find(id);
+			}
+		}, callback);
+	}
+
+	/** @see ContactDao#findByTitle(String) */
+	public Future<List<Contact>> findByTitle(final String prefix, DaoCallback<List<Contact>> callback) {
+		return call(new DaoOperation<List<Contact>>() {
+			@Override
+			public List<Contact> run(ContactDao dao) {
+				return dao.findByTitle(prefix);
+			}
+		}, callback);
+	}
+
+	/** @see ContactDao#findByEmail(String) */
+	public Future<List<Contact>> findByEmail(final String email, DaoCallback<List<Contact>> callback) {
+		return call(new DaoOperation<List<Contact>>() {
+			@Override
+			public List<Contact> run(ContactDao dao) {
+				return dao.findByEmail(email);
+			}
+		}, callback);
+	}
+
+	/** @see ContactDao#findByNamePrefix(String, int) */
+	public Future<List<Contact>> findByNamePrefix(final String prefix, final int limit, DaoCallback<List<Contact>> callback) {
+		return call(new DaoOperation<List<Contact>>() {
+			@Override
+			public List<Contact> run(ContactDao dao) {
+				return dao.findByNamePrefix(prefix, limit);
+			}
+		}, callback);
+	}
+
+	/**
+	 * The cursor is opened by the operation, so it should also be read
+	 * on a thread that may block, such as the one that calls the callback.
+	 * @see ContactDao#scan(String, long, int, Set)
+	 */
+	public Future<ContactCursor> scan(final String title, final long after, final int limit, final Set<String> fields
+			, DaoCallback<ContactCursor> callback) {
+		return call(new DaoOperation<ContactCursor>() {
+			@Override
+			public ContactCursor run(ContactDao dao) {
+				return dao.scan(title, after, limit, fields);
+			}
+		}, callback);
+	}
+
+	/** @see ContactDao#delete(long) */
+	public Future<Boolean> delete(final long id, DaoCallback<Boolean> callback) {
+		return call(new DaoOperation<Boolean>() {
+			@Override
+			public Boolean run(ContactDao dao) {
+				return dao.delete(id);
+			}
+		}, callback);
+	}
+
+	/** @see ContactDao#save(Contact) */
+	public Future<Boolean> save(final Contact contact, DaoCallback<Boolean> callback) {
+		return call(new DaoOperation<Boolean>() {
+			@Override
+			public Boolean run(ContactDao dao) {
+				return dao.save(contact);
+			}
+		}, callback);
+	}
+
+	/** @see ContactDao#update(Contact) */
+	public Future<Boolean> update(final Contact update, DaoCallback<Boolean> callback) {
+		return call(new DaoOperation<Boolean>() {
+			@Override
+			public Boolean run(ContactDao dao) {
+				return dao.update(update);
+			}
+		}, callback);
+	}
+
+	/** @see ContactDao#saveAll(List) */
+	public Future<List<Contact>> saveAll(final List<Contact> contacts, DaoCallback<List<Contact>> callback) {
+		return call(new DaoOperation<List<Contact>>() {
+			@Override
+			public List<Contact> run(ContactDao dao) {
+				return dao.saveAll(contacts);
+			}
+		}, callback);
+	}
+
+	/** @see ContactDao#updateAll(List) */
+	public Future<List<Contact>> updateAll(final List<Contact> updates, DaoCallback<List<Contact>> callback) {
+		return call(new DaoOperation<List<Contact>>() {
+			@Override
+			public List<Contact> run(ContactDao dao) {
+				return dao.updateAll(updates);
+			}
+		}, callback);
+	}
+
+	/** @see ContactDao#deleteAll(long[]) */
+	public Future<long[]> deleteAll(final long[] ids, DaoCallback<long[]> callback) {
+		return call(new DaoOperation<long[]>() {
+			@Override
+			public long[] run(ContactDao dao) {
+				return dao.deleteAll(ids);
+			}
+		}, callback);
+	}
+
+	/** a future that calls its callback when it is done. */
+	private static class DaoTask<T> extends FutureTask<T> {
+		private final DaoCallback<T> callback;
+
+		DaoTask(Callable<T> callable, DaoCallback<T> callback) {
+			super(callable);
+			this.callback = callback;
+		}
+
+		/** fail the task because the executor rejected it. */
+		void reject(RejectedExecutionException ex) {
+			setException(ex);
+		}
+
+		@Override
+		protected void done() {
+			if (callback == null) return;
+			try {
+				T result;
+				try {
+					result = get();
+				} catch (CancellationException ex) {
+					callback.failed(ex);
+					return;
+				} catch (ExecutionException ex) {
+					callback.failed(ex.getCause());
+					return;
+				}
+				callback.completed(result);
+			} catch (InterruptedException ex) {
+				// get() doesn't wait once the task is done
+				Thread.currentThread().interrupt();
+			} catch (RuntimeException ex) {
+				logger.log(Level.WARNING, "DAO callback failed", ex);
+			}
+		}
+	}
+}
@@ -0,0 +1,340 @@
+package contact.service;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+import contact.entity.Contact;
+
+/**
+ * A ContactDao that keeps recently found contacts in memory, in front of
+ * a slower DAO such as JpaContactDao.  find is answered from the cache
+ * when it can; other reads go to the delegate.  Writes go to the delegate
+ * and then remove the contacts they change from the cache.
+ * <p>
+ * The cache holds at most maximumSize contacts, each for at most the
+ * time to live.  Which contacts to keep is decided as in W-TinyLFU:
+ * new contacts enter a small LRU window; when they leave it they are
+ * only admitted to the main cache if they were used more often than the
+ * contact the main cache would evict, according to a FrequencySketch.
+ * The main cache is a segmented LRU with probation and protected parts.
+ * </p><p>
+ * Hits don't wait for the policy lock: if it is busy the use is not
+ * recorded, which only makes the policy slightly less exact.
+ * Callers get their own copy of a cached contact.
+ * </p>
+ * @author Atit Leelasuksan 5510546221
+ *
+ */
+public class CachingContactDao extends ForwardingContactDao {
+	private static final int WINDOW = 0, PROBATION = 1, PROTECTED = 2;
+	/** number of counters used to detect writes during a load. */
+	private static final int STRIPES = 64;
+
+	/** a cached contact, also a node in one of the policy's LRU lists. */
+	private static final class Node {
+		final long id;
+		final Contact contact;
+		final long expires;
+		int queue;
+		boolean removed;
+		Node prev;
+		Node next;
+
+		Node(long id, Contact contact, long expires) {
+			this.id = id;
+			this.contact = contact;
+			this.expires = expires;
+		}
+	}
+
+	/** a doubly linked LRU list with a sentinel; most recent at the tail. */
+	private static final class LruList {
+		final Node head = new Node(0, null, 0);
+		int size;
+
+		LruList() {
+			head.prev = head;
+			head.next = head;
+		}
+
+		void addLast(Node node) {
+			node.prev = head.prev;
+			node.next = head;
+			head.prev.next = node;
+			head.prev = node;
+			size++;
+		}
+
+		void remove(Node node) {
+			node.prev.next = node.next;
+			node.next.prev = node.prev;
+			node.prev = null;
+			node.next = null;
+			size--;
+		}
+
+		Node first() {
+			return (head.next == head) ? null : head.next;
+		}
+	}
+
+	private final ConcurrentMap<Long,Node> cache = new ConcurrentHashMap<Long,Node>();
+	private final long ttlNanos;
+	private final int windowSize;
+	private final int protectedSize;
+	private final int mainSize;
+	private final ReentrantLock policyLock = new ReentrantLock();
+	private final LruList[] queues = { new LruList(), new LruList(), new LruList() };
+	private final FrequencySketch sketch;
+	/** incremented by every write, so a load that raced with a write is not cached. */
+	private final AtomicLongArray writes = new AtomicLongArray(STRIPES);
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * Create a cache in front of a DAO.
+	 * @param delegate the DAO to cache
+	 * @param maximumSize maximum number of cached contacts
+	 * @param timeToLive how long a contact may be cached
+	 * @param unit unit of timeToLive
+	 */
+	public CachingContactDao(ContactDao delegate, int maximumSize, long timeToLive, TimeUnit unit) {
+		super(delegate);
+		if (maximumSize < 1) throw new IllegalArgumentException("maximumSize must be positive");
+		ttlNanos = unit.toNanos(timeToLive);
+		windowSize = Math.max(1, maximumSize / 100);
+		mainSize = Math.max(1, maximumSize - windowSize);
+		protectedSize = Math.max(1, mainSize * 4 / 5);
+		sketch = new FrequencySketch(maximumSize);
+	}
+
+	@Override
+	public Contact find(long id) {
+		Node node = cache.get(id);
+		if (node != null) {
+			if (node.expires - System.nanoTime() > 0) {
+				hits.incrementAndGet();
+				if (policyLock.tryLock()) {
+					try {
+						onAccess(node);
+					} finally {
+						policyLock.unlock();
+					}
+				}
+				return node.contact.project(null);
+			}
+			discard(node);
+		}
+		misses.incrementAndGet();
+		long stamp = writes.get(stripe(id));
+		Contact contact = delegate.find(id);
+		if (contact != null) add(id, contact, stamp);
+		return contact;
+	}
+
+	@Override
+	public boolean delete(long id) {
+		try {
+			return delegate.delete(id);
+		} finally {
+			invalidate(id);
+		}
+	}
+
+	@Override
+	public boolean save(Contact contact) {
+		try {
+			return delegate.save(contact);
+		} finally {
+			// the id is assigned by save
+			invalidate(contact.getId());
+		}
+	}
+
+	@Override
+	public boolean update(Contact update) {
+		try {
+			return delegate.update(update);
+		} finally {
+			invalidate(update.getId());
+		}
+	}
+
+	@Override
+	public List<Contact> saveAll(List<Contact> contacts) {
+		try {
+			return delegate.saveAll(contacts);
+		} finally {
+			for(Contact contact : contacts) invalidate(contact.getId());
+		}
+	}
+
+	@Override
+	public List<Contact> updateAll(List<Contact> updates) {
+		try {
+			return delegate.updateAll(updates);
+		} finally {
+			for(Contact update : updates) invalidate(update.getId());
+		}
+	}
+
+	@Override
+	public long[] deleteAll(long[] ids) {
+		try {
+			return delegate.deleteAll(ids);
+		} finally {
+			for(long id : ids) invalidate(id);
+		}
+	}
+
+	/**
+	 * Get the number of finds answered from the cache.
+	 * @return hit count
+	 */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * Get the number of finds that went to the delegate.
+	 * @return miss count
+	 */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * Get the number of contacts removed to keep the cache within its size.
+	 * @return eviction count
+	 */
+	public long getEvictionCount() {
+		return evictions.get();
+	}
+
+	/**
+	 * Get the fraction of finds answered from the cache.
+	 * @return hit rate between 0 and 1, or 0 if there were no finds.
+	 */
+	public double getHitRate() {
+		long hit = hits.get();
+		long total = hit + misses.get();
+		return (total == 0) ? 0 : (double) hit / total;
+	}
+
+	/**
+	 * Get the number of cached contacts.
+	 * @return size of the cache
+	 */
+	public int size() {
+		return cache.size();
+	}
+
+	/**
+	 * Remove all contacts from the cache, such as after the database was
+	 * changed without this DAO.
+	 */
+	public void invalidateAll() {
+		for(Long id : cache.keySet()) invalidate(id);
+	}
+
+	private static int stripe(long id) {
+		return (int) (id ^ (id >>> 32)) & (STRIPES - 1);
+	}
+
+	/** cache a loaded contact, unless the contact was written while it was loaded. */
+	private void add(long id, Contact contact, long stamp) {
+		int stripe = stripe(id);
+		if (writes.get(stripe) != stamp) return;
+		Node node = new Node(id, contact.project(null), System.nanoTime() + ttlNanos);
+		policyLock.lock();
+		try {
+			if (cache.putIfAbsent(id, node) != null) return;
+			sketch.increment(id);
+			node.queue = WINDOW;
+			queues[WINDOW].addLast(node);
+			evict();
+		} finally {
+			policyLock.unlock();
+		}
+		// a write after the first check must not leave the old contact cached
+		if (writes.get(stripe) != stamp) invalidate(id);
+	}
+
+	/** remove a contact that is being written, and stop loads of it from being cached. */
+	private void invalidate(long id) {
+		writes.incrementAndGet(stripe(id));
+		Node node = cache.get(id);
+		if (node != null) discard(node);
+	}
+
+	/** remove a node from the cache. */
+	private void discard(Node node) {
+		if (!cache.remove(node.id, node)) return;
+		policyLock.lock();
+		try {
+			unlink(node);
+		} finally {
+			policyLock.unlock();
+		}
+	}
+
+	/** remove a node from its LRU list.  Called while holding the policy lock. */
+	private void unlink(Node node) {
+		if (node.removed) return;
+		node.removed = true;
+		queues[node.queue].remove(node);
+	}
+
+	/** record a hit.  Called while holding the policy lock. */
+	private void onAccess(Node node) {
+		sketch.increment(node.id);
+		if (node.removed) return;
+		switch(node.queue) {
+		case WINDOW:
+		case PROTECTED:
+			queues[node.queue].remove(node);
+			queues[node.queue].addLast(node);
+			break;
+		case PROBATION:
+			queues[PROBATION].remove(node);
+			node.queue = PROTECTED;
+			queues[PROTECTED].addLast(node);
+			// demote the least recent protected contacts to probation
+			while(queues[PROTECTED].size > protectedSize) {
+				Node demoted = queues[PROTECTED].first();
+				queues[PROTECTED].remove(demoted);
+				demoted.queue = PROBATION;
+				queues[PROBATION].addLast(demoted);
+			}
+			break;
+		}
+	}
+
+	/**
+	 * Move contacts that overflow the window to probation, and when the
+	 * main cache is full keep either the candidate from the window or the
+	 * least recent contact on probation, whichever is used more often.
+	 * Called while holding the policy lock.
+	 */
+	private void evict() {
+		while(queues[WINDOW].size > windowSize) {
+			Node candidate = queues[WINDOW].first();
+			queues[WINDOW].remove(candidate);
+			candidate.queue = PROBATION;
+			queues[PROBATION].addLast(candidate);
+			if (queues[PROBATION].size + queues[PROTECTED].size <= mainSize) continue;
+			Node victim = queues[PROBATION].first();
+			if (victim == candidate) victim = queues[PROTECTED].first();
+			Node evicted = (sketch.frequency(candidate.id) > sketch.frequency(victim.id)) ? victim : candidate;
+			unlink(evicted);
+			cache.remove(evicted.id, evicted);
+			evictions.incrementAndGet();
+		}
+	}
+}
@@ -0,0 +1,191 @@
+package contact.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import contact.entity.ContactChange;
+import contact.entity.ContactChange.Op;
+
+/**
+ * An ordered log of the changes made to contacts, for the change feed
+ * at /contacts/changes.  Each change gets the next sequence number.
+ * <p>
+ * Only the last <tt>capacity</tt> changes are kept, in a ring of
+ * primitive arrays, so the log never grows and appending is cheap.
+ * Readers only hold a sequence number, so a slow reader never holds
+ * back writers: once its changes have been overwritten, since() returns
+ * null and the reader must fetch the contacts again.
+ * </p><p>
+ * Sequence numbers start from the time the log was created, so numbers
+ * from before a restart are older than the log and also return null.
+ * Listeners are called after each append, outside the lock.
+ * </p><p>
+ * Get the log of the application with <tt>ChangeLog.getInstance()</tt>.
+ * The number of changes it keeps is set by the system property
+ * <tt>contact.changes</tt>.
+ * </p>
+ * @author Atit Leelasuksan 5510546221
+ *
+ */
+public class ChangeLog {
+	private static final Logger logger = Logger.getLogger(ChangeLog.class.getName());
+	/** system property to set the number of changes to keep. */
+	public static final String CAPACITY_PROPERTY = "contact.changes";
+	/** default number of changes to keep. */
+	public static final int DEFAULT_CAPACITY = 1 << 16;
+	private static final Op[] OPS = Op.values();
+	private static final ChangeLog instance = new ChangeLog(Integer.getInteger(CAPACITY_PROPERTY, DEFAULT_CAPACITY));
+
+	/** called when changes are appended. */
+	public interface Listener {
+		/**
+		 * Changes were appended to the log.
+		 * Called on the thread that appended, so it must not block.
+		 * @param last sequence number of the last change
+		 */
+		void changed(long last);
+	}
+
+	private final int capacity;
+	private final long[] ids;
+	private final long[] versions;
+	private final byte[] ops;
+	private final ReentrantLock lock = new ReentrantLock();
+	/** sequence number of the last change, or of the start of the log if there are none. */
+	private volatile long last;
+	/** sequence number of the oldest change kept. */
+	private long first;
+	private final Set<Listener> listeners = Collections.newSetFromMap(new ConcurrentHashMap<Listener,Boolean>());
+
+	/**
+	 * Create an empty log.
+	 * @param capacity number of changes to keep
+	 */
+	public ChangeLog(int capacity) {
+		if (capacity <= 0) throw new IllegalArgumentException("capacity must be positive");
+		this.capacity = capacity;
+		ids = new long[capacity];
+		versions = new long[capacity];
+		ops = new byte[capacity];
+		last = System.currentTimeMillis() << 20;
+		first = last + 1;
+	}
+
+	/**
+	 * Get the log of the application.
+	 * @return the singleton log
+	 */
+	public static ChangeLog getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Append a change, overwriting the oldest change if the log is full.
+	 * @param id of the changed contact
+	 * @param op operation that changed it
+	 * @param version of the contact after the change, or of the store after a delete.
+	 * @return sequence number of the change
+	 */
+	public long append(long id, Op op, long version) {
+		long seq;
+		lock.lock();
+		try {
+			seq = last + 1;
+			int slot = slot(seq);
+			ids[slot] = id;
+			versions[slot] = version;
+			ops[slot] = (byte) op.ordinal();
+			if (seq - first == capacity) first++;
+			last = seq;
+		} finally {
+			lock.unlock();
+		}
+		for(Listener listener : listeners) {
+			try {
+				listener.changed(seq);
+			} catch (RuntimeException ex) {
+				logger.log(Level.WARNING, "Change listener failed", ex);
+			}
+		}
+		return seq;
+	}
+
+	/**
+	 * Get the changes after a sequence number.
+	 * @param seq sequence number of the last change the caller has seen
+	 * @param limit maximum number of changes to return
+	 * @return changes in order of sequence number, empty if there are none yet,
+	 * or null if some changes after seq are no longer kept or seq is not from this log.
+	 */
+	public List<ContactChange> since(long seq, int limit) {
+		lock.lock();
+		try {
+			if (seq < first - 1 || seq > last) return null;
+			int count = (int) Math.min(limit, last - seq);
+			List<ContactChange> changes = new ArrayList<ContactChange>(count);
+			for(long next = seq + 1; next <= seq + count; next++) {
+				int slot = slot(next);
+				changes.add(new ContactChange(next, ids[slot], OPS[ops[slot]], versions[slot]));
+			}
+			return changes;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private int slot(long seq) {
+		return (int) (seq % capacity);
+	}
+
+	/**
+	 * Get the sequence number of the last change.
+	 * Asking for the changes since this number returns only newer changes.
+	 * @return sequence number of the last change, or of the start of the log if there are none.
+	 */
+	public long getLastSequence() {
+		return last;
+	}
+
+	/**
+	 * Get the sequence number of the oldest change kept.
+	 * @return sequence number of the oldest change, or last + 1 if there are none.
+	 */
+	public long getFirstSequence() {
+		lock.lock();
+		try {
+			return first;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Call a listener after each change until it is removed.
+	 * @param listener to add
+	 */
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Stop calling a listener.
+	 * @param listener to remove
+	 */
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Count the listeners, such as clients waiting for changes.
+	 * @return number of listeners
+	 */
+	public int getListenerCount() {
+		return listeners.size();
+	}
+}
@@ -0,0 +1,84 @@
+package contact.service;
+
+import java.util.List;
+
+import contact.entity.Contact;
+import contact.entity.ContactChange.Op;
+
+/**
+ * A ContactDao that appends each change it makes to a ChangeLog,
+ * after the delegate has made it.  A delete is logged with the version
+ * of the store after the delete, since the contact no longer has one.
+ * <p>
+ * Changes to different contacts may be logged in a slightly different
+ * order than they were made when they are made at the same time, and so
+ * may two changes to one contact.  Clients of the log should ignore a
+ * change whose version is older than the one they already have.
+ * </p>
+ * @author Atit Leelasuksan 5510546221
+ *
+ */
+public class ChangeLogContactDao extends ForwardingContactDao {
+	private final ChangeLog log;
+
+	/**
+	 * Create a DAO that logs the changes made through it.
+	 * @param delegate DAO to change contacts in
+	 * @param log to append changes to
+	 */
+	public ChangeLogContactDao(ContactDao delegate, ChangeLog log) {
+		super(delegate);
+		this.log = log;
+	}
+
+	/**
+	 * Get the log that changes are appended to.
+	 * @return the change log
+	 */
+	public ChangeLog getChangeLog() {
+		return log;
+	}
+
+	@Override
+	public boolean save(Contact contact) {
+		if (!delegate.save(contact)) return false;
+		log.append(contact.getId(), Op.SAVE, contact.getVersion());
+		return true;
+	}
+
+	@Override
+	public boolean update(Contact update) {
+		if (!delegate.update(update)) return false;
+		log.append(update.getId(), Op.UPDATE, update.getVersion());
+		return true;
+	}
+
+	@Override
+	public boolean delete(long id) {
+		if (!delegate.delete(id)) return false;
+		log.append(id, Op.DELETE, delegate.getStoreVersion());
+		return true;
+	}
+
+	@Override
+	public List<Contact> saveAll(List<Contact> contacts) {
+		List<Contact> saved = delegate.saveAll(contacts);
+		for(Contact contact : saved) log.append(contact.getId(), Op.SAVE, contact.getVersion());
+		return saved;
+	}
+
+	@Override
+	public List<Contact> updateAll(List<Contact> updates) {
+		List<Contact> updated = delegate.updateAll(updates);
+		for(Contact contact : updated) log.append(contact.getId(), Op.UPDATE, contact.getVersion());
+		return updated;
+	}
+
+	@Override
+	public long[] deleteAll(long[] ids) {
+		long[] deleted = delegate.deleteAll(ids);
+		long version = delegate.getStoreVersion();
+		for(long id : deleted) log.append(id, Op.DELETE, version);
+		return deleted;
+	}
+}
@@ -0,0 +1,63 @@
+package contact.service;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+import contact.entity.Contact;
+
+/**
+ * A forward-only cursor over contacts returned by a ContactDao.
+ * Contacts are produced one at a time, so a caller can write a large
+ * result without holding all of it in memory.
+ * A cursor can be iterated only once and must be closed after use,
+ * because it may hold resources such as a database result set.
+ * 
+ * @author Atit Leelasuksan 5510546221
+ */
+public abstract class ContactCursor implements Iterator<Contact>, Iterable<Contact>, Closeable {
+	
+	/**
+	 * Create a cursor over contacts from an iterator.
+	 * @param iterator that produces contacts
+	 * @return cursor that reads from the iterator
+	 */
+	public static ContactCursor of(final Iterator<Contact> iterator) {
+		return new ContactCursor() {
+			@Override
+			public boolean hasNext() {
+				return iterator.hasNext();
+			}
+			
+			@Override
+			public Contact next() {
+				return iterator.next();
+			}
+		};
+	}
+	
+	/**
+	 * A cursor is its own iterator, so it can be used in a for-each loop once.
+	 */
+	@Override
+	public Iterator<Contact> iterator() {
+		return this;
+	}
+	
+	/**
+	 * Cursors are read-only.
+	 * @throws UnsupportedOperationException always
+	 */
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException("ContactCursor is read-only");
+	}
+	
+	/**
+	 * Release resources held by this cursor.
+	 * The default does nothing.
+	 */
+	@Override
+	public void close() {
+		// nothing to release
+	}
+}
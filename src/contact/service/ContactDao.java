@@ -1,6 +1,7 @@
 package contact.service;
 
 import java.util.List;
+import java.util.Set;
 
 import contact.entity.Contact;
 /**
@@ -36,6 +37,41 @@ public interface ContactDao {
 	 * if no matches.
 	 */
 	public abstract List<Contact> findByTitle(String prefix);
+	
+	/**
+	 * Find contacts with an email address, ignoring case.
+	 * Several contacts may have the same email.
+	 * @param email the whole email address to find.  Must not be null.
+	 * @return List of matching contacts in order of id. Return an empty list
+	 * if no matches.
+	 */
+	public abstract List<Contact> findByEmail(String email);
+	
+	/**
+	 * Find contacts whose name starts with a string, ignoring case.
+	 * @param prefix the start of a contact name.  Must not be null.
+	 * @param limit maximum number of contacts to return. Use 0 for no limit.
+	 * @return List of matching contacts in order of name, then id.
+	 * Return an empty list if no matches.
+	 */
+	public abstract List<Contact> findByNamePrefix(String prefix, int limit);
+	
+	/**
+	 * Return a cursor over one page of persisted contacts in order of id,
+	 * optionally only those whose title contains a string, as in findByTitle.
+	 * Unlike findAll and findByTitle the result is not collected
+	 * into a List, so it suits writing large results as a stream.
+	 * To get the next page, pass the id of the last contact
+	 * of this page as <tt>after</tt>.  The caller must close the cursor.
+	 * @param title a string the contact title must contain,
+	 * or null to return all contacts.
+	 * @param after only return contacts with id greater than this. Use 0 to start at the first contact.
+	 * @param limit maximum number of contacts to return. Use 0 for no limit.
+	 * @param fields names of fields to return (see Contact.FIELDS), or null for all fields.
+	 * If not null, the contacts are copies that contain only those fields.
+	 * @return cursor over matching contacts.
+	 */
+	public abstract ContactCursor scan(String title, long after, int limit, Set<String> fields);
 
 	/**
 	 * Delete a saved contact by id.
@@ -51,6 +87,7 @@ public interface ContactDao {
 	 * is assigned to the contact.  
 	 * If the contact id is not zero and there is a saved
 	 * contact with same id, then the old contact is replaced.
+	 * The contact is given a new version.
 	 * @param contact the contact to save or replace.
 	 * @return true if saved successfully
 	 */
@@ -63,10 +100,55 @@ public interface ContactDao {
 	 * values in the update (including null values!).
 	 * The id of the update must match the id of a contact
 	 * already persisted.  If not, false is returned.
+	 * The contact is given a new version, which is also set
+	 * on the update so the caller can read it.
 	 * @param update update info for the contact.
 	 * @return true if the update is applied successfully.
 	 */
 	public abstract boolean update(Contact update);
+	
+	/**
+	 * Save many new contacts at once, as in save.
+	 * Unlike save, a contact is never replaced: if a contact has the id
+	 * of a saved contact, or the same id as another contact in the list,
+	 * the contacts are not saved.
+	 * Persistent stores should write the contacts in one transaction,
+	 * so either all contacts are saved or none are.
+	 * @param contacts the contacts to save.
+	 * @return list of saved contacts, with their ids and versions set.
+	 * Empty if the contacts could not be saved.
+	 */
+	public abstract List<Contact> saveAll(List<Contact> contacts);
+	
+	/**
+	 * Update many contacts at once, as in update.
+	 * Updates whose id does not match a persisted contact are skipped.
+	 * @param updates update info for the contacts.
+	 * @return list of the updates that were applied, with new versions set.
+	 */
+	public abstract List<Contact> updateAll(List<Contact> updates);
+	
+	/**
+	 * Delete many saved contacts at once.
+	 * Ids that do not match a saved contact are skipped.
+	 * @param ids the ids of contacts to delete.
+	 * @return the ids of the contacts that were deleted, in the order given.
+	 */
+	public abstract long[] deleteAll(long[] ids);
+	
+	/**
+	 * Get the version of the whole store.  The value increases
+	 * whenever any contact is saved, updated or deleted through this DAO,
+	 * so it can be used as an ETag for lists of contacts.
+	 * @return current version of the store.
+	 */
+	public abstract long getStoreVersion();
+	
+	/**
+	 * Count the persisted contacts.
+	 * @return number of contacts in persistent storage.
+	 */
+	public abstract long count();
 
 
 }
\ No newline at end of file
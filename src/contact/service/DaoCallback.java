@@ -0,0 +1,24 @@
+package contact.service;
+
+/**
+ * Receives the result of an AsyncContactDao operation when it finishes.
+ * Exactly one of the methods is called, on the thread that ran the operation.
+ * @author Atit Leelasuksan 5510546221
+ *
+ * @param <T> type of the result
+ */
+public interface DaoCallback<T> {
+	/**
+	 * Called when the operation returned a result.
+	 * @param result of the operation
+	 */
+	public abstract void completed(T result);
+
+	/**
+	 * Called when the operation threw an exception, was cancelled
+	 * (CancellationException) or was rejected because too many operations
+	 * are waiting (RejectedExecutionException).
+	 * @param ex why the operation failed
+	 */
+	public abstract void failed(Throwable ex);
+}
@@ -1,5 +1,7 @@
 package contact.service;
 
+import java.util.concurrent.ExecutorService;
+
 import contact.service.mem.MemDaoFactory;
 
 /**
@@ -49,6 +51,18 @@ public abstract class DaoFactory {
 	 */
 	public abstract ContactDao getContactDao();
 	
+	/**
+	 * Get the executor that AsyncContactDao should run DAO operations on.
+	 * Factories whose DAO blocks, such as on a database, should return
+	 * a bounded executor so callers are not blocked and the amount of
+	 * waiting work stays limited.
+	 * @return executor for DAO operations, or null if the DAO doesn't block
+	 * so operations can run on the calling thread.
+	 */
+	public ExecutorService getDaoExecutor() {
+		return null;
+	}
+	
 	/**
 	 * Shutdown all persistence services.
 	 * This method gives the persistence framework a chance to
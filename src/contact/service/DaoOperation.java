@@ -0,0 +1,17 @@
+package contact.service;
+
+/**
+ * Work done with a ContactDao as one AsyncContactDao operation,
+ * such as a find followed by an update.
+ * @author Atit Leelasuksan 5510546221
+ *
+ * @param <T> type of the result
+ */
+public interface DaoOperation<T> {
+	/**
+	 * Do the work.
+	 * @param dao to use
+	 * @return result of the work
+	 */
+	public abstract T run(ContactDao dao);
+}
@@ -0,0 +1,104 @@
+package contact.service;
+
+import java.util.List;
+import java.util.Set;
+
+import contact.entity.Contact;
+
+/**
+ * A ContactDao that forwards every call to another ContactDao.
+ * Subclass it to add behavior around some operations of a DAO
+ * (a decorator), and override only those operations.
+ * @author Atit Leelasuksan 5510546221
+ *
+ */
+public abstract class ForwardingContactDao implements ContactDao {
+	/** the DAO that calls are forwarded to. */
+	protected final ContactDao delegate;
+
+	/**
+	 * Create a DAO that forwards to a delegate.
+	 * @param delegate DAO to forward calls to.
+	 */
+	protected ForwardingContactDao(ContactDao delegate) {
+		this.delegate = delegate;
+	}
+
+	/**
+	 * Get the DAO that calls are forwarded to.
+	 * @return the delegate DAO
+	 */
+	public ContactDao getDelegate() {
+		return delegate;
+	}
+
+	@Override
+	public Contact find(long id) {
+		return delegate.find(id);
+	}
+
+	@Override
+	public List<Contact> findAll() {
+		return delegate.findAll();
+	}
+
+	@Override
+	public List<Contact> findByTitle(String prefix) {
+		return delegate.findByTitle(prefix);
+	}
+
+	@Override
+	public List<Contact> findByEmail(String email) {
+		return delegate.findByEmail(email);
+	}
+
+	@Override
+	public List<Contact> findByNamePrefix(String prefix, int limit) {
+		return delegate.findByNamePrefix(prefix, limit);
+	}
+
+	@Override
+	public ContactCursor scan(String title, long after, int limit, Set<String> fields) {
+		return delegate.scan(title, after, limit, fields);
+	}
+
+	@Override
+	public boolean delete(long id) {
+		return delegate.delete(id);
+	}
+
+	@Override
+	public boolean save(Contact contact) {
+		return delegate.save(contact);
+	}
+
+	@Override
+	public boolean update(Contact update) {
+		return delegate.update(update);
+	}
+
+	@Override
+	public List<Contact> saveAll(List<Contact> contacts) {
+		return delegate.saveAll(contacts);
+	}
+
+	@Override
+	public List<Contact> updateAll(List<Contact> updates) {
+		return delegate.updateAll(updates);
+	}
+
+	@Override
+	public long[] deleteAll(long[] ids) {
+		return delegate.deleteAll(ids);
+	}
+
+	@Override
+	public long getStoreVersion() {
+		return delegate.getStoreVersion();
+	}
+
+	@Override
+	public long count() {
+		return delegate.count();
+	}
+}
@@ -0,0 +1,77 @@
+package contact.service;
+
+/**
+ * Estimates how often each contact id was used recently (a count-min sketch).
+ * Counters are 4 bits, so estimates stop at 15, and all counters are halved
+ * after a number of increments, so old popularity fades away.
+ * Not thread-safe; CachingContactDao calls it while holding its policy lock.
+ * @author Atit Leelasuksan 5510546221
+ *
+ */
+class FrequencySketch {
+	private static final int MAX_COUNT = 15;
+	private static final long[] SEEDS = {
+		0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+	};
+	/** 16 counters of 4 bits in each long. */
+	private final long[] table;
+	private final int mask;
+	private final int sampleSize;
+	private int additions;
+
+	/**
+	 * Create a sketch for a cache of a given size.
+	 * @param maximumSize number of entries the cache holds
+	 */
+	FrequencySketch(int maximumSize) {
+		int counters = Integer.highestOneBit(Math.max(16, maximumSize) * 2 - 1) << 2;
+		table = new long[counters >>> 4];
+		mask = counters - 1;
+		sampleSize = 10 * Math.max(1, maximumSize);
+	}
+
+	/**
+	 * Count one use of an id.
+	 * @param id that was used
+	 */
+	void increment(long id) {
+		boolean added = false;
+		for(int k=0; k<SEEDS.length; k++) added |= incrementAt(indexOf(id, k));
+		if (added && ++additions >= sampleSize) reset();
+	}
+
+	/**
+	 * Estimate how often an id was used.
+	 * @param id to estimate
+	 * @return estimated uses, 0 to 15
+	 */
+	int frequency(long id) {
+		int frequency = MAX_COUNT;
+		for(int k=0; k<SEEDS.length; k++) frequency = Math.min(frequency, countAt(indexOf(id, k)));
+		return frequency;
+	}
+
+	private int indexOf(long id, int row) {
+		long hash = (id + SEEDS[row]) * SEEDS[row];
+		hash ^= hash >>> 29;
+		return (int) hash & mask;
+	}
+
+	private int countAt(int counter) {
+		return (int) ((table[counter >>> 4] >>> ((counter & 15) << 2)) & 0xF);
+	}
+
+	private boolean incrementAt(int counter) {
+		int shift = (counter & 15) << 2;
+		long word = table[counter >>> 4];
+		if (((word >>> shift) & 0xF) == MAX_COUNT) return false;
+		table[counter >>> 4] = word + (1L << shift);
+		return true;
+	}
+
+	/** halve every counter. */
+	private void reset() {
+		for(int k=0; k<table.length; k++) table[k] = (table[k] >>> 1) & 0x7777777777777777L;
+		additions /= 2;
+	}
+}
@@ -1,35 +1,59 @@
 package contact.service.jpa;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.persistence.EntityExistsException;
 import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
 import javax.persistence.EntityTransaction;
+import javax.persistence.LockModeType;
+import javax.persistence.PersistenceException;
 import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+
+import org.eclipse.persistence.config.HintValues;
+import org.eclipse.persistence.config.QueryHints;
+import org.eclipse.persistence.queries.CursoredStream;
 
 import java.util.logging.Logger;
 
 import jersey.repackaged.com.google.common.collect.Lists;
 import contact.entity.Contact;
+import contact.service.ContactCursor;
 import contact.service.ContactDao;
 
 /**
  * Data access object for saving and retrieving contacts,
  * using JPA.
+ * EntityManager is not thread-safe, so each operation uses its own
+ * short-lived EntityManager from the shared EntityManagerFactory.
+ * Database connections are pooled by the factory (see persistence.xml).
  * To get an instance of this class use:
  * dao = DaoFactory.getInstance().getContactDao()
  * 
  * @author jim, Atit Leelasuksan 5510546221
  */
 public class JpaContactDao implements ContactDao {
-	/** the EntityManager for accessing JPA persistence services. */
-	private final EntityManager em;
+	/**
+	 * number of entities to write before flushing and clearing the
+	 * persistence context in batch operations.  Should match
+	 * eclipselink.jdbc.batch-writing.size in persistence.xml.
+	 */
+	static final int BATCH_SIZE = 500;
+	/** the EntityManagerFactory for creating an EntityManager per operation. */
+	private final EntityManagerFactory emf;
+	/**
+	 * Counts writes made through this DAO, for getStoreVersion.
+	 * It starts from the clock so it also increases across restarts.
+	 */
+	private final AtomicLong storeVersion = new AtomicLong(System.currentTimeMillis() << 20);
 	
 	/**
-	 * constructor with injected EntityManager to use.
-	 * @param em an EntityManager for accessing JPA services.
+	 * constructor with injected EntityManagerFactory to use.
+	 * @param emf an EntityManagerFactory for accessing JPA services.
 	 */
-	public JpaContactDao(EntityManager em) {
-		this.em = em;
+	public JpaContactDao(EntityManagerFactory emf) {
+		this.emf = emf;
 		//createTestContact( );
 	}
 	
@@ -54,7 +78,12 @@ public class JpaContactDao implements ContactDao {
 	 */
 	@Override
 	public Contact find(long id) {
-		return em.find(Contact.class, id);  // isn't this sooooo much easier than JDBC?
+		EntityManager em = emf.createEntityManager();
+		try {
+			return em.find(Contact.class, id);  // isn't this sooooo much easier than JDBC?
+		} finally {
+			em.close();
+		}
 	}
 
 	/**
@@ -62,9 +91,14 @@ public class JpaContactDao implements ContactDao {
 	 */
 	@Override
 	public List<Contact> findAll() {
-		Query query = em.createQuery("SELECT c FROM Contact c");
-		List<Contact> contacts = query.getResultList();
-		return contacts;
+		EntityManager em = emf.createEntityManager();
+		try {
+			Query query = em.createQuery("SELECT c FROM Contact c");
+			List<Contact> contacts = query.getResultList();
+			return contacts;
+		} finally {
+			em.close();
+		}
 	}
 
 	/**
@@ -73,13 +107,163 @@ public class JpaContactDao implements ContactDao {
 	 */
 	@Override
 	public List<Contact> findByTitle(String titlestr) {
-		// LIKE does string match using patterns.
-		Query query = em.createQuery("select c from Contact c where LOWER(c.title) LIKE :title");
-		// % is wildcard that matches anything
-		query.setParameter("title", "%"+titlestr.toLowerCase()+"%");
-		// now why bother to copy one list to another list?
-		java.util.List<Contact> result = Lists.newArrayList( query.getResultList() );
-		return result;
+		EntityManager em = emf.createEntityManager();
+		try {
+			// LIKE does string match using patterns.
+			Query query = em.createQuery("select c from Contact c where LOWER(c.title) LIKE :title");
+			// % is wildcard that matches anything
+			query.setParameter("title", "%"+titlestr.toLowerCase()+"%");
+			// copy the result so it can be used after the EntityManager is closed
+			java.util.List<Contact> result = Lists.newArrayList( query.getResultList() );
+			return result;
+		} finally {
+			em.close();
+		}
+	}
+
+	/**
+	 * Find contacts by the indexed EMAIL_KEY column, which holds the email in lower case.
+	 * @see contact.service.ContactDao#findByEmail(java.lang.String)
+	 */
+	@Override
+	public List<Contact> findByEmail(String email) {
+		EntityManager em = emf.createEntityManager();
+		try {
+			TypedQuery<Contact> query = em.createQuery("SELECT c FROM Contact c WHERE c.emailKey = :email ORDER BY c.id", Contact.class);
+			query.setParameter("email", Contact.toKey(email));
+			return new ArrayList<Contact>( query.getResultList() );
+		} finally {
+			em.close();
+		}
+	}
+
+	/**
+	 * Find contacts by a range of the indexed NAME_KEY column, which holds the
+	 * name in lower case.  The range is written as &gt;= and &lt; rather than LIKE
+	 * so the database can always use the index, and the prefix needs no escaping.
+	 * @see contact.service.ContactDao#findByNamePrefix(java.lang.String, int)
+	 */
+	@Override
+	public List<Contact> findByNamePrefix(String prefix, int limit) {
+		String from = Contact.toKey(prefix);
+		String to = upperBound(from);
+		EntityManager em = emf.createEntityManager();
+		try {
+			TypedQuery<Contact> query;
+			if (to == null) {
+				query = em.createQuery("SELECT c FROM Contact c WHERE c.nameKey >= :from ORDER BY c.nameKey, c.id", Contact.class);
+			} else {
+				query = em.createQuery("SELECT c FROM Contact c WHERE c.nameKey >= :from AND c.nameKey < :to ORDER BY c.nameKey, c.id", Contact.class);
+				query.setParameter("to", to);
+			}
+			query.setParameter("from", from);
+			if (limit > 0) query.setMaxResults(limit);
+			return new ArrayList<Contact>( query.getResultList() );
+		} finally {
+			em.close();
+		}
+	}
+
+	/**
+	 * Get the least string greater than all strings that start with a prefix.
+	 * @param prefix a string
+	 * @return the bound, or null if every string from prefix on starts with it.
+	 */
+	private static String upperBound(String prefix) {
+		StringBuilder bound = new StringBuilder(prefix);
+		while( bound.length() > 0 ) {
+			int last = bound.length() - 1;
+			char c = bound.charAt(last);
+			if (c < Character.MAX_VALUE) {
+				bound.setCharAt(last, (char) (c + 1));
+				return bound.toString();
+			}
+			bound.setLength(last);
+		}
+		return null;
+	}
+
+	/**
+	 * Scan contacts using an EclipseLink cursored stream,
+	 * so rows are read from the database as the cursor advances.
+	 * The EntityManager stays open until the cursor is closed.
+	 * Paging is done by the database with <tt>WHERE c.id &gt; :after ORDER BY c.id</tt>
+	 * and setMaxResults, and a field projection only selects those columns.
+	 * @see contact.service.ContactDao#scan(java.lang.String, long, int, java.util.Set)
+	 */
+	@Override
+	public ContactCursor scan(String title, long after, int limit, Set<String> fields) {
+		final List<String> columns = new ArrayList<String>();
+		StringBuilder jpql = new StringBuilder("SELECT ");
+		if (fields == null) {
+			jpql.append("c");
+		} else {
+			jpql.append("c.id");
+			for(String field : Contact.FIELDS) {
+				if (!fields.contains(field)) continue;
+				columns.add(field);
+				jpql.append(", c.").append(field);
+			}
+		}
+		jpql.append(" FROM Contact c WHERE c.id > :after");
+		if (title != null) jpql.append(" AND LOWER(c.title) LIKE :title");
+		jpql.append(" ORDER BY c.id");
+		final EntityManager em = emf.createEntityManager();
+		final CursoredStream stream;
+		try {
+			Query query = em.createQuery(jpql.toString());
+			query.setParameter("after", after);
+			if (title != null) query.setParameter("title", "%"+title.toLowerCase()+"%");
+			if (limit > 0) query.setMaxResults(limit);
+			query.setHint(QueryHints.CURSOR, HintValues.TRUE);
+			stream = (CursoredStream) query.getSingleResult();
+		} catch (RuntimeException ex) {
+			em.close();
+			throw ex;
+		}
+		final boolean projected = (fields != null);
+		return new ContactCursor() {
+			@Override
+			public boolean hasNext() {
+				return stream.hasNext();
+			}
+			
+			@Override
+			public Contact next() {
+				Object row = stream.next();
+				if (!projected) return (Contact) row;
+				return toContact((Object[]) row, columns);
+			}
+			
+			@Override
+			public void close() {
+				try {
+					stream.close();
+				} finally {
+					em.close();
+				}
+			}
+		};
+	}
+	
+	/**
+	 * Create a contact from a row of projected columns.
+	 * @param row values of id followed by the columns
+	 * @param columns names of the fields after the id
+	 * @return contact with the selected fields
+	 */
+	private static Contact toContact(Object[] row, List<String> columns) {
+		Contact contact = new Contact(((Number) row[0]).longValue());
+		for(int k=0; k<columns.size(); k++) {
+			String value = (String) row[k+1];
+			switch(columns.get(k)) {
+			case "title": contact.setTitle(value); break;
+			case "name": contact.setName(value); break;
+			case "email": contact.setEmail(value); break;
+			case "photoUrl": contact.setPhotoUrl(value); break;
+			}
+		}
+		return contact;
 	}
 
 	/**
@@ -87,20 +271,25 @@ public class JpaContactDao implements ContactDao {
 	 */
 	@Override
 	public boolean delete(long id) {
-		Contact contact = find(id);
-		if(contact != null) {
-			EntityTransaction tx = em.getTransaction();
-			try {
-				tx.begin();
-				em.remove(contact);
-				tx.commit();
-				return true;
-			} catch (EntityExistsException ex) {
-				catchEntityException(tx,ex);
+		EntityManager em = emf.createEntityManager();
+		EntityTransaction tx = em.getTransaction();
+		try {
+			tx.begin();
+			Contact contact = em.find(Contact.class, id);
+			if (contact == null) {
+				tx.rollback();
+				return false;
 			}
+			em.remove(contact);
+			tx.commit();
+			storeVersion.incrementAndGet();
+			return true;
+		} catch (PersistenceException ex) {
+			catchEntityException(tx,ex);
+		} finally {
+			em.close();
 		}
 		return false;
-		
 	}
 	
 	/**
@@ -109,37 +298,194 @@ public class JpaContactDao implements ContactDao {
 	@Override
 	public boolean save(Contact contact) {
 		if (contact == null) throw new IllegalArgumentException("Can't save a null contact");
+		EntityManager em = emf.createEntityManager();
 		EntityTransaction tx = em.getTransaction();
 		try {
 			tx.begin();
 			em.persist(contact);
 			tx.commit();
+			storeVersion.incrementAndGet();
 			return true;
 		} catch (EntityExistsException ex) {
 			catchEntityException(tx,ex);
+		} finally {
+			em.close();
 		}
 		return false;
 	}
 
 	/**
+	 * Apply the update to the managed contact, so JPA increments its @Version.
 	 * @see contact.service.ContactDao#update(contact.entity.Contact)
 	 */
 	@Override
 	public boolean update(Contact update) {
 		if (update == null) throw new IllegalArgumentException("Can't update a null contact");
-		if (find(update.getId()) == null) throw new IllegalArgumentException("Can't save a null contact");
+		EntityManager em = emf.createEntityManager();
 		EntityTransaction tx = em.getTransaction();
 		try {
 			tx.begin();
-			em.find(Contact.class, update.getId());
-			em.merge(update);
+			Contact contact = em.find(Contact.class, update.getId());
+			if (contact == null) {
+				tx.rollback();
+				return false;
+			}
+			contact.applyUpdate(update);
+			tx.commit();
+			storeVersion.incrementAndGet();
+			update.setVersion(contact.getVersion());
 			return true;
-		} catch (EntityExistsException ex) {
+		} catch (PersistenceException ex) {
 			catchEntityException(tx,ex);
+		} finally {
+			em.close();
 		}
 		return false;
 	}
 	
+	/**
+	 * Persist all contacts in one transaction.  Inserts are sent with JDBC
+	 * batch writing, and the persistence context is flushed and cleared
+	 * every BATCH_SIZE contacts so it doesn't grow with the batch.
+	 * @see contact.service.ContactDao#saveAll(java.util.List)
+	 */
+	@Override
+	public List<Contact> saveAll(List<Contact> contacts) {
+		EntityManager em = emf.createEntityManager();
+		EntityTransaction tx = em.getTransaction();
+		try {
+			tx.begin();
+			int count = 0;
+			for(Contact contact : contacts) {
+				em.persist(contact);
+				if (++count % BATCH_SIZE == 0) {
+					em.flush();
+					em.clear();
+				}
+			}
+			tx.commit();
+			storeVersion.incrementAndGet();
+			return contacts;
+		} catch (PersistenceException ex) {
+			catchEntityException(tx,ex);
+		} finally {
+			em.close();
+		}
+		return new ArrayList<Contact>();
+	}
+	
+	/**
+	 * Apply all updates in one transaction, flushing and clearing
+	 * the persistence context every BATCH_SIZE contacts.
+	 * @see contact.service.ContactDao#updateAll(java.util.List)
+	 */
+	@Override
+	public List<Contact> updateAll(List<Contact> updates) {
+		List<Contact> updated = new ArrayList<Contact>(updates.size());
+		List<Contact> managed = new ArrayList<Contact>(BATCH_SIZE);
+		EntityManager em = emf.createEntityManager();
+		EntityTransaction tx = em.getTransaction();
+		try {
+			tx.begin();
+			for(Contact update : updates) {
+				Contact contact = em.find(Contact.class, update.getId());
+				if (contact == null) continue;
+				contact.applyUpdate(update);
+				updated.add(update);
+				managed.add(contact);
+				if (managed.size() == BATCH_SIZE) {
+					em.flush();
+					copyVersions(managed, updated);
+					em.clear();
+				}
+			}
+			tx.commit();
+			copyVersions(managed, updated);
+			storeVersion.incrementAndGet();
+			return updated;
+		} catch (PersistenceException ex) {
+			catchEntityException(tx,ex);
+		} finally {
+			em.close();
+		}
+		return new ArrayList<Contact>();
+	}
+	
+	/**
+	 * Copy versions of flushed contacts to the last updates in the list.
+	 * @param managed contacts flushed since the last copy, cleared after copying
+	 * @param updated all updates applied so far
+	 */
+	private static void copyVersions(List<Contact> managed, List<Contact> updated) {
+		int offset = updated.size() - managed.size();
+		for(int k=0; k<managed.size(); k++) updated.get(offset+k).setVersion(managed.get(k).getVersion());
+		managed.clear();
+	}
+	
+	/**
+	 * Delete contacts in one transaction using bulk DELETE statements
+	 * of up to BATCH_SIZE ids each.  The ids of each chunk that exist are
+	 * selected for update first, so the rows that are deleted are known.
+	 * @see contact.service.ContactDao#deleteAll(long[])
+	 */
+	@Override
+	public long[] deleteAll(long[] ids) {
+		EntityManager em = emf.createEntityManager();
+		EntityTransaction tx = em.getTransaction();
+		try {
+			tx.begin();
+			TypedQuery<Long> select = em.createQuery("SELECT c.id FROM Contact c WHERE c.id IN :ids", Long.class);
+			select.setLockMode(LockModeType.PESSIMISTIC_WRITE);
+			Query delete = em.createQuery("DELETE FROM Contact c WHERE c.id IN :ids");
+			Set<Long> found = new HashSet<Long>();
+			for(int start=0; start<ids.length; start+=BATCH_SIZE) {
+				List<Long> chunk = new ArrayList<Long>(BATCH_SIZE);
+				for(int k=start; k<ids.length && k<start+BATCH_SIZE; k++) chunk.add(ids[k]);
+				List<Long> existing = select.setParameter("ids", chunk).getResultList();
+				if (existing.isEmpty()) continue;
+				delete.setParameter("ids", existing);
+				delete.executeUpdate();
+				found.addAll(existing);
+			}
+			tx.commit();
+			storeVersion.incrementAndGet();
+			long[] deleted = new long[found.size()];
+			int count = 0;
+			for(long id : ids) {
+				if (found.remove(id)) deleted[count++] = id;
+			}
+			return deleted;
+		} catch (PersistenceException ex) {
+			catchEntityException(tx,ex);
+		} finally {
+			em.close();
+		}
+		return new long[0];
+	}
+	
+	/**
+	 * The database is embedded, so all writes go through this DAO
+	 * and an in-memory counter is enough.
+	 * @see contact.service.ContactDao#getStoreVersion()
+	 */
+	@Override
+	public long getStoreVersion() {
+		return storeVersion.get();
+	}
+	
+	/**
+	 * @see contact.service.ContactDao#count()
+	 */
+	@Override
+	public long count() {
+		EntityManager em = emf.createEntityManager();
+		try {
+			return em.createQuery("SELECT COUNT(c) FROM Contact c", Long.class).getSingleResult();
+		} finally {
+			em.close();
+		}
+	}
+	
 	private void catchEntityException(EntityTransaction tx,Exception ex) {
 		Logger.getLogger(this.getClass().getName()).warning(ex.getMessage());
 		if (tx.isActive()) {
@@ -1,8 +1,13 @@
 package contact.service.jpa;
 
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
-import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.Persistence;
 
@@ -12,6 +17,9 @@ import contact.service.*;
  * JpaDaoFactory is a factory for DAO that use the Java Persistence API (JPA)
  * to persist objects.
  * The factory depends on the configuration information in META-INF/persistence.xml.
+ * The DAO creates an EntityManager for each operation, so the factory
+ * only holds the thread-safe EntityManagerFactory.
+ * Finds by id are cached by a CachingContactDao in front of the JPA DAO.
  * 
  * @see contact.service.DaoFactory
  * @version 2014.09.19
@@ -19,10 +27,18 @@ import contact.service.*;
  */
 public class JpaDaoFactory extends DaoFactory {
 	private static final String PERSISTENCE_UNIT = "contacts";
+	/** threads that run DAO operations, same as the maximum connections in persistence.xml. */
+	private static final int DB_THREADS = 16;
+	/** DAO operations that may wait for a thread before new ones are rejected. */
+	private static final int DB_QUEUE = 1000;
+	/** contacts kept in the cache in front of the database. */
+	private static final int CACHE_SIZE = 10000;
+	/** minutes a contact may stay in the cache. */
+	private static final long CACHE_TTL_MINUTES = 5;
 	/** instance of the entity DAO */
 	private ContactDao contactDao;
 	private final EntityManagerFactory emf;
-	private EntityManager em;
+	private final ExecutorService executor;
 	private static Logger logger;
 	
 	static {
@@ -31,8 +47,18 @@ public class JpaDaoFactory extends DaoFactory {
 	
 	public JpaDaoFactory() {
 		emf = Persistence.createEntityManagerFactory(PERSISTENCE_UNIT);
-		em = emf.createEntityManager();
-		contactDao = new JpaContactDao( em );
+		// hot contacts are found without going to the database
+		contactDao = new CachingContactDao( new JpaContactDao( emf ), CACHE_SIZE, CACHE_TTL_MINUTES, TimeUnit.MINUTES );
+		final AtomicInteger threads = new AtomicInteger();
+		executor = new ThreadPoolExecutor(DB_THREADS, DB_THREADS, 60, TimeUnit.SECONDS
+				, new ArrayBlockingQueue<Runnable>(DB_QUEUE), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, "contact-db-"+threads.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
 	}
 	
 	@Override
@@ -40,10 +66,25 @@ public class JpaDaoFactory extends DaoFactory {
 		return contactDao;
 	}
 	
+	/**
+	 * Database calls block, so they run on a bounded pool with one thread
+	 * per pooled connection and a bounded queue.
+	 * @see contact.service.DaoFactory#getDaoExecutor()
+	 */
+	@Override
+	public ExecutorService getDaoExecutor() {
+		return executor;
+	}
+	
 	@Override
 	public void shutdown() {
+		executor.shutdown();
+		try {
+			executor.awaitTermination(10, TimeUnit.SECONDS);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
 		try {
-			if (em != null && em.isOpen()) em.close();
 			if (emf != null && emf.isOpen()) emf.close();
 		} catch (IllegalStateException ex) {
 			logger.warning(ex.getMessage());
@@ -0,0 +1,505 @@
+package contact.service.mem;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import contact.entity.Contact;
+
+/**
+ * Append-only binary journal of changes to a MemContactDao,
+ * with snapshots so the journal doesn't grow forever.
+ * <p>
+ * Every save, update and delete is written to <tt>contacts.log</tt> before it
+ * is applied in memory.  Writers wait until their record is forced to disk,
+ * but records of concurrent writers are forced together (group commit),
+ * so one fsync serves many writes.
+ * </p><p>
+ * A background task writes all contacts to <tt>contacts.snapshot</tt> when the
+ * log gets large, and starts a new log.  On startup the snapshot is loaded
+ * and the log is replayed on top of it.  Each record holds the full state
+ * of a contact, so replaying a record that is already in the snapshot
+ * does no harm.  A record that was only partly written when the process
+ * died fails its checksum and ends the replay.
+ * </p><p>
+ * If a write or fsync fails, the log is cut back to the last record that
+ * was forced, the writers of the failed records get the error, and every
+ * later append fails too: the journal can't promise anything after an
+ * I/O error, so the store becomes read-only until it is restarted.
+ * </p>
+ * @author Atit Leelasuksan 5510546221
+ */
+public class ContactJournal {
+	private static final Logger logger = Logger.getLogger(ContactJournal.class.getName());
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	/** record type of a saved or updated contact. */
+	private static final byte SAVE = 1;
+	/** record type of a deleted contact. */
+	private static final byte DELETE = 2;
+	/** compact when the log is larger than this many bytes. */
+	private static final long COMPACT_SIZE = 64L * 1024 * 1024;
+	/** how often the compactor checks the log size, in seconds. */
+	private static final long COMPACT_PERIOD = 30;
+	/** longest record accepted; a longer length read from disk is a torn record. */
+	static final int MAX_RECORD_SIZE = 16 * 1024 * 1024;
+
+	private final File logFile;
+	private final File oldLogFile;
+	private final File snapshotFile;
+	private final File snapshotTmpFile;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	/** signalled when records are waiting to be written. */
+	private final Condition pending = lock.newCondition();
+	/** signalled when records are forced to disk. */
+	private final Condition durable = lock.newCondition();
+	/** records appended but not yet written. Guarded by lock. */
+	private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+	/** sequence number of the last appended record. Guarded by lock. */
+	private long appendedSeq = 0;
+	/** sequence number of the last record forced to disk. Guarded by lock. */
+	private long durableSeq = 0;
+	/** error of a failed write; once set, the journal accepts no more records. Guarded by lock. */
+	private IOException failure;
+	private boolean closed = false;
+	/**
+	 * Held shared by writers of the DAO from appending a record until the
+	 * change is applied in memory, and exclusively by compaction, so a
+	 * snapshot never misses a change that is only in the old log.
+	 */
+	private final ReentrantReadWriteLock changes = new ReentrantReadWriteLock();
+
+	private FileChannel log;
+	/** length of the records forced to the log. */
+	private volatile long logSize;
+	/** length of the valid records in the log found by replay. */
+	private long validLogSize = 0;
+	private Thread writer;
+	private ScheduledExecutorService compactor;
+
+	/**
+	 * Create a journal in a directory.  Call replay and then start
+	 * before appending records.
+	 * @param dir directory for the log and snapshot files, created if needed.
+	 */
+	public ContactJournal(File dir) {
+		if (!dir.exists()) dir.mkdirs();
+		logFile = new File(dir, "contacts.log");
+		oldLogFile = new File(dir, "contacts.log.old");
+		snapshotFile = new File(dir, "contacts.snapshot");
+		snapshotTmpFile = new File(dir, "contacts.snapshot.tmp");
+	}
+
+	/**
+	 * Load the snapshot and replay the logs into a DAO.
+	 * The DAO must not have a journal yet, so replayed changes
+	 * are not written again.
+	 * @param dao to restore contacts into
+	 * @return number of records replayed
+	 * @throws IOException if the files can't be read
+	 */
+	public long replay(MemContactDao dao) throws IOException {
+		long count = 0;
+		for(File file : new File[] { snapshotFile, oldLogFile, logFile }) {
+			if (file.exists()) count += replay(file, dao);
+		}
+		return count;
+	}
+
+	private long replay(File file, MemContactDao dao) throws IOException {
+		long count = 0;
+		long size = 0;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		try {
+			while(true) {
+				byte[] record = readRecord(in);
+				if (record == null) break;
+				DataInputStream data = new DataInputStream(new ByteArrayInputStream(record));
+				byte type = data.readByte();
+				long id = data.readLong();
+				long version = data.readLong();
+				if (type == SAVE) {
+					Contact contact = new Contact(id);
+					contact.setVersion(version);
+					contact.setTitle(readString(data));
+					contact.setName(readString(data));
+					contact.setEmail(readString(data));
+					contact.setPhotoUrl(readString(data));
+					dao.restore(contact);
+				} else if (type == DELETE) {
+					dao.restoreDelete(id, version);
+				}
+				count++;
+				size += 8 + record.length;
+			}
+		} finally {
+			in.close();
+		}
+		if (file.equals(logFile)) validLogSize = size;
+		return count;
+	}
+
+	/**
+	 * Read one record: length, CRC32 and payload.
+	 * @return payload, or null at the end of the file or at a torn record.
+	 */
+	private static byte[] readRecord(DataInputStream in) throws IOException {
+		try {
+			int length = in.readInt();
+			long crc = in.readInt() & 0xFFFFFFFFL;
+			if (length <= 0 || length > MAX_RECORD_SIZE) {
+				if (length != 0) logger.warning("Journal record has bad length "+length+", ignoring rest of log");
+				return null;
+			}
+			byte[] record = new byte[length];
+			in.readFully(record);
+			CRC32 check = new CRC32();
+			check.update(record);
+			if (check.getValue() != crc) {
+				logger.warning("Journal record has bad checksum, ignoring rest of log");
+				return null;
+			}
+			return record;
+		} catch (EOFException ex) {
+			return null;
+		}
+	}
+
+	/**
+	 * Start writing: merge any log left from an interrupted compaction into a
+	 * fresh snapshot, open the log, and start the writer and compactor threads.
+	 * A torn record at the end of the log is cut off, so new records
+	 * are not hidden behind it.  Call replay first.
+	 * @param dao whose contacts are written to snapshots
+	 * @throws IOException if the log can't be opened
+	 */
+	public void start(final MemContactDao dao) throws IOException {
+		if (oldLogFile.exists()) writeSnapshot(dao.findAll());
+		log = open(logFile);
+		if (log.size() > validLogSize) log.truncate(validLogSize);
+		log.position(log.size());
+		logSize = log.size();
+		ThreadFactory daemons = new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, "contact-journal");
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+		writer = daemons.newThread(new Runnable() {
+			@Override
+			public void run() {
+				writeLoop();
+			}
+		});
+		writer.start();
+		compactor = Executors.newSingleThreadScheduledExecutor(daemons);
+		compactor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					if (logSize > COMPACT_SIZE) compact(dao);
+				} catch (IOException ex) {
+					logger.warning("Journal compaction failed: "+ex.getMessage());
+				}
+			}
+		}, COMPACT_PERIOD, COMPACT_PERIOD, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Write a saved or updated contact to the journal and wait until it is on disk.
+	 * @param contact the new state of the contact
+	 * @throws IOException if the record could not be written
+	 */
+	public void logSave(Contact contact) throws IOException {
+		append(encode(SAVE, contact.getId(), contact.getVersion(), contact));
+	}
+
+	/**
+	 * Write a deleted contact to the journal and wait until it is on disk.
+	 * @param id of the deleted contact
+	 * @param version store version of the delete
+	 * @throws IOException if the record could not be written
+	 */
+	public void logDelete(long id, long version) throws IOException {
+		append(encode(DELETE, id, version, null));
+	}
+
+	private void append(byte[] record) throws IOException {
+		if (record.length > MAX_RECORD_SIZE) throw new IOException("Contact is too large for the journal");
+		lock.lock();
+		try {
+			if (closed) throw new IOException("Journal is closed");
+			checkFailure();
+			writeRecord(new DataOutputStream(buffer), record);
+			long seq = ++appendedSeq;
+			pending.signal();
+			// a failed batch never becomes durable, so its writers see the failure
+			while( durableSeq < seq ) {
+				checkFailure();
+				durable.awaitUninterruptibly();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** throw if a write has failed.  Called while holding lock. */
+	private void checkFailure() throws IOException {
+		if (failure != null) throw new IOException("Journal failed: "+failure.getMessage(), failure);
+	}
+
+	/**
+	 * Start a change to the DAO, before its record is appended.
+	 * Call endChange once the change is applied in memory, or has failed.
+	 */
+	void beginChange() {
+		changes.readLock().lock();
+	}
+
+	/** End a change started with beginChange. */
+	void endChange() {
+		changes.readLock().unlock();
+	}
+
+	/** writer thread: write and force everything appended so far, over and over. */
+	private void writeLoop() {
+		while(true) {
+			ByteArrayOutputStream batch;
+			long seq;
+			long start;
+			lock.lock();
+			try {
+				while( appendedSeq == durableSeq && !closed ) pending.awaitUninterruptibly();
+				if (appendedSeq == durableSeq && closed) return;
+				batch = buffer;
+				buffer = new ByteArrayOutputStream();
+				seq = appendedSeq;
+				start = logSize;
+			} finally {
+				lock.unlock();
+			}
+			IOException error = null;
+			try {
+				ByteBuffer bytes = ByteBuffer.wrap(batch.toByteArray());
+				while( bytes.hasRemaining() ) log.write(bytes);
+				log.force(false);
+			} catch (IOException ex) {
+				error = ex;
+				truncate(start);
+			}
+			lock.lock();
+			try {
+				if (error == null) {
+					logSize += batch.size();
+					durableSeq = seq;
+				} else {
+					failure = error;
+				}
+				durable.signalAll();
+			} finally {
+				lock.unlock();
+			}
+			if (error != null) {
+				logger.severe("Journal write failed, no more changes will be accepted: "+error.getMessage());
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Cut a torn batch off the end of the log, so replay reaches
+	 * the records before it.  Nothing is written after a failure,
+	 * so if this fails too, no acknowledged record is lost behind it.
+	 * @param size length of the records that were forced
+	 */
+	private void truncate(long size) {
+		try {
+			log.truncate(size);
+			log.position(size);
+			log.force(false);
+		} catch (IOException ex) {
+			logger.warning("Can't truncate journal after failed write: "+ex.getMessage());
+		}
+	}
+
+	private static FileChannel open(File file) throws IOException {
+		FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+		channel.position(channel.size());
+		return channel;
+	}
+
+	/**
+	 * Write a snapshot of all contacts and start a new log.
+	 * Writers of the DAO are held off while the log is rolled over and the
+	 * contacts are listed, so every change in the old log is in the list.
+	 * The snapshot is then written while writes continue; changes made
+	 * meanwhile are in the new log, so replay restores them.
+	 * If an old log is left by a compaction that failed, it is not replaced:
+	 * the new snapshot covers it, and the current log is kept as it is.
+	 * @param dao whose contacts are written
+	 * @throws IOException if the snapshot can't be written
+	 */
+	public void compact(MemContactDao dao) throws IOException {
+		List<Contact> contacts;
+		changes.writeLock().lock();
+		try {
+			lock.lock();
+			try {
+				while( durableSeq < appendedSeq ) {
+					checkFailure();
+					durable.awaitUninterruptibly();
+				}
+				if (!oldLogFile.exists()) rollOver();
+			} finally {
+				lock.unlock();
+			}
+			contacts = dao.findAll();
+		} finally {
+			changes.writeLock().unlock();
+		}
+		writeSnapshot(contacts);
+	}
+
+	/** move the log to the old log and start a new one.  Called while holding lock. */
+	private void rollOver() throws IOException {
+		log.close();
+		try {
+			Files.move(logFile.toPath(), oldLogFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			// if the move failed, carry on with the same log
+			log = open(logFile);
+			logSize = log.size();
+		}
+	}
+
+	/** write contacts to the snapshot file, then remove the old log. */
+	private void writeSnapshot(List<Contact> contacts) throws IOException {
+		long start = System.nanoTime();
+		FileOutputStream file = new FileOutputStream(snapshotTmpFile);
+		long count = 0;
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16));
+			for(Contact contact : contacts) {
+				writeRecord(out, encode(SAVE, contact.getId(), contact.getVersion(), contact));
+				count++;
+			}
+			out.flush();
+			file.getFD().sync();
+		} finally {
+			file.close();
+		}
+		Files.move(snapshotTmpFile.toPath(), snapshotFile.toPath()
+				, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		oldLogFile.delete();
+		logger.info(String.format("Wrote snapshot of %d contacts in %d ms", count, (System.nanoTime()-start)/1000000));
+	}
+
+	/**
+	 * Write a final snapshot and stop the journal.
+	 * @param dao whose contacts are written
+	 */
+	public void close(MemContactDao dao) {
+		try {
+			if (compactor != null) {
+				compactor.shutdown();
+				compactor.awaitTermination(1, TimeUnit.MINUTES);
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			compact(dao);
+		} catch (IOException ex) {
+			logger.warning("Can't write snapshot: "+ex.getMessage());
+		}
+		lock.lock();
+		try {
+			closed = true;
+			pending.signal();
+		} finally {
+			lock.unlock();
+		}
+		try {
+			if (writer != null) writer.join();
+			if (log != null) log.close();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		} catch (IOException ex) {
+			logger.warning(ex.getMessage());
+		}
+	}
+
+	private static byte[] encode(byte type, long id, long version, Contact contact) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeByte(type);
+			out.writeLong(id);
+			out.writeLong(version);
+			if (contact != null) {
+				writeString(out, contact.getTitle());
+				writeString(out, contact.getName());
+				writeString(out, contact.getEmail());
+				writeString(out, contact.getPhotoUrl());
+			}
+			return bytes.toByteArray();
+		} catch (IOException ex) {
+			// a ByteArrayOutputStream doesn't throw IOException
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	/** write a record as its length, CRC32 and bytes. */
+	private static void writeRecord(DataOutputStream out, byte[] record) throws IOException {
+		CRC32 crc = new CRC32();
+		crc.update(record);
+		out.writeInt(record.length);
+		out.writeInt((int) crc.getValue());
+		out.write(record);
+	}
+
+	/** write a string as its UTF-8 length (-1 for null) and bytes. */
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes(UTF8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) return null;
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, UTF8);
+	}
+}
@@ -0,0 +1,256 @@
+package contact.service.mem;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import contact.entity.Contact;
+
+/**
+ * A file of contacts in the same layout as the columns of OffHeapContactDao,
+ * so the DAO can map the file and use it at once, without parsing it.
+ * <p>
+ * The file has a 64 byte header, then the id, version, title, name, email
+ * and photoUrl columns with 8 bytes per contact each, in order of id,
+ * then the strings in chunks as in StringArena, and last the length of
+ * each chunk.  Numbers are little-endian.  The header is written last,
+ * so a file that was not completely written is not mistaken for a store.
+ * </p>
+ * @author Atit Leelasuksan 5510546221
+ */
+public class ContactStoreFile {
+	/** first 8 bytes of a store file. */
+	private static final long MAGIC = 0x45524F5453544E43L;
+	/** version of the file layout. */
+	private static final int FORMAT = 1;
+	private static final int HEADER_SIZE = 64;
+	/** id, version and the string columns. */
+	private static final int COLUMNS = 2 + Contact.FIELDS.size();
+
+	/** number of contacts. */
+	final int rows;
+	/** next id to hand out when the file was saved. */
+	final long nextId;
+	/** store version when the file was saved. */
+	final long version;
+	final LongColumn ids;
+	final LongColumn versions;
+	/** string columns in the order of Contact.FIELDS. */
+	final LongColumn[] stringColumns;
+	final StringArena strings;
+
+	private ContactStoreFile(int rows, long nextId, long version, LongColumn[] columns, StringArena strings) {
+		this.rows = rows;
+		this.nextId = nextId;
+		this.version = version;
+		this.ids = columns[0];
+		this.versions = columns[1];
+		this.stringColumns = new LongColumn[COLUMNS - 2];
+		System.arraycopy(columns, 2, stringColumns, 0, stringColumns.length);
+		this.strings = strings;
+	}
+
+	/**
+	 * Map a store file.  Only the header and the chunk lengths are read,
+	 * so this takes about the same time however many contacts there are.
+	 * They are checked against the size of the file, so a damaged header
+	 * is an IOException, not a mapping beyond the end of the file.
+	 * @param file to open
+	 * @return the mapped columns and strings of the file
+	 * @throws IOException if the file can't be read or is not a store file
+	 */
+	static ContactStoreFile open(File file) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = in.getChannel();
+			ByteBuffer header = read(channel, 0, HEADER_SIZE);
+			if (header.getLong(0) != MAGIC) throw new IOException(file+" is not a contacts store");
+			if (header.getInt(8) != FORMAT) throw new IOException(file+" has unknown format "+header.getInt(8));
+			int rows = header.getInt(12);
+			long tablePosition = header.getLong(32);
+			int chunks = header.getInt(40);
+			// check the layout against the file size before allocating or mapping anything
+			long stringsPosition = HEADER_SIZE + (long) rows * 8 * COLUMNS;
+			if (rows < 0 || chunks < 0 || tablePosition < stringsPosition
+					|| tablePosition + (long) chunks * 4 != channel.size()) {
+				throw new IOException(file+" is corrupt: "+rows+" contacts and "+chunks+" chunks don't fit in "+channel.size()+" bytes");
+			}
+			ByteBuffer table = read(channel, tablePosition, chunks * 4);
+			int[] lengths = new int[chunks];
+			long stringsSize = 0;
+			for(int k=0; k<chunks; k++) {
+				lengths[k] = table.getInt(k * 4);
+				if (lengths[k] < 0) throw new IOException(file+" is corrupt: chunk "+k+" has length "+lengths[k]);
+				stringsSize += lengths[k];
+			}
+			if (stringsPosition + stringsSize != tablePosition) throw new IOException(file+" is corrupt: chunks don't fill the strings");
+			LongColumn[] columns = new LongColumn[COLUMNS];
+			long position = HEADER_SIZE;
+			for(int k=0; k<COLUMNS; k++) {
+				columns[k] = new LongColumn(channel, position, rows);
+				position += (long) rows * 8;
+			}
+			StringArena strings = new StringArena(channel, position, lengths);
+			// mappings stay valid after the file is closed
+			return new ContactStoreFile(rows, header.getLong(16), header.getLong(24), columns, strings);
+		} finally {
+			in.close();
+		}
+	}
+
+	private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length).order(LongColumn.ORDER);
+		while( buffer.hasRemaining() ) {
+			if (channel.read(buffer, position + buffer.position()) < 0) throw new IOException("Store file is truncated");
+		}
+		return buffer;
+	}
+
+	/**
+	 * Writes a store file one contact at a time, in order of id.
+	 * Each column is written through its own buffer at its own place in the file.
+	 */
+	static final class Writer {
+		private final FileChannel channel;
+		private final int rows;
+		private final Output[] columns;
+		private final Output strings;
+		private int added;
+		private int[] chunkLengths = new int[16];
+		private int chunks;
+		/** bytes in the chunk being written. */
+		private int chunkUsed;
+
+		/**
+		 * Start writing a store file.
+		 * @param channel of an empty file
+		 * @param rows number of contacts that will be added
+		 */
+		Writer(FileChannel channel, int rows) {
+			this.channel = channel;
+			this.rows = rows;
+			columns = new Output[COLUMNS];
+			long position = HEADER_SIZE;
+			for(int k=0; k<COLUMNS; k++) {
+				columns[k] = new Output(channel, position);
+				position += (long) rows * 8;
+			}
+			strings = new Output(channel, position);
+		}
+
+		/**
+		 * Add a contact.  Contacts must be added in ascending order of id.
+		 * @param id of contact
+		 * @param version of contact
+		 * @param values UTF-8 strings of the fields in the order of Contact.FIELDS, null if not set.
+		 * @throws IOException if the file can't be written
+		 */
+		void add(long id, long version, byte[][] values) throws IOException {
+			if (added == rows) throw new IllegalStateException("More than "+rows+" contacts added");
+			columns[0].putLong(id);
+			columns[1].putLong(version);
+			for(int k=0; k<values.length; k++) columns[2 + k].putLong(addString(values[k]));
+			added++;
+		}
+
+		/**
+		 * Write a string to the chunks, as StringArena.add does.
+		 * @return address of the string
+		 */
+		private long addString(byte[] value) throws IOException {
+			if (value == null) return StringArena.NULL;
+			int length = 4 + value.length;
+			if (chunkUsed > 0 && chunkUsed + length > StringArena.CHUNK_SIZE) endChunk();
+			long address = ((long) chunks << 32) | chunkUsed;
+			strings.putInt(value.length);
+			strings.put(value);
+			chunkUsed += length;
+			return address;
+		}
+
+		private void endChunk() {
+			if (chunks == chunkLengths.length) chunkLengths = Arrays.copyOf(chunkLengths, chunks * 2);
+			chunkLengths[chunks++] = chunkUsed;
+			chunkUsed = 0;
+		}
+
+		/**
+		 * Write the chunk lengths and then the header, and force them to disk.
+		 * @param nextId next id to hand out
+		 * @param version store version
+		 * @throws IOException if the file can't be written
+		 */
+		void finish(long nextId, long version) throws IOException {
+			if (added != rows) throw new IllegalStateException(added+" contacts added but "+rows+" expected");
+			if (chunkUsed > 0) endChunk();
+			for(Output column : columns) column.flush();
+			strings.flush();
+			long tablePosition = strings.position();
+			Output table = new Output(channel, tablePosition);
+			for(int k=0; k<chunks; k++) table.putInt(chunkLengths[k]);
+			table.flush();
+			channel.force(false);
+			Output header = new Output(channel, 0);
+			header.putLong(MAGIC);
+			header.putInt(FORMAT);
+			header.putInt(rows);
+			header.putLong(nextId);
+			header.putLong(version);
+			header.putLong(tablePosition);
+			header.putInt(chunks);
+			while( header.position() < HEADER_SIZE ) header.putInt(0);
+			header.flush();
+			channel.force(true);
+		}
+	}
+
+	/**
+	 * A buffered writer of little-endian numbers and bytes,
+	 * starting at a position in a file.
+	 */
+	private static final class Output {
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16).order(LongColumn.ORDER);
+		/** position in the file of the start of the buffer. */
+		private long position;
+
+		Output(FileChannel channel, long position) {
+			this.channel = channel;
+			this.position = position;
+		}
+
+		void putLong(long value) throws IOException {
+			if (buffer.remaining() < 8) flush();
+			buffer.putLong(value);
+		}
+
+		void putInt(int value) throws IOException {
+			if (buffer.remaining() < 4) flush();
+			buffer.putInt(value);
+		}
+
+		void put(byte[] bytes) throws IOException {
+			int offset = 0;
+			while( offset < bytes.length ) {
+				if (!buffer.hasRemaining()) flush();
+				int length = Math.min(buffer.remaining(), bytes.length - offset);
+				buffer.put(bytes, offset, length);
+				offset += length;
+			}
+		}
+
+		/** get the position in the file of the next byte written. */
+		long position() {
+			return position + buffer.position();
+		}
+
+		void flush() throws IOException {
+			buffer.flip();
+			while( buffer.hasRemaining() ) position += channel.write(buffer, position);
+			buffer.clear();
+		}
+	}
+}
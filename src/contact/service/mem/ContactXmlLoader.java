@@ -0,0 +1,137 @@
+package contact.service.mem;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import contact.entity.Contact;
+import contact.entity.ContactBinding;
+
+/**
+ * Load contacts from XML files into a MemContactDao or ShardedContactDao.
+ * The file is read with StAX and each &lt;contact&gt; element is unmarshalled
+ * by itself, so the whole ContactList is never held in memory.
+ * Contacts are added to the DAO in batches.
+ * Several files (chunks of one large file) can be loaded in parallel.
+ * @author Atit Leelasuksan 5510546221
+ */
+public class ContactXmlLoader {
+	private static final Logger logger = Logger.getLogger(ContactXmlLoader.class.getName());
+	/** number of contacts to parse before adding them to the DAO. */
+	private static final int BATCH_SIZE = 1000;
+	private static final XMLInputFactory XML_FACTORY = XMLInputFactory.newInstance();
+
+	private final Loadable dao;
+
+	/**
+	 * Create a loader that adds contacts to a DAO.
+	 * @param dao to add contacts to
+	 */
+	ContactXmlLoader(Loadable dao) {
+		this.dao = dao;
+	}
+
+	/**
+	 * Load contacts from files, one thread per file up to the number of processors.
+	 * Load time and throughput are logged.
+	 * @param files XML files with a &lt;contacts&gt; root element
+	 * @return number of contacts loaded
+	 * @throws IOException if a file can't be read or parsed
+	 */
+	public long load(List<File> files) throws IOException {
+		long start = System.nanoTime();
+		long count = 0;
+		int threads = Math.max(1, Math.min(files.size(), Runtime.getRuntime().availableProcessors()));
+		if (threads == 1) {
+			for(File file : files) count += load(file);
+		} else {
+			ExecutorService executor = Executors.newFixedThreadPool(threads);
+			try {
+				List<Future<Long>> results = new ArrayList<Future<Long>>();
+				for(final File file : files) {
+					results.add(executor.submit(new Callable<Long>() {
+						@Override
+						public Long call() throws IOException {
+							return load(file);
+						}
+					}));
+				}
+				for(Future<Long> result : results) count += result.get();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while loading contacts", ex);
+			} catch (ExecutionException ex) {
+				if (ex.getCause() instanceof IOException) throw (IOException) ex.getCause();
+				throw new IOException(ex.getCause());
+			} finally {
+				executor.shutdown();
+			}
+		}
+		long millis = Math.max(1, (System.nanoTime() - start) / 1000000);
+		logger.info(String.format("Loaded %d contacts from %d file(s) in %d ms (%d contacts/sec)"
+				, count, files.size(), millis, count * 1000 / millis));
+		return count;
+	}
+
+	/**
+	 * Load contacts from one file.
+	 * @param file XML file with a &lt;contacts&gt; root element
+	 * @return number of contacts loaded
+	 * @throws IOException if the file can't be read or parsed
+	 */
+	public long load(File file) throws IOException {
+		InputStream in = new BufferedInputStream(new FileInputStream(file), 1 << 16);
+		try {
+			return load(in);
+		} catch (XMLStreamException ex) {
+			throw new IOException("Can't parse "+file, ex);
+		} catch (JAXBException ex) {
+			throw new IOException("Can't parse "+file, ex);
+		} finally {
+			in.close();
+		}
+	}
+
+	private long load(InputStream in) throws XMLStreamException, JAXBException {
+		XMLStreamReader reader = XML_FACTORY.createXMLStreamReader(in);
+		Unmarshaller um = ContactBinding.getUnmarshaller();
+		List<Contact> batch = new ArrayList<Contact>(BATCH_SIZE);
+		long count = 0;
+		try {
+			while( reader.hasNext() ) {
+				if (reader.getEventType() == XMLStreamConstants.START_ELEMENT
+						&& "contact".equals(reader.getLocalName())) {
+					// unmarshal leaves the reader just after the </contact>
+					batch.add(um.unmarshal(reader, Contact.class).getValue());
+					if (batch.size() == BATCH_SIZE) {
+						count += dao.load(batch);
+						batch.clear();
+					}
+				} else {
+					reader.next();
+				}
+			}
+			count += dao.load(batch);
+		} finally {
+			reader.close();
+		}
+		return count;
+	}
+}
@@ -0,0 +1,88 @@
+package contact.service.mem;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A hash index from a case-folded string, such as an email address,
+ * to the ids of contacts that have it, for exact lookups.
+ * Each key maps to a sorted array of ids that is never changed; writers
+ * replace the array with compare-and-set, so readers never lock and
+ * keys without ids are removed instead of piling up.
+ * Like TitleIndex, a lookup may briefly include a contact whose value
+ * is being changed, so callers must check the value of each contact.
+ * 
+ * @author Atit Leelasuksan 5510546221
+ */
+public class HashIndex {
+	private static final long[] NONE = new long[0];
+	
+	private final ConcurrentMap<String,long[]> postings;
+	
+	/**
+	 * Create an empty index.
+	 */
+	public HashIndex() {
+		postings = new ConcurrentHashMap<String,long[]>();
+	}
+	
+	/**
+	 * Add a value to the index.
+	 * @param id of contact
+	 * @param value of contact, may be null.
+	 */
+	public void add(long id, String value) {
+		if (value == null) return;
+		String key = TitleIndex.fold(value);
+		while( true ) {
+			long[] ids = postings.get(key);
+			if (ids == null) {
+				if (postings.putIfAbsent(key, new long[] { id }) == null) return;
+				continue;
+			}
+			int index = Arrays.binarySearch(ids, id);
+			if (index >= 0) return;
+			index = -(index + 1);
+			long[] added = new long[ids.length + 1];
+			System.arraycopy(ids, 0, added, 0, index);
+			added[index] = id;
+			System.arraycopy(ids, index, added, index + 1, ids.length - index);
+			if (postings.replace(key, ids, added)) return;
+		}
+	}
+	
+	/**
+	 * Remove a value from the index.
+	 * @param id of contact
+	 * @param value of contact that was indexed, may be null.
+	 */
+	public void remove(long id, String value) {
+		if (value == null) return;
+		String key = TitleIndex.fold(value);
+		while( true ) {
+			long[] ids = postings.get(key);
+			if (ids == null) return;
+			int index = Arrays.binarySearch(ids, id);
+			if (index < 0) return;
+			if (ids.length == 1) {
+				if (postings.remove(key, ids)) return;
+				continue;
+			}
+			long[] removed = new long[ids.length - 1];
+			System.arraycopy(ids, 0, removed, 0, index);
+			System.arraycopy(ids, index + 1, removed, index, removed.length - index);
+			if (postings.replace(key, ids, removed)) return;
+		}
+	}
+	
+	/**
+	 * Get ids of contacts that have a value, ignoring case.
+	 * @param value to find, must not be null.
+	 * @return ids of candidate contacts in ascending order.  Don't change the array.
+	 */
+	public long[] get(String value) {
+		long[] ids = postings.get(TitleIndex.fold(value));
+		return (ids == null) ? NONE : ids;
+	}
+}
@@ -0,0 +1,20 @@
+package contact.service.mem;
+
+import java.util.List;
+
+import contact.entity.Contact;
+import contact.service.ContactDao;
+
+/**
+ * A memory DAO that can add many contacts quickly, such as when
+ * ContactXmlLoader loads a file.
+ * @author Atit Leelasuksan 5510546221
+ */
+interface Loadable extends ContactDao {
+	/**
+	 * Add many contacts, as in ContactDao.save.
+	 * @param batch contacts to add
+	 * @return number of contacts added
+	 */
+	int load(List<Contact> batch);
+}
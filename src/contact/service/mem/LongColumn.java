@@ -0,0 +1,108 @@
+package contact.service.mem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
+
+/**
+ * A growable array of longs kept outside the Java heap, in direct byte
+ * buffers of PAGE_SIZE values each.  The garbage collector sees one small
+ * object per page, however many values there are.
+ * Values of new pages are 0.  A column can also be mapped from a
+ * ContactStoreFile.  Not thread safe: OffHeapContactDao guards its
+ * columns with a read-write lock.
+ * 
+ * @author Atit Leelasuksan 5510546221
+ */
+public class LongColumn {
+	/** log2 of the number of values in a page. */
+	private static final int PAGE_SHIFT = 16;
+	/** number of values in a page. */
+	public static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+	private static final int PAGE_BYTES = PAGE_SIZE * 8;
+	/** number of pages mapped at once, so a mapping is at most 1 GB. */
+	private static final int REGION_PAGES = 2048;
+	/** byte order of values, in memory and in files. */
+	static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+	
+	private ByteBuffer[] pages;
+	
+	/**
+	 * Create an empty column.
+	 */
+	public LongColumn() {
+		pages = new ByteBuffer[0];
+	}
+	
+	/**
+	 * Create a column of the values in part of a file.  The file is mapped
+	 * read-only, so values are paged in by the operating system when they
+	 * are read, and a page is copied to memory when a value in it is first set.
+	 * @param channel of the file
+	 * @param position of the first value in the file
+	 * @param size number of values
+	 * @throws IOException if the file can't be mapped
+	 */
+	LongColumn(FileChannel channel, long position, int size) throws IOException {
+		pages = new ByteBuffer[(int) (((long) size + PAGE_SIZE - 1) >>> PAGE_SHIFT)];
+		long bytes = (long) size * 8;
+		for(int first=0; first<pages.length; first+=REGION_PAGES) {
+			long offset = (long) first * PAGE_BYTES;
+			ByteBuffer region = channel.map(MapMode.READ_ONLY, position + offset, Math.min(bytes - offset, (long) REGION_PAGES * PAGE_BYTES));
+			for(int k=0; k<REGION_PAGES && first + k<pages.length; k++) {
+				region.clear();
+				region.position(k * PAGE_BYTES);
+				region.limit(Math.min(region.capacity(), (k + 1) * PAGE_BYTES));
+				pages[first + k] = region.slice().order(ORDER);
+			}
+		}
+	}
+	
+	/**
+	 * Get a value.
+	 * @param index of value, less than the largest index set so far plus one.
+	 * @return the value
+	 */
+	public long get(int index) {
+		return pages[index >>> PAGE_SHIFT].getLong((index & (PAGE_SIZE - 1)) << 3);
+	}
+	
+	/**
+	 * Set a value, adding pages if the index is beyond the last page.
+	 * @param index of value, must not be negative.
+	 * @param value to set
+	 */
+	public void set(int index, long value) {
+		int page = index >>> PAGE_SHIFT;
+		if (page >= pages.length) grow(page + 1);
+		// a mapped page is read-only until it is copied
+		if (pages[page].isReadOnly()) pages[page] = copyOf(pages[page]);
+		pages[page].putLong((index & (PAGE_SIZE - 1)) << 3, value);
+	}
+	
+	private void grow(int length) {
+		int old = pages.length;
+		pages = Arrays.copyOf(pages, length);
+		for(int k=old; k<length; k++) pages[k] = ByteBuffer.allocateDirect(PAGE_BYTES).order(ORDER);
+	}
+	
+	private static ByteBuffer copyOf(ByteBuffer page) {
+		ByteBuffer copy = ByteBuffer.allocateDirect(PAGE_BYTES).order(ORDER);
+		ByteBuffer source = page.duplicate();
+		source.clear();
+		copy.put(source);
+		copy.clear();
+		return copy;
+	}
+	
+	/**
+	 * Get the memory used by this column, including mapped pages.
+	 * @return number of bytes allocated outside the heap
+	 */
+	public long bytes() {
+		return (long) pages.length * PAGE_BYTES;
+	}
+}
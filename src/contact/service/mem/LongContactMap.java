@@ -0,0 +1,267 @@
+package contact.service.mem;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+import contact.entity.Contact;
+
+/**
+ * A concurrent hash map from primitive long ids to contacts.
+ * The map is split into segments, each guarded by its own lock for writes
+ * (lock striping).  Reads never lock: each bucket holds an immutable chain
+ * of nodes, so a reader always sees a consistent chain even while a writer
+ * replaces it.  Keys are stored as primitive longs so lookups don't box.
+ *
+ * @author Atit Leelasuksan 5510546221
+ */
+public class LongContactMap implements Iterable<Contact> {
+	/** number of segments, must be a power of 2. */
+	private static final int SEGMENTS = 32;
+	/** initial number of buckets in each segment, must be a power of 2. */
+	private static final int INITIAL_CAPACITY = 16;
+	/** resize a segment when it holds more than this fraction of its buckets. */
+	private static final float LOAD_FACTOR = 0.75f;
+
+	private final Segment[] segments;
+
+	/**
+	 * Create an empty map.
+	 */
+	public LongContactMap() {
+		segments = new Segment[SEGMENTS];
+		for(int k=0; k<SEGMENTS; k++) segments[k] = new Segment();
+	}
+
+	/**
+	 * Get the contact with given id.
+	 * @param id of contact
+	 * @return contact with the id or null if there is none.
+	 */
+	public Contact get(long id) {
+		int hash = hash(id);
+		return segmentFor(hash).get(id, hash);
+	}
+
+	/**
+	 * Test if there is a contact with given id.
+	 * @param id of contact
+	 * @return true if the map contains the id.
+	 */
+	public boolean containsKey(long id) {
+		return get(id) != null;
+	}
+
+	/**
+	 * Put a contact in the map, replacing any contact with same id.
+	 * @param id of contact
+	 * @param contact to put, must not be null.
+	 * @return the previous contact with the id or null if there was none.
+	 */
+	public Contact put(long id, Contact contact) {
+		if (contact == null) throw new IllegalArgumentException("Can't put a null contact");
+		int hash = hash(id);
+		return segmentFor(hash).put(id, hash, contact, false);
+	}
+
+	/**
+	 * Put a contact in the map only if there is no contact with same id.
+	 * @param id of contact
+	 * @param contact to put, must not be null.
+	 * @return the existing contact with the id or null if contact was added.
+	 */
+	public Contact putIfAbsent(long id, Contact contact) {
+		if (contact == null) throw new IllegalArgumentException("Can't put a null contact");
+		int hash = hash(id);
+		return segmentFor(hash).put(id, hash, contact, true);
+	}
+
+	/**
+	 * Remove the contact with given id.
+	 * @param id of contact
+	 * @return the removed contact or null if there was none.
+	 */
+	public Contact remove(long id) {
+		int hash = hash(id);
+		return segmentFor(hash).remove(id, hash);
+	}
+
+	/**
+	 * Get the number of contacts in the map.
+	 * The result is only an estimate while other threads are writing.
+	 * @return number of contacts.
+	 */
+	public int size() {
+		long size = 0;
+		for(Segment segment : segments) size += segment.count;
+		return (int) Math.min(size, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Iterate over contacts in the map.  The iterator is weakly consistent:
+	 * it never throws ConcurrentModificationException and may or may not
+	 * reflect writes made after it was created.  It does not support remove.
+	 */
+	@Override
+	public Iterator<Contact> iterator() {
+		return new ContactIterator();
+	}
+
+	/** spread bits of the id so that sequential ids use all segments and buckets. */
+	private static int hash(long id) {
+		long h = id * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	private Segment segmentFor(int hash) {
+		return segments[(hash >>> 27) & (SEGMENTS - 1)];
+	}
+
+	/** immutable entry in a bucket chain. */
+	static final class Node {
+		final long key;
+		final int hash;
+		final Contact value;
+		final Node next;
+
+		Node(long key, int hash, Contact value, Node next) {
+			this.key = key;
+			this.hash = hash;
+			this.value = value;
+			this.next = next;
+		}
+	}
+
+	/** a part of the map with its own lock and bucket table. */
+	static final class Segment extends ReentrantLock {
+		private static final long serialVersionUID = 1L;
+		volatile AtomicReferenceArray<Node> table;
+		volatile int count;
+
+		Segment() {
+			table = new AtomicReferenceArray<Node>(INITIAL_CAPACITY);
+		}
+
+		Contact get(long key, int hash) {
+			AtomicReferenceArray<Node> tab = table;
+			Node node = tab.get(hash & (tab.length() - 1));
+			while(node != null) {
+				if (node.key == key) return node.value;
+				node = node.next;
+			}
+			return null;
+		}
+
+		Contact put(long key, int hash, Contact value, boolean onlyIfAbsent) {
+			lock();
+			try {
+				if (count + 1 > table.length() * LOAD_FACTOR) rehash();
+				AtomicReferenceArray<Node> tab = table;
+				int index = hash & (tab.length() - 1);
+				Node first = tab.get(index);
+				for(Node node = first; node != null; node = node.next) {
+					if (node.key == key) {
+						if (!onlyIfAbsent) tab.set(index, new Node(key, hash, value, unlink(first, node)));
+						return node.value;
+					}
+				}
+				tab.set(index, new Node(key, hash, value, first));
+				count++;
+				return null;
+			} finally {
+				unlock();
+			}
+		}
+
+		Contact remove(long key, int hash) {
+			lock();
+			try {
+				AtomicReferenceArray<Node> tab = table;
+				int index = hash & (tab.length() - 1);
+				Node first = tab.get(index);
+				for(Node node = first; node != null; node = node.next) {
+					if (node.key == key) {
+						tab.set(index, unlink(first, node));
+						count--;
+						return node.value;
+					}
+				}
+				return null;
+			} finally {
+				unlock();
+			}
+		}
+
+		/**
+		 * Copy a chain without the given node.  Nodes after the removed node
+		 * are shared, nodes before it are cloned, so readers of the old chain
+		 * are never disturbed.
+		 */
+		private static Node unlink(Node first, Node removed) {
+			Node chain = removed.next;
+			for(Node node = first; node != removed; node = node.next)
+				chain = new Node(node.key, node.hash, node.value, chain);
+			return chain;
+		}
+
+		/** double the table size.  Called while holding the lock. */
+		private void rehash() {
+			AtomicReferenceArray<Node> old = table;
+			int capacity = old.length() << 1;
+			if (capacity <= 0) return;
+			AtomicReferenceArray<Node> tab = new AtomicReferenceArray<Node>(capacity);
+			for(int k=0; k<old.length(); k++) {
+				for(Node node = old.get(k); node != null; node = node.next) {
+					int index = node.hash & (capacity - 1);
+					tab.set(index, new Node(node.key, node.hash, node.value, tab.get(index)));
+				}
+			}
+			table = tab;
+		}
+	}
+
+	/** weakly consistent iterator over all segments and buckets. */
+	private final class ContactIterator implements Iterator<Contact> {
+		private int segmentIndex = 0;
+		private AtomicReferenceArray<Node> tab;
+		private int bucket = 0;
+		private Node next;
+
+		ContactIterator() {
+			advance();
+		}
+
+		private void advance() {
+			if (next != null) next = next.next;
+			while(next == null) {
+				if (tab != null && bucket < tab.length()) {
+					next = tab.get(bucket++);
+				} else if (segmentIndex < segments.length) {
+					tab = segments[segmentIndex++].table;
+					bucket = 0;
+				} else {
+					return;
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		@Override
+		public Contact next() {
+			if (next == null) throw new NoSuchElementException();
+			Contact contact = next.value;
+			advance();
+			return contact;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package contact.service.mem;
+
+/**
+ * A map from primitive long keys to int values using open addressing,
+ * which uses about 16 bytes per entry and no object per entry.
+ * Entries can't be removed; clear the map to start over.
+ * Not thread safe.
+ * 
+ * @author Atit Leelasuksan 5510546221
+ */
+public class LongIntMap {
+	/** marks an empty slot.  Contact ids are never 0 once saved. */
+	private static final long EMPTY = 0L;
+	
+	private long[] keys;
+	private int[] values;
+	private int size;
+	
+	/**
+	 * Create an empty map.
+	 */
+	public LongIntMap() {
+		keys = new long[16];
+		values = new int[16];
+	}
+	
+	/**
+	 * Get the value of a key.
+	 * @param key to find
+	 * @return value of the key, or -1 if the key is not in the map.
+	 */
+	public int get(long key) {
+		int mask = keys.length - 1;
+		for(int index = hash(key) & mask; keys[index] != EMPTY; index = (index + 1) & mask) {
+			if (keys[index] == key) return values[index];
+		}
+		return -1;
+	}
+	
+	/**
+	 * Put a key in the map, replacing its value if it is already there.
+	 * @param key to put, must not be 0.
+	 * @param value of the key
+	 */
+	public void put(long key, int value) {
+		if (key == EMPTY) throw new IllegalArgumentException("Can't put "+key);
+		if ((size + 1) * 4 > keys.length * 3) resize();
+		int mask = keys.length - 1;
+		int index = hash(key) & mask;
+		while( keys[index] != EMPTY && keys[index] != key ) index = (index + 1) & mask;
+		if (keys[index] == EMPTY) size++;
+		keys[index] = key;
+		values[index] = value;
+	}
+	
+	/**
+	 * Get the keys in the map.
+	 * @return new array of the keys, in no particular order.
+	 */
+	public long[] keys() {
+		long[] result = new long[size];
+		int count = 0;
+		for(long key : keys) if (key != EMPTY) result[count++] = key;
+		return result;
+	}
+	
+	/**
+	 * Get the number of keys in the map.
+	 * @return number of keys
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Remove all keys.
+	 */
+	public void clear() {
+		keys = new long[16];
+		values = new int[16];
+		size = 0;
+	}
+	
+	private void resize() {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		keys = new long[oldKeys.length * 2];
+		values = new int[oldKeys.length * 2];
+		size = 0;
+		for(int k=0; k<oldKeys.length; k++) {
+			if (oldKeys[k] != EMPTY) put(oldKeys[k], oldValues[k]);
+		}
+	}
+	
+	private static int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+}
@@ -0,0 +1,132 @@
+package contact.service.mem;
+
+import java.util.Arrays;
+
+/**
+ * A set of primitive long values using open addressing.
+ * Methods are synchronized so one set can be shared by request threads.
+ * 
+ * @author Atit Leelasuksan 5510546221
+ */
+public class LongSet {
+	/** marks an empty slot.  Contact ids are never 0 once saved. */
+	private static final long EMPTY = 0L;
+	/** marks a slot whose value was removed. */
+	private static final long REMOVED = Long.MIN_VALUE;
+	
+	private long[] slots;
+	private int size;
+	/** number of slots that are not EMPTY, including REMOVED ones. */
+	private int used;
+	
+	/**
+	 * Create an empty set.
+	 */
+	public LongSet() {
+		slots = new long[4];
+	}
+	
+	/**
+	 * Add a value to the set.
+	 * @param value to add, must not be 0 or Long.MIN_VALUE.
+	 * @return true if the value was not in the set.
+	 */
+	public synchronized boolean add(long value) {
+		if (value == EMPTY || value == REMOVED) throw new IllegalArgumentException("Can't add "+value);
+		if ((used + 1) * 4 > slots.length * 3) resize();
+		int mask = slots.length - 1;
+		int index = hash(value) & mask;
+		int free = -1;
+		while( slots[index] != EMPTY ) {
+			if (slots[index] == value) return false;
+			if (slots[index] == REMOVED && free < 0) free = index;
+			index = (index + 1) & mask;
+		}
+		if (free < 0) {
+			free = index;
+			used++;
+		}
+		slots[free] = value;
+		size++;
+		return true;
+	}
+	
+	/**
+	 * Remove a value from the set.
+	 * @param value to remove
+	 * @return true if the value was in the set.
+	 */
+	public synchronized boolean remove(long value) {
+		int mask = slots.length - 1;
+		int index = hash(value) & mask;
+		while( slots[index] != EMPTY ) {
+			if (slots[index] == value) {
+				slots[index] = REMOVED;
+				size--;
+				return true;
+			}
+			index = (index + 1) & mask;
+		}
+		return false;
+	}
+	
+	/**
+	 * Test if a value is in the set.
+	 * @param value to look for
+	 * @return true if the set contains value.
+	 */
+	public synchronized boolean contains(long value) {
+		int mask = slots.length - 1;
+		int index = hash(value) & mask;
+		while( slots[index] != EMPTY ) {
+			if (slots[index] == value) return true;
+			index = (index + 1) & mask;
+		}
+		return false;
+	}
+	
+	/**
+	 * @return number of values in the set.
+	 */
+	public synchronized int size() {
+		return size;
+	}
+	
+	/**
+	 * Copy the values in the set.
+	 * @return array of values in ascending order.
+	 */
+	public synchronized long[] toArray() {
+		long[] values = new long[size];
+		int k = 0;
+		for(long slot : slots) {
+			if (slot != EMPTY && slot != REMOVED) values[k++] = slot;
+		}
+		Arrays.sort(values);
+		return values;
+	}
+	
+	private static int hash(long value) {
+		long h = value * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+	
+	/** rebuild the table, dropping REMOVED markers and growing if needed. */
+	private void resize() {
+		long[] old = slots;
+		int capacity = old.length;
+		while( (size + 1) * 2 > capacity ) capacity <<= 1;
+		slots = new long[capacity];
+		used = 0;
+		size = 0;
+		int mask = capacity - 1;
+		for(long value : old) {
+			if (value == EMPTY || value == REMOVED) continue;
+			int index = hash(value) & mask;
+			while( slots[index] != EMPTY ) index = (index + 1) & mask;
+			slots[index] = value;
+			used++;
+			size++;
+		}
+	}
+}
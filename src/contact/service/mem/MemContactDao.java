@@ -1,27 +1,67 @@
 package contact.service.mem;
 
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.regex.Pattern;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
 
 import contact.entity.Contact;
+import contact.service.ContactCursor;
 import contact.service.ContactDao;
 
 /**
  * Data access object for saving and retrieving contacts.
- * This DAO uses an in-memory list of person.
+ * This DAO uses an in-memory hash map of person indexed by id,
+ * which is safe to share between request threads.
  * Use DaoFactory to get an instance of this class, such as:
  * dao = DaoFactory.getInstance().getContactDao()
  * 
- * @author jim
+ * @author jim, Atit Leelasuksan 5510546221
  */
-public class MemContactDao implements ContactDao {
-	private List<Contact> contacts;
+public class MemContactDao implements ContactDao, Loadable {
+	/** number of locks used to serialize writes of the same id. */
+	private static final int WRITE_LOCKS = 64;
+	private LongContactMap contacts;
+	/** ids of saved contacts in ascending order, for paging through contacts. */
+	private ConcurrentSkipListSet<Long> ids;
+	private TitleIndex titleIndex;
+	/** ids by email, for exact lookups. */
+	private HashIndex emailIndex;
+	/** ids by name, for prefix lookups. */
+	private SortedIndex nameIndex;
+	private ReentrantLock[] writeLocks;
 	private AtomicLong nextId;
+	/**
+	 * Source of contact versions.  Every save and update takes the next value,
+	 * so a version is never reused, not even by another contact.
+	 * It starts from the clock so versions also increase across restarts.
+	 */
+	private AtomicLong versions;
+	/** journal of changes, or null if contacts are only kept in memory. */
+	private volatile ContactJournal journal;
 	
 	public MemContactDao() {
-		contacts = new ArrayList<Contact>();
-		nextId = new AtomicLong(1000L);
+		this(new AtomicLong(1000L), new AtomicLong(System.currentTimeMillis() << 20));
+	}
+	
+	/**
+	 * Create a DAO that takes new ids and versions from given counters,
+	 * so that several DAOs (the shards of a ShardedContactDao) can share them.
+	 * @param nextId source of ids of new contacts
+	 * @param versions source of contact versions
+	 */
+	MemContactDao(AtomicLong nextId, AtomicLong versions) {
+		contacts = new LongContactMap();
+		ids = new ConcurrentSkipListSet<Long>();
+		titleIndex = new TitleIndex();
+		emailIndex = new HashIndex();
+		nameIndex = new SortedIndex();
+		writeLocks = new ReentrantLock[WRITE_LOCKS];
+		for(int k=0; k<WRITE_LOCKS; k++) writeLocks[k] = new ReentrantLock();
+		this.nextId = nextId;
+		this.versions = versions;
 		//createTestContact(1);
 	}
 	
@@ -29,75 +69,518 @@ public class MemContactDao implements ContactDao {
 	private void createTestContact(long id) {
 		Contact test = new Contact("Test contact", "Joe Experimental", "none@testing.com");
 		test.setId(id);
-		contacts.add(test);
+		save(test);
 	}
 
 	@Override
 	public Contact find(long id) {
-		for(Contact c : contacts) 
-			if (c.getId() == id) return c;
-		return null;
+		return contacts.get(id);
 	}
 
 	@Override
 	public List<Contact> findAll() {
-		return java.util.Collections.unmodifiableList(contacts);
+		List<Contact> all = new ArrayList<Contact>(contacts.size());
+		for(Contact c : contacts) all.add(c);
+		return java.util.Collections.unmodifiableList(all);
 	}
 
 	@Override
 	public boolean delete(long id) {
-		for(int k=0; k<contacts.size(); k++) {
-			if (contacts.get(k).getId() == id) {
-				contacts.remove(k);
-				return true;
+		ContactJournal journal = beginChange();
+		ReentrantLock lock = lockFor(id);
+		lock.lock();
+		try {
+			if (!contacts.containsKey(id)) return false;
+			long version = versions.incrementAndGet();
+			if (journal != null) {
+				try {
+					journal.logDelete(id, version);
+				} catch (IOException ex) {
+					journalFailed(ex);
+					return false;
+				}
 			}
+			remove(id);
+			return true;
+		} finally {
+			lock.unlock();
+			endChange(journal);
 		}
-		return false;
 	}
 	
+	/**
+	 * Save or replace a contact.  Ids of saved contacts are positive,
+	 * so a contact with a negative id is not saved.
+	 * @see contact.service.ContactDao#save(contact.entity.Contact)
+	 */
 	@Override
 	public boolean save(Contact contact) {
+		if (contact.getId() < 0) return false;
 		if (contact.getId() == 0) {
 			contact.setId( getUniqueId() );
-			return contacts.add(contact);
+		} else {
+			// never hand out this id again
+			reserveId(contact.getId());
+		}
+		long id = contact.getId();
+		ContactJournal journal = beginChange();
+		ReentrantLock lock = lockFor(id);
+		lock.lock();
+		try {
+			contact.setVersion(versions.incrementAndGet());
+			if (!logSave(journal, contact)) return false;
+			// replace any contact with same id
+			put(contact);
+		} finally {
+			lock.unlock();
+			endChange(journal);
 		}
-		// check if this contact is already in persistent storage
-		Contact other  = find(contact.getId());
-		if (other == contact) return true;
-		if ( other != null ) contacts.remove(other);
-		return contacts.add(contact);
+		return true;
 	}
 
 	@Override
 	public boolean update(Contact update) {
-		Contact contact = find(update.getId());
-		if (contact == null) return false;
-		contact.applyUpdate(update);
-		save(contact);
+		long id = update.getId();
+		ContactJournal journal = beginChange();
+		ReentrantLock lock = lockFor(id);
+		lock.lock();
+		try {
+			Contact contact = find(id);
+			if (contact == null) return false;
+			// work out the new state first, so it can be journaled before it is visible
+			Contact next = contact.project(null);
+			next.applyUpdate(update);
+			next.setVersion(versions.incrementAndGet());
+			if (!logSave(journal, next)) return false;
+			unindex(contact);
+			contact.copyOf(next);
+			contact.setVersion(next.getVersion());
+			update.setVersion(contact.getVersion());
+			index(contact);
+			return true;
+		} finally {
+			lock.unlock();
+			endChange(journal);
+		}
+	}
+	
+	/**
+	 * Add or replace a contact in the map and indexes.
+	 * Called while holding the lock for its id.
+	 * @param contact to put
+	 */
+	private void put(Contact contact) {
+		long id = contact.getId();
+		Contact old = contacts.put(id, contact);
+		if (old != null) unindex(old);
+		else ids.add(id);
+		index(contact);
+	}
+	
+	/**
+	 * Remove a contact from the map and indexes.
+	 * Called while holding the lock for its id.
+	 * @param id of contact to remove
+	 */
+	private void remove(long id) {
+		Contact removed = contacts.remove(id);
+		if (removed == null) return;
+		ids.remove(id);
+		unindex(removed);
+	}
+	
+	/**
+	 * Add a contact to the title, email and name indexes.
+	 * Called while holding the lock for its id.
+	 * @param contact to index
+	 */
+	private void index(Contact contact) {
+		long id = contact.getId();
+		titleIndex.add(id, contact.getTitle());
+		emailIndex.add(id, contact.getEmail());
+		nameIndex.add(id, contact.getName());
+	}
+	
+	/**
+	 * Remove a contact from the indexes, before its fields change.
+	 * Called while holding the lock for its id.
+	 * @param contact to remove, with the fields that were indexed
+	 */
+	private void unindex(Contact contact) {
+		long id = contact.getId();
+		titleIndex.remove(id, contact.getTitle());
+		emailIndex.remove(id, contact.getEmail());
+		nameIndex.remove(id, contact.getName());
+	}
+	
+	/**
+	 * Use a journal to make changes durable.  Each save, update and delete
+	 * is written to the journal before it is applied, and fails if it can't be written.
+	 * @param journal the journal to write, or null to keep contacts only in memory.
+	 */
+	void setJournal(ContactJournal journal) {
+		this.journal = journal;
+	}
+	
+	/**
+	 * Restore a contact from a journal or file, keeping its id and version.
+	 * The change is not written to the journal.
+	 * @param contact to restore
+	 */
+	void restore(Contact contact) {
+		long id = contact.getId();
+		reserveId(id);
+		reserveVersion(contact.getVersion());
+		ReentrantLock lock = lockFor(id);
+		lock.lock();
+		try {
+			put(contact);
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Add many contacts quickly, such as when loading a file.
+	 * Ids and versions are reserved once for the whole batch.
+	 * With a journal, each contact is saved normally so it is journaled,
+	 * and if an id is negative, so that contact is skipped.
+	 * @param batch contacts to add, as in save
+	 * @return number of contacts added
+	 */
+	@Override
+	public int load(List<Contact> batch) {
+		if (journal != null || !idsArePositive(batch)) {
+			// loading may replace contacts, so don't use saveAll
+			int count = 0;
+			for(Contact contact : batch) {
+				if (save(contact)) count++;
+			}
+			return count;
+		}
+		long maxId = 0;
+		int newIds = 0;
+		for(Contact contact : batch) {
+			if (contact.getId() == 0) newIds++;
+			else maxId = Math.max(maxId, contact.getId());
+		}
+		if (maxId > 0) reserveId(maxId);
+		long id = nextId.getAndAdd(newIds);
+		long version = versions.getAndAdd(batch.size());
+		for(Contact contact : batch) {
+			if (contact.getId() == 0) contact.setId(id++);
+			contact.setVersion(++version);
+			ReentrantLock lock = lockFor(contact.getId());
+			lock.lock();
+			try {
+				put(contact);
+			} finally {
+				lock.unlock();
+			}
+		}
+		return batch.size();
+	}
+	
+	/**
+	 * Restore the delete of a contact from a journal.
+	 * The change is not written to the journal.
+	 * @param id of deleted contact
+	 * @param version store version of the delete
+	 */
+	void restoreDelete(long id, long version) {
+		reserveVersion(version);
+		ReentrantLock lock = lockFor(id);
+		lock.lock();
+		try {
+			remove(id);
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Start a change that is journaled, if there is a journal,
+	 * so compaction waits until the change is applied.
+	 * @return the journal, or null if there is none.
+	 */
+	private ContactJournal beginChange() {
+		ContactJournal journal = this.journal;
+		if (journal != null) journal.beginChange();
+		return journal;
+	}
+	
+	private void endChange(ContactJournal journal) {
+		if (journal != null) journal.endChange();
+	}
+	
+	/**
+	 * Write a contact to the journal, if there is one.
+	 * @param journal from beginChange, or null
+	 * @param contact to write
+	 * @return true if written or there is no journal.
+	 */
+	private boolean logSave(ContactJournal journal, Contact contact) {
+		if (journal == null) return true;
+		try {
+			journal.logSave(contact);
+			return true;
+		} catch (IOException ex) {
+			journalFailed(ex);
+			return false;
+		}
+	}
+	
+	private void journalFailed(IOException ex) {
+		Logger.getLogger(this.getClass().getName()).warning("Journal write failed: "+ex.getMessage());
+	}
+	
+	/**
+	 * The store version is the latest contact version, and delete
+	 * also takes a version, so it changes with every write.
+	 * @see contact.service.ContactDao#getStoreVersion()
+	 */
+	@Override
+	public long getStoreVersion() {
+		return versions.get();
+	}
+	
+	/**
+	 * @see contact.service.ContactDao#count()
+	 */
+	@Override
+	public long count() {
+		return contacts.size();
+	}
+	
+	/**
+	 * Get the lock that serializes writes to contacts with this id,
+	 * so the indexes always agree with the saved fields.
+	 * Writes wait for the journal while holding the lock, so it is a
+	 * ReentrantLock rather than a monitor: a virtual thread that blocks
+	 * inside synchronized pins its carrier thread.
+	 * @param id of contact
+	 * @return lock for id
+	 */
+	private ReentrantLock lockFor(long id) {
+		return writeLocks[(int) ((id ^ (id >>> 32)) & (WRITE_LOCKS - 1))];
+	}
+	
+	/**
+	 * Save the contacts one at a time, if none of their ids is taken.
+	 * @see contact.service.ContactDao#saveAll(java.util.List)
+	 */
+	@Override
+	public List<Contact> saveAll(List<Contact> contacts) {
+		if (!idsAreNew(contacts, this)) return new ArrayList<Contact>();
+		List<Contact> saved = new ArrayList<Contact>(contacts.size());
+		for(Contact contact : contacts) {
+			if (save(contact)) saved.add(contact);
+		}
+		return saved;
+	}
+	
+	/**
+	 * Check that a batch can be saved by saveAll: no contact has a negative id, the id
+	 * of a contact in a DAO, or the same id as another contact in the batch.
+	 * Contacts without an id are always new.
+	 * @param contacts batch to check
+	 * @param dao where the contacts will be saved
+	 * @return true if no id is taken
+	 */
+	static boolean idsAreNew(List<Contact> contacts, ContactDao dao) {
+		if (!idsArePositive(contacts)) return false;
+		Set<Long> seen = new HashSet<Long>();
+		for(Contact contact : contacts) {
+			long id = contact.getId();
+			if (id != 0 && (!seen.add(id) || dao.find(id) != null)) return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Check that no contact has a negative id, which save would not save.
+	 * @param contacts to check
+	 * @return true if every id is 0 or positive
+	 */
+	private static boolean idsArePositive(List<Contact> contacts) {
+		for(Contact contact : contacts) {
+			if (contact.getId() < 0) return false;
+		}
 		return true;
 	}
 	
+	@Override
+	public List<Contact> updateAll(List<Contact> updates) {
+		List<Contact> updated = new ArrayList<Contact>(updates.size());
+		for(Contact update : updates) {
+			if (update(update)) updated.add(update);
+		}
+		return updated;
+	}
+	
+	@Override
+	public long[] deleteAll(long[] ids) {
+		return deleteEach(this, ids);
+	}
+	
+	/**
+	 * Delete contacts one at a time.
+	 * @param dao to delete from
+	 * @param ids of contacts to delete
+	 * @return the ids that were deleted, in the order given
+	 */
+	static long[] deleteEach(ContactDao dao, long[] ids) {
+		long[] deleted = new long[ids.length];
+		int count = 0;
+		for(long id : ids) {
+			if (dao.delete(id)) deleted[count++] = id;
+		}
+		return Arrays.copyOf(deleted, count);
+	}
+	
 	/**
 	 * Get a unique contact ID.
+	 * Ids of saved contacts are always below nextId (see reserveId),
+	 * so the next value is unique without searching the contacts.
 	 * @return unique id not in persistent storage
 	 */
-	private synchronized long getUniqueId() {
-		long id = nextId.getAndAdd(1L);
-		while( id < Long.MAX_VALUE ) {	
-			if (find(id) == null) return id;
-			id = nextId.getAndAdd(1L);
+	private long getUniqueId() {
+		return nextId.getAndIncrement();
+	}
+	
+	/**
+	 * Make sure that new versions are greater than a restored version.
+	 * @param version of a restored contact
+	 */
+	private void reserveVersion(long version) {
+		long current = versions.get();
+		while( version > current ) {
+			if (versions.compareAndSet(current, version)) return;
+			current = versions.get();
+		}
+	}
+	
+	/**
+	 * Make sure that getUniqueId never returns an id that is already used.
+	 * @param id of a contact saved with its own id
+	 */
+	private void reserveId(long id) {
+		long next = nextId.get();
+		while( id >= next && id < Long.MAX_VALUE ) {
+			if (nextId.compareAndSet(next, id + 1)) return;
+			next = nextId.get();
 		}
-		return id; // this should never happen
 	}
 
+	/**
+	 * Find contacts whose title contains the string, ignoring case.
+	 * Only contacts listed by the title index are examined.
+	 * @see contact.service.ContactDao#findByTitle(java.lang.String)
+	 */
 	@Override
 	public List<Contact> findByTitle(String prefix) {
+		long[] candidates = titleIndex.candidates(prefix);
+		if (candidates == null) return new ArrayList<Contact>(findAll());
+		List<Contact> found = new ArrayList<Contact>();
+		String query = TitleIndex.fold(prefix);
+		for(long id : candidates) {
+			Contact c = contacts.get(id);
+			if(c != null && TitleIndex.matches(c.getTitle(), query))
+				found.add(c);
+		}
+		return found;
+	}
+
+	/**
+	 * Find contacts by email using the email hash index.
+	 * @see contact.service.ContactDao#findByEmail(java.lang.String)
+	 */
+	@Override
+	public List<Contact> findByEmail(String email) {
+		String query = TitleIndex.fold(email);
+		List<Contact> found = new ArrayList<Contact>();
+		for(long id : emailIndex.get(email)) {
+			Contact c = contacts.get(id);
+			if(c != null && c.getEmail() != null && TitleIndex.fold(c.getEmail()).equals(query))
+				found.add(c);
+		}
+		return found;
+	}
+
+	/**
+	 * Find contacts by name prefix using the sorted name index,
+	 * reading only as many index entries as there are matches.
+	 * A contact renamed during the lookup may be listed under both
+	 * names, so ids already found are skipped.
+	 * @see contact.service.ContactDao#findByNamePrefix(java.lang.String, int)
+	 */
+	@Override
+	public List<Contact> findByNamePrefix(String prefix, int limit) {
+		String query = TitleIndex.fold(prefix);
 		List<Contact> found = new ArrayList<Contact>();
-		Pattern patt = Pattern.compile(".*"+prefix+".*", Pattern.CASE_INSENSITIVE);
-		for(Contact c: contacts) {
-			if(patt.matcher(c.getTitle()).matches())
+		Set<Long> seen = new HashSet<Long>();
+		Iterator<Long> candidates = nameIndex.startingWith(prefix);
+		while( candidates.hasNext() && (limit <= 0 || found.size() < limit) ) {
+			Long id = candidates.next();
+			Contact c = contacts.get(id);
+			if(c != null && c.getName() != null && TitleIndex.fold(c.getName()).startsWith(query) && seen.add(id))
 				found.add(c);
 		}
 		return found;
 	}
+
+	/**
+	 * Scan contacts without copying them to a list.
+	 * Contacts are read in id order from the sorted id set, starting just
+	 * after the <tt>after</tt> id.  A title query reads the sorted ids
+	 * from the title index instead.  Contacts are looked up one at a time
+	 * as the cursor advances.
+	 * @see contact.service.ContactDao#scan(java.lang.String, long, int, java.util.Set)
+	 */
+	@Override
+	public ContactCursor scan(String title, long after, int limit, final Set<String> fields) {
+		final long[] candidates = (title == null) ? null : titleIndex.candidates(title);
+		final String query = (candidates == null) ? null : TitleIndex.fold(title);
+		final Iterator<Long> sorted = (candidates == null) ? ids.tailSet(after, false).iterator() : null;
+		final int max = (limit > 0) ? limit : Integer.MAX_VALUE;
+		int start = 0;
+		if (candidates != null) {
+			start = Arrays.binarySearch(candidates, after);
+			start = (start >= 0) ? start + 1 : -(start + 1);
+		}
+		final int first = start;
+		return new ContactCursor() {
+			private int index = first;
+			private int count = 0;
+			private Contact next;
+			
+			@Override
+			public boolean hasNext() {
+				while( next == null && count < max ) {
+					Contact c;
+					if (sorted != null) {
+						if (!sorted.hasNext()) break;
+						c = contacts.get(sorted.next());
+					} else {
+						if (index >= candidates.length) break;
+						c = contacts.get(candidates[index++]);
+						if (c != null && !TitleIndex.matches(c.getTitle(), query)) c = null;
+					}
+					if (c != null) {
+						next = (fields == null) ? c : c.project(fields);
+						count++;
+					}
+				}
+				return next != null;
+			}
+			
+			@Override
+			public Contact next() {
+				if (!hasNext()) throw new NoSuchElementException();
+				Contact c = next;
+				next = null;
+				return c;
+			}
+		};
+	}
 }
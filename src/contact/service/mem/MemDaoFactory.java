@@ -2,16 +2,23 @@ package contact.service.mem;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FilenameFilter;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
 
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Marshaller;
-import javax.xml.bind.Unmarshaller;
 
 import contact.entity.Contact;
+import contact.entity.ContactBinding;
 import contact.entity.ContactList;
 import contact.service.ContactDao;
 import contact.service.DaoFactory;
@@ -23,11 +30,29 @@ import contact.service.DaoFactory;
  * 
  * in case that you want to save a xml file of contacts,
  * you need to setFilepath before you shutdown the factory.
+ * For crash safety, create the factory with a journal directory instead:
+ * every change is then written to a journal on disk before it is applied.
+ * Set the system property contact.shards to more than 1 to spread contacts
+ * over that many shards (see ShardedContactDao); the journal only works
+ * with one shard.  Set contact.offHeap to true to keep contacts outside
+ * the Java heap instead (see OffHeapContactDao).  A contacts file named
+ * *.store is saved in the layout of those columns, and is mapped at
+ * startup instead of parsed, so startup doesn't depend on its size.
  * @author jim, Atit Leelasuksan 5510546221
  */
 public class MemDaoFactory extends DaoFactory {
+	/** system property with the number of shards of the DAO. */
+	public static final String SHARDS_PROPERTY = "contact.shards";
+	/** system property that selects the OffHeapContactDao when true. */
+	public static final String OFF_HEAP_PROPERTY = "contact.offHeap";
+	/** contacts files with this suffix are store files (see ContactStoreFile). */
+	public static final String STORE_SUFFIX = ".store";
+	/** contacts are written to a file with this suffix, then moved into place. */
+	private static final String TEMP_SUFFIX = ".tmp";
 
-	private ContactDao dao;
+	private Loadable dao;
+	/** journal of changes in durable mode, otherwise null. */
+	private ContactJournal journal;
 	/**
 	 * A path to load and save .xml file of contacts.
 	 */
@@ -35,47 +60,129 @@ public class MemDaoFactory extends DaoFactory {
 	
 	/**
 	 * Default method to initialize dao without input file.
+	 * The kind of dao is taken from the contact.offHeap and
+	 * contact.shards system properties.
 	 */
 	public MemDaoFactory() {
-		dao = new MemContactDao();
+		dao = newDao();
+	}
+	
+	/**
+	 * Initialize dao without input file.
+	 * @param shards number of shards, or 1 for a single MemContactDao
+	 */
+	public MemDaoFactory(int shards) {
+		dao = newDao(shards);
+	}
+	
+	/** create the dao selected by the system properties. */
+	private static Loadable newDao() {
+		if (Boolean.getBoolean(OFF_HEAP_PROPERTY)) return new OffHeapContactDao();
+		return newDao(Integer.getInteger(SHARDS_PROPERTY, 1));
+	}
+	
+	private static Loadable newDao(int shards) {
+		if (shards > 1) return new ShardedContactDao(shards);
+		return new MemContactDao();
 	}
 	
 	/**
 	 * Initialize dao with input file.
-	 * @param filepath of input file
+	 * If the file doesn't exist yet, start with no contacts;
+	 * the file is created at shutdown.
+	 * A file whose name ends with .store is opened as a store file of
+	 * an OffHeapContactDao, which is mapped instead of parsed.
+	 * @param filepath of input file, or of a directory of .xml files
+	 * @throws IllegalStateException if a store file can't be opened
 	 */
 	public MemDaoFactory(String filepath) {
-		this();
 		this.contacts_file = filepath;
-		loadFile(filepath);
+		if (filepath.endsWith(STORE_SUFFIX)) {
+			dao = openStore(new File(filepath));
+			return;
+		}
+		dao = newDao();
+		try {
+			loadFile(filepath);
+		} catch (FileNotFoundException ex) {
+			Logger.getLogger(this.getClass().getName()).info("No contacts file "+filepath+", starting empty");
+		}
 	}
 	
 	/**
-	 * load data from file by unmarshall file locate at filePath
-	 * then add all contact to DAO
-	 * @param filePath path of file to load.
+	 * Open a store file.  Startup fails if the file exists but
+	 * can't be opened, so it is not replaced by an empty store at shutdown.
+	 * @param file store file
+	 * @return dao with the contacts of the file
+	 */
+	private OffHeapContactDao openStore(File file) {
+		Logger logger = Logger.getLogger(this.getClass().getName());
+		if (!file.exists()) {
+			logger.info("No contacts store "+file+", starting empty");
+			return new OffHeapContactDao();
+		}
+		try {
+			long start = System.nanoTime();
+			OffHeapContactDao store = OffHeapContactDao.open(file);
+			logger.info(String.format("Opened %d contacts from %s in %d ms"
+					, store.count(), file, (System.nanoTime()-start)/1000000));
+			return store;
+		} catch (IOException ex) {
+			throw new IllegalStateException("Can't open contacts store "+file, ex);
+		}
+	}
+	
+	/**
+	 * Initialize dao in durable mode, with a journal in the given directory.
+	 * Contacts are restored from the last snapshot and journal in the directory.
+	 * @param journalDir directory of journal and snapshot files
+	 * @throws IOException if journal can't be read or opened
+	 */
+	public MemDaoFactory(File journalDir) throws IOException {
+		MemContactDao mem = new MemContactDao();
+		dao = mem;
+		journal = new ContactJournal(journalDir);
+		long start = System.nanoTime();
+		long records = journal.replay(mem);
+		Logger.getLogger(this.getClass().getName()).info(String.format("Replayed %d journal records in %d ms"
+				, records, (System.nanoTime()-start)/1000000));
+		journal.start(mem);
+		mem.setJournal(journal);
+	}
+	
+	/**
+	 * load data from file by parsing it one contact at a time
+	 * then add all contact to DAO in batches.
+	 * If filePath is a directory, all .xml files in it are loaded in parallel.
+	 * @param filePath path of file or directory to load.
 	 * @throws FileNotFoundException 
 	 */
 	public void loadFile(String filePath) throws FileNotFoundException {
 		File infile = new File(filePath);
-		if(!infile.exists()) throw new FileNotFoundException();
+		if(!infile.exists()) throw new FileNotFoundException(filePath);
 		try {
-			JAXBContext context = JAXBContext.newInstance( ContactList.class );
-			Unmarshaller um = context.createUnmarshaller();
-			ContactList list = (ContactList)um.unmarshal(infile);
-			if(list!=null) {
-				List<Contact> contacts = list.getContactList();
-				if(contacts!=null) {
-					for(Contact c: contacts) {
-						dao.save(c);
-					}
-				}
-			}
-		} catch (JAXBException je) {
-			je.printStackTrace();
+			ContactXmlLoader loader = new ContactXmlLoader(dao);
+			loader.load(infile.isDirectory() ? chunksOf(infile) : Arrays.asList(infile));
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
 		}
 	}
 	
+	/**
+	 * Get the .xml files in a directory.
+	 * @param dir directory of contact files
+	 * @return list of .xml files
+	 */
+	private static List<File> chunksOf(File dir) {
+		File[] files = dir.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File parent, String name) {
+				return name.endsWith(".xml");
+			}
+		});
+		return (files == null) ? new ArrayList<File>() : Arrays.asList(files);
+	}
+	
 	@Override
 	public ContactDao getContactDao() {
 		return dao;
@@ -83,16 +190,46 @@ public class MemDaoFactory extends DaoFactory {
 
 	@Override
 	public void shutdown() {
-		if(contacts_file!=null) {
+		if(journal!=null) {
+			// later writes fail, because the journal is closed
+			journal.close((MemContactDao) dao);
+			journal = null;
+		}
+		if(contacts_file!=null && dao instanceof OffHeapContactDao && contacts_file.endsWith(STORE_SUFFIX)) {
+			try {
+				((OffHeapContactDao) dao).save(new File(contacts_file));
+			} catch (IOException ex) {
+				ex.printStackTrace();
+			}
+		} else if(contacts_file!=null) {
 			try {
-				JAXBContext context = JAXBContext.newInstance(ContactList.class);
-				Marshaller marshaller = context.createMarshaller();
+				Marshaller marshaller = ContactBinding.getMarshaller();
 				marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
 				List<Contact> contacts = dao.findAll();
-				ContactList list = new ContactList(contacts);
-				FileOutputStream output = new FileOutputStream(contacts_file);
-				marshaller.marshal(list, output);
-				output.close();
+				File outfile = new File(contacts_file);
+				if(outfile.isDirectory()) {
+					// save in chunks, so the next start can load them in parallel
+					int chunks = Runtime.getRuntime().availableProcessors();
+					int chunkSize = contacts.size() / chunks + 1;
+					List<File> files = new ArrayList<File>();
+					for(int k=0; k*chunkSize<contacts.size(); k++) files.add(new File(outfile, "contacts-"+k+".xml"));
+					// the old chunks are only replaced once all new chunks are written
+					List<File> temps = new ArrayList<File>();
+					for(int k=0; k<files.size(); k++) {
+						List<Contact> part = contacts.subList(k*chunkSize, Math.min(contacts.size(), (k+1)*chunkSize));
+						temps.add(saveTemp(marshaller, new ContactList(part), files.get(k)));
+					}
+					Set<String> names = new HashSet<String>();
+					for(int k=0; k<files.size(); k++) {
+						replace(temps.get(k), files.get(k));
+						names.add(files.get(k).getName());
+					}
+					for(File chunk : chunksOf(outfile)) {
+						if(!names.contains(chunk.getName())) chunk.delete();
+					}
+				} else {
+					replace(saveTemp(marshaller, new ContactList(contacts), outfile), outfile);
+				}
 			} catch (JAXBException e) {
 				e.printStackTrace();
 			} catch (FileNotFoundException ex ) {
@@ -101,5 +238,30 @@ public class MemDaoFactory extends DaoFactory {
 				iex.printStackTrace();
 			}
 		}
+		if(dao instanceof ShardedContactDao) ((ShardedContactDao) dao).shutdown();
+	}
+	
+	/**
+	 * Write contacts to a temporary file beside a file, and force it to disk.
+	 * The temporary file doesn't end with .xml, so it is never loaded.
+	 * @param marshaller to write the contacts
+	 * @param list contacts to write
+	 * @param file that the temporary file will replace
+	 * @return the temporary file
+	 */
+	private static File saveTemp(Marshaller marshaller, ContactList list, File file) throws JAXBException, IOException {
+		File temp = new File(file.getPath()+TEMP_SUFFIX);
+		FileOutputStream output = new FileOutputStream(temp);
+		try {
+			marshaller.marshal(list, output);
+			output.getFD().sync();
+		} finally {
+			output.close();
+		}
+		return temp;
+	}
+	
+	private static void replace(File temp, File file) throws IOException {
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
 	}
 }
@@ -0,0 +1,644 @@
+package contact.service.mem;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import contact.entity.Contact;
+import contact.service.ContactCursor;
+import contact.service.ContactDao;
+
+/**
+ * Data access object that keeps contacts outside the Java heap, for
+ * stores too large to hold as Contact objects.
+ * <p>
+ * Each contact is a row (slot) in columns of longs: the id, the version
+ * and, for each of title, name, email and photoUrl, the address of the
+ * UTF-8 string in a StringArena.  A row takes 48 bytes plus its strings,
+ * and the garbage collector only sees the column pages.  Contact objects
+ * are made from a row when a contact is returned, and a scan makes them
+ * one at a time as the response is written.  A search reads only the
+ * column it searches.
+ * </p><p>
+ * Rows are appended in order of id, as new ids are handed out, so the id
+ * column itself is the index from id to row: ids are found by binary search.
+ * Rows appended out of order (a contact saved with a smaller id) are
+ * found with a small hash map instead.  Deleted rows are marked with
+ * version 0.  When there are too many deleted rows, rows out of order or
+ * unused strings, all rows are copied to new columns in order of id.
+ * </p><p>
+ * A read-write lock guards the columns: writes are serialized, and
+ * reads share the lock.  A scan takes the lock for each contact, so a
+ * slow client doesn't hold up writes.
+ * </p><p>
+ * The columns can be saved to a ContactStoreFile, and a DAO opened from
+ * the file maps it instead of reading it, so it starts at once however
+ * large the file is.  Pages of the file are read when they are used,
+ * and are copied to memory when they are changed.
+ * </p>
+ * @author Atit Leelasuksan 5510546221
+ */
+public class OffHeapContactDao implements ContactDao, Loadable {
+	/** marks a deleted row in the version column. */
+	private static final long DELETED = 0L;
+	/** string columns in the order of Contact.FIELDS. */
+	private static final int TITLE = 0, NAME = 1, EMAIL = 2, PHOTO_URL = 3;
+	/** don't compact for fewer deleted or unordered rows than this. */
+	private static final int MIN_COMPACT_ROWS = 4096;
+	/** don't compact for less unused string space than this. */
+	private static final long MIN_COMPACT_BYTES = 1L << 24;
+	/** orders contacts by name ignoring case, then id, as findByNamePrefix returns them. */
+	private static final Comparator<Contact> BY_NAME = new Comparator<Contact>() {
+		@Override
+		public int compare(Contact a, Contact b) {
+			int result = TitleIndex.fold(a.getName()).compareTo(TitleIndex.fold(b.getName()));
+			return (result != 0) ? result : Long.compare(a.getId(), b.getId());
+		}
+	};
+
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	private final AtomicLong nextId;
+	/** source of contact versions, as in MemContactDao. */
+	private final AtomicLong versions;
+	private LongColumn idColumn;
+	private LongColumn versionColumn;
+	private LongColumn[] stringColumns;
+	private StringArena strings;
+	/** number of rows, including deleted ones. */
+	private int rows;
+	/** rows before this one are in ascending order of id. */
+	private int sortedRows;
+	/** row of each id that is not in the sorted rows. */
+	private LongIntMap unsorted;
+	/** keys of unsorted in ascending order, or null until a scan needs them. */
+	private volatile long[] unsortedIds;
+	private int deletedRows;
+	private volatile long count;
+	/** changes whenever rows are moved by compact, so a scan knows to find its place again. */
+	private volatile int generation;
+	/** store file that has the same contacts as this DAO, or null. */
+	private volatile File savedFile;
+	/** store version when savedFile was saved or opened. */
+	private volatile long savedVersion;
+
+	/**
+	 * Create an empty DAO.
+	 */
+	public OffHeapContactDao() {
+		nextId = new AtomicLong(1000L);
+		versions = new AtomicLong(System.currentTimeMillis() << 20);
+		idColumn = new LongColumn();
+		versionColumn = new LongColumn();
+		stringColumns = newStringColumns();
+		strings = new StringArena();
+		unsorted = new LongIntMap();
+	}
+
+	/**
+	 * Open a store file written by save.  The file is mapped, not read,
+	 * so this takes about the same time however many contacts there are.
+	 * Changes are kept in memory; the file is only replaced by save.
+	 * @param file store file
+	 * @return DAO with the contacts of the file
+	 * @throws IOException if the file can't be read or is not a store file
+	 */
+	public static OffHeapContactDao open(File file) throws IOException {
+		ContactStoreFile store = ContactStoreFile.open(file);
+		OffHeapContactDao dao = new OffHeapContactDao();
+		dao.idColumn = store.ids;
+		dao.versionColumn = store.versions;
+		dao.stringColumns = store.stringColumns;
+		dao.strings = store.strings;
+		dao.rows = store.rows;
+		dao.sortedRows = store.rows;
+		dao.count = store.rows;
+		dao.nextId.set(Math.max(dao.nextId.get(), store.nextId));
+		dao.versions.set(Math.max(dao.versions.get(), store.version));
+		dao.savedFile = file;
+		dao.savedVersion = dao.versions.get();
+		return dao;
+	}
+
+	/**
+	 * Save the contacts to a store file that open can map.
+	 * The contacts are written in order of id to a new file, which then
+	 * replaces the file, so a DAO that maps the old file is not affected.
+	 * Nothing is written if the file already has the same contacts.
+	 * Writes wait until the file is saved.
+	 * @param file store file to write
+	 * @throws IOException if the file can't be written
+	 */
+	public void save(File file) throws IOException {
+		lock.readLock().lock();
+		try {
+			if (file.equals(savedFile) && versions.get() == savedVersion) return;
+			File temp = new File(file.getPath()+".tmp");
+			RandomAccessFile out = new RandomAccessFile(temp, "rw");
+			try {
+				out.setLength(0);
+				ContactStoreFile.Writer writer = new ContactStoreFile.Writer(out.getChannel(), (int) count);
+				byte[][] values = new byte[stringColumns.length][];
+				RowIterator iterator = new RowIterator(0);
+				for(int row = iterator.next(); row >= 0; row = iterator.next()) {
+					for(int k=0; k<values.length; k++) values[k] = strings.bytes(stringColumns[k].get(row));
+					writer.add(idColumn.get(row), versionColumn.get(row), values);
+				}
+				writer.finish(nextId.get(), versions.get());
+			} finally {
+				out.close();
+			}
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			savedFile = file;
+			savedVersion = versions.get();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private static LongColumn[] newStringColumns() {
+		LongColumn[] columns = new LongColumn[Contact.FIELDS.size()];
+		for(int k=0; k<columns.length; k++) columns[k] = new LongColumn();
+		return columns;
+	}
+
+	@Override
+	public Contact find(long id) {
+		lock.readLock().lock();
+		try {
+			int row = rowOf(id);
+			return (row < 0 || versionColumn.get(row) == DELETED) ? null : read(row, null);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Find the row of an id, including a deleted row.
+	 * Called while holding the lock.
+	 * @param id of contact
+	 * @return row number, or -1 if there is no row with the id.
+	 */
+	private int rowOf(long id) {
+		int row = unsorted.get(id);
+		if (row >= 0) return row;
+		row = firstAfter(id - 1);
+		return (row < sortedRows && idColumn.get(row) == id) ? row : -1;
+	}
+
+	/**
+	 * Binary search the sorted rows.
+	 * @param id to search for
+	 * @return the first sorted row with an id greater than id, or sortedRows if there is none.
+	 */
+	private int firstAfter(long id) {
+		int low = 0;
+		int high = sortedRows;
+		while( low < high ) {
+			int middle = (low + high) >>> 1;
+			if (idColumn.get(middle) <= id) low = middle + 1;
+			else high = middle;
+		}
+		return low;
+	}
+
+	/**
+	 * Make a contact from a row.  Called while holding the lock.
+	 * @param row of contact
+	 * @param fields names of fields to read, or null for all fields.
+	 * @return new contact
+	 */
+	private Contact read(int row, Set<String> fields) {
+		Contact contact = new Contact(idColumn.get(row));
+		contact.setVersion(versionColumn.get(row));
+		if (fields == null || fields.contains("title")) contact.setTitle(text(row, TITLE));
+		if (fields == null || fields.contains("name")) contact.setName(text(row, NAME));
+		if (fields == null || fields.contains("email")) contact.setEmail(text(row, EMAIL));
+		if (fields == null || fields.contains("photoUrl")) contact.setPhotoUrl(text(row, PHOTO_URL));
+		return contact;
+	}
+
+	private String text(int row, int column) {
+		return strings.get(stringColumns[column].get(row));
+	}
+
+	private static String valueOf(Contact contact, int column) {
+		switch(column) {
+		case TITLE: return contact.getTitle();
+		case NAME: return contact.getName();
+		case EMAIL: return contact.getEmail();
+		default: return contact.getPhotoUrl();
+		}
+	}
+
+	/**
+	 * Write the fields and version of a contact to its row.
+	 * Called while holding the write lock.
+	 * @param row of contact
+	 * @param contact with the values to write
+	 */
+	private void write(int row, Contact contact) {
+		for(int k=0; k<stringColumns.length; k++) {
+			strings.free(stringColumns[k].get(row));
+			stringColumns[k].set(row, strings.add(valueOf(contact, k)));
+		}
+		versionColumn.set(row, contact.getVersion());
+	}
+
+	/**
+	 * Add an empty, deleted row for an id.
+	 * Called while holding the write lock.
+	 * @param id of contact
+	 * @return the new row
+	 */
+	private int append(long id) {
+		int row = rows++;
+		idColumn.set(row, id);
+		versionColumn.set(row, DELETED);
+		for(LongColumn column : stringColumns) column.set(row, StringArena.NULL);
+		if (sortedRows == row && (row == 0 || idColumn.get(row - 1) < id)) {
+			sortedRows++;
+		} else {
+			unsorted.put(id, row);
+			unsortedIds = null;
+		}
+		deletedRows++;
+		return row;
+	}
+
+	/**
+	 * Get the ids of the unsorted rows in ascending order.
+	 * Called while holding the lock.
+	 * @return sorted ids, shared so not to be changed.
+	 */
+	private long[] unsortedIds() {
+		long[] ids = unsortedIds;
+		if (ids == null) {
+			ids = unsorted.keys();
+			Arrays.sort(ids);
+			unsortedIds = ids;
+		}
+		return ids;
+	}
+
+	/**
+	 * Iterates over the rows that are not deleted, in order of id,
+	 * by merging the sorted rows with the unsorted ones.
+	 * It must be used while holding the lock, and only until rows are compacted.
+	 */
+	private final class RowIterator {
+		private int sorted;
+		private final long[] others;
+		private int other;
+
+		/**
+		 * Start just after an id.
+		 * @param after only visit rows with an id greater than this
+		 */
+		RowIterator(long after) {
+			sorted = firstAfter(after);
+			others = unsortedIds();
+			int index = Arrays.binarySearch(others, after);
+			other = (index >= 0) ? index + 1 : -(index + 1);
+		}
+
+		/**
+		 * Get the next row.
+		 * @return row number, or -1 if there are no more rows.
+		 */
+		int next() {
+			while( true ) {
+				int row;
+				boolean hasSorted = sorted < sortedRows;
+				if (other < others.length && (!hasSorted || others[other] < idColumn.get(sorted))) row = unsorted.get(others[other++]);
+				else if (hasSorted) row = sorted++;
+				else return -1;
+				if (versionColumn.get(row) != DELETED) return row;
+			}
+		}
+	}
+
+	@Override
+	public List<Contact> findAll() {
+		List<Contact> all = new ArrayList<Contact>((int) count);
+		lock.readLock().lock();
+		try {
+			RowIterator iterator = new RowIterator(0);
+			for(int row = iterator.next(); row >= 0; row = iterator.next()) all.add(read(row, null));
+		} finally {
+			lock.readLock().unlock();
+		}
+		return Collections.unmodifiableList(all);
+	}
+
+	/**
+	 * Find contacts whose title contains the string, ignoring case,
+	 * by reading the title column.
+	 * @see contact.service.ContactDao#findByTitle(java.lang.String)
+	 */
+	@Override
+	public List<Contact> findByTitle(String prefix) {
+		String query = TitleIndex.fold(prefix);
+		List<Contact> found = new ArrayList<Contact>();
+		lock.readLock().lock();
+		try {
+			RowIterator iterator = new RowIterator(0);
+			for(int row = iterator.next(); row >= 0; row = iterator.next()) {
+				if (TitleIndex.matches(text(row, TITLE), query)) found.add(read(row, null));
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		return found;
+	}
+
+	/**
+	 * Find contacts by email by reading the email column.
+	 * @see contact.service.ContactDao#findByEmail(java.lang.String)
+	 */
+	@Override
+	public List<Contact> findByEmail(String email) {
+		String query = TitleIndex.fold(email);
+		List<Contact> found = new ArrayList<Contact>();
+		lock.readLock().lock();
+		try {
+			RowIterator iterator = new RowIterator(0);
+			for(int row = iterator.next(); row >= 0; row = iterator.next()) {
+				String value = text(row, EMAIL);
+				if (value != null && TitleIndex.fold(value).equals(query)) found.add(read(row, null));
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		return found;
+	}
+
+	/**
+	 * Find contacts by name prefix by reading the name column,
+	 * then sort the matches by name.
+	 * @see contact.service.ContactDao#findByNamePrefix(java.lang.String, int)
+	 */
+	@Override
+	public List<Contact> findByNamePrefix(String prefix, int limit) {
+		String query = TitleIndex.fold(prefix);
+		List<Contact> found = new ArrayList<Contact>();
+		lock.readLock().lock();
+		try {
+			RowIterator iterator = new RowIterator(0);
+			for(int row = iterator.next(); row >= 0; row = iterator.next()) {
+				String value = text(row, NAME);
+				if (value != null && TitleIndex.fold(value).startsWith(query)) found.add(read(row, null));
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		Collections.sort(found, BY_NAME);
+		if (limit > 0 && found.size() > limit) found = new ArrayList<Contact>(found.subList(0, limit));
+		return found;
+	}
+
+	/**
+	 * Scan contacts in order of id, making each contact only when the
+	 * cursor reaches it.  The lock is taken for each contact, and if rows
+	 * were compacted in between, the cursor finds its place again by id.
+	 * @see contact.service.ContactDao#scan(java.lang.String, long, int, java.util.Set)
+	 */
+	@Override
+	public ContactCursor scan(String title, final long after, int limit, final Set<String> fields) {
+		final String query = (title == null) ? null : TitleIndex.fold(title);
+		final int max = (limit > 0) ? limit : Integer.MAX_VALUE;
+		return new ContactCursor() {
+			private long last = after;
+			private int count = 0;
+			private RowIterator rows;
+			private int rowsGeneration;
+			private Contact next;
+
+			@Override
+			public boolean hasNext() {
+				if (next != null) return true;
+				if (count >= max) return false;
+				lock.readLock().lock();
+				try {
+					if (rows == null || rowsGeneration != generation) {
+						rowsGeneration = generation;
+						rows = new RowIterator(last);
+					}
+					for(int row = rows.next(); row >= 0; row = rows.next()) {
+						last = idColumn.get(row);
+						if (query == null || TitleIndex.matches(text(row, TITLE), query)) {
+							next = read(row, fields);
+							count++;
+							return true;
+						}
+					}
+					return false;
+				} finally {
+					lock.readLock().unlock();
+				}
+			}
+
+			@Override
+			public Contact next() {
+				if (!hasNext()) throw new NoSuchElementException();
+				Contact c = next;
+				next = null;
+				return c;
+			}
+		};
+	}
+
+	@Override
+	public boolean delete(long id) {
+		lock.writeLock().lock();
+		try {
+			int row = rowOf(id);
+			if (row < 0 || versionColumn.get(row) == DELETED) return false;
+			versions.incrementAndGet();
+			for(LongColumn column : stringColumns) {
+				strings.free(column.get(row));
+				column.set(row, StringArena.NULL);
+			}
+			versionColumn.set(row, DELETED);
+			deletedRows++;
+			count--;
+			compactIfNeeded();
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public boolean save(Contact contact) {
+		lock.writeLock().lock();
+		try {
+			if (contact.getId() == 0) contact.setId(nextId.getAndIncrement());
+			else if (contact.getId() >= nextId.get()) nextId.set(contact.getId() + 1);
+			int row = rowOf(contact.getId());
+			if (row < 0) row = append(contact.getId());
+			if (versionColumn.get(row) == DELETED) {
+				deletedRows--;
+				count++;
+			}
+			contact.setVersion(versions.incrementAndGet());
+			write(row, contact);
+			compactIfNeeded();
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public boolean update(Contact update) {
+		lock.writeLock().lock();
+		try {
+			int row = rowOf(update.getId());
+			if (row < 0 || versionColumn.get(row) == DELETED) return false;
+			Contact contact = read(row, null);
+			contact.applyUpdate(update);
+			contact.setVersion(versions.incrementAndGet());
+			write(row, contact);
+			update.setVersion(contact.getVersion());
+			compactIfNeeded();
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Save all contacts while holding the write lock once,
+	 * so no other write can take one of their ids meanwhile.
+	 * @see contact.service.ContactDao#saveAll(java.util.List)
+	 */
+	@Override
+	public List<Contact> saveAll(List<Contact> contacts) {
+		lock.writeLock().lock();
+		try {
+			if (!MemContactDao.idsAreNew(contacts, this)) return new ArrayList<Contact>();
+			for(Contact contact : contacts) save(contact);
+		} finally {
+			lock.writeLock().unlock();
+		}
+		return contacts;
+	}
+
+	/** save all contacts, replacing any with the same id, while holding the write lock once. */
+	@Override
+	public int load(List<Contact> batch) {
+		lock.writeLock().lock();
+		try {
+			for(Contact contact : batch) save(contact);
+		} finally {
+			lock.writeLock().unlock();
+		}
+		return batch.size();
+	}
+
+	@Override
+	public List<Contact> updateAll(List<Contact> updates) {
+		List<Contact> updated = new ArrayList<Contact>(updates.size());
+		lock.writeLock().lock();
+		try {
+			for(Contact update : updates) {
+				if (update(update)) updated.add(update);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+		return updated;
+	}
+
+	@Override
+	public long[] deleteAll(long[] ids) {
+		lock.writeLock().lock();
+		try {
+			return MemContactDao.deleteEach(this, ids);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Compact the rows if there are many deleted or unsorted rows,
+	 * or much unused string space.  Called while holding the write lock.
+	 */
+	private void compactIfNeeded() {
+		if ((deletedRows > MIN_COMPACT_ROWS && deletedRows * 2 > rows)
+				|| (unsorted.size() > MIN_COMPACT_ROWS && unsorted.size() * 8 > rows)
+				|| (strings.garbage() > MIN_COMPACT_BYTES && strings.garbage() * 2 > strings.size())) {
+			compact();
+		}
+	}
+
+	/**
+	 * Copy the contacts to new columns in order of id, leaving out deleted
+	 * rows and unused strings.  The old columns are freed by the garbage collector.
+	 * Called while holding the write lock.
+	 */
+	private void compact() {
+		LongColumn ids = new LongColumn();
+		LongColumn newVersions = new LongColumn();
+		LongColumn[] columns = newStringColumns();
+		StringArena arena = new StringArena();
+		int row = 0;
+		RowIterator iterator = new RowIterator(0);
+		for(int from = iterator.next(); from >= 0; from = iterator.next()) {
+			ids.set(row, idColumn.get(from));
+			newVersions.set(row, versionColumn.get(from));
+			for(int k=0; k<columns.length; k++) columns[k].set(row, arena.add(text(from, k)));
+			row++;
+		}
+		idColumn = ids;
+		versionColumn = newVersions;
+		stringColumns = columns;
+		strings = arena;
+		rows = row;
+		sortedRows = row;
+		deletedRows = 0;
+		unsorted.clear();
+		unsortedIds = null;
+		generation++;
+	}
+
+	/**
+	 * The store version is the latest version taken by a save, update or delete.
+	 * @see contact.service.ContactDao#getStoreVersion()
+	 */
+	@Override
+	public long getStoreVersion() {
+		return versions.get();
+	}
+
+	@Override
+	public long count() {
+		return count;
+	}
+
+	/**
+	 * Get the memory used outside the heap by columns and strings.
+	 * @return number of bytes allocated
+	 */
+	public long getOffHeapBytes() {
+		lock.readLock().lock();
+		try {
+			long bytes = idColumn.bytes() + versionColumn.bytes() + strings.bytes();
+			for(LongColumn column : stringColumns) bytes += column.bytes();
+			return bytes;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+}
@@ -0,0 +1,409 @@
+package contact.service.mem;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import contact.entity.Contact;
+import contact.service.ContactCursor;
+import contact.service.ContactDao;
+
+/**
+ * A memory DAO that spreads contacts over several MemContactDao shards
+ * by a hash of their id.  Each shard has its own map, indexes and write
+ * locks, so writes to different shards never contend.
+ * <p>
+ * Operations on one id go to its shard.  Queries over all contacts, such as
+ * findAll and findByTitle, run on every shard at once in a ForkJoinPool and
+ * their results are merged in order of id.  A scan merges the cursors of the shards in
+ * order of id, so it still pages the same way as MemContactDao.
+ * Shards share the sources of ids and versions, so ids and versions are
+ * unique over the whole store and the store version changes with every write.
+ * </p>
+ * @author Atit Leelasuksan 5510546221
+ */
+public class ShardedContactDao implements ContactDao, Loadable {
+	/** orders contacts by id. */
+	private static final Comparator<Contact> BY_ID = new Comparator<Contact>() {
+		@Override
+		public int compare(Contact a, Contact b) {
+			return (a.getId() < b.getId()) ? -1 : ((a.getId() == b.getId()) ? 0 : 1);
+		}
+	};
+	/** orders contacts by name ignoring case, then id, as findByNamePrefix returns them. */
+	private static final Comparator<Contact> BY_NAME = new Comparator<Contact>() {
+		@Override
+		public int compare(Contact a, Contact b) {
+			int result = TitleIndex.fold(a.getName()).compareTo(TitleIndex.fold(b.getName()));
+			return (result != 0) ? result : BY_ID.compare(a, b);
+		}
+	};
+
+	private final MemContactDao[] shards;
+	private final AtomicLong nextId;
+	private final AtomicLong versions;
+	/** runs an operation on all shards at once. */
+	private final ForkJoinPool pool;
+
+	/**
+	 * Create a DAO with one shard for each processor.
+	 */
+	public ShardedContactDao() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Create a DAO with a number of shards.
+	 * @param shardCount number of shards, at least 1.
+	 */
+	public ShardedContactDao(int shardCount) {
+		if (shardCount < 1) throw new IllegalArgumentException("Need at least one shard");
+		nextId = new AtomicLong(1000L);
+		versions = new AtomicLong(System.currentTimeMillis() << 20);
+		shards = new MemContactDao[shardCount];
+		for(int k=0; k<shardCount; k++) shards[k] = new MemContactDao(nextId, versions);
+		pool = new ForkJoinPool(Math.min(shardCount, Runtime.getRuntime().availableProcessors()));
+	}
+
+	/**
+	 * Get the number of shards.
+	 * @return number of shards
+	 */
+	public int getShardCount() {
+		return shards.length;
+	}
+
+	/** work done on each shard by fanOut. */
+	private interface ShardOperation<T> {
+		/**
+		 * Do the work on one shard.
+		 * @param shard to use
+		 * @param index of the shard
+		 * @return result of the work
+		 */
+		T run(MemContactDao shard, int index);
+	}
+
+	/** get the index of the shard of an id.  The hash spreads sequential ids over all shards. */
+	private int indexOf(long id) {
+		long h = (id * 0x9E3779B97F4A7C15L) >>> 32;
+		return (int) ((h * shards.length) >>> 32);
+	}
+
+	private MemContactDao shardFor(long id) {
+		return shards[indexOf(id)];
+	}
+
+	/**
+	 * Run an operation on every shard in the pool and wait for all of them.
+	 * @param operation to run
+	 * @return results in order of shard
+	 */
+	private <T> List<T> fanOut(final ShardOperation<T> operation) {
+		if (shards.length == 1) return Collections.singletonList(operation.run(shards[0], 0));
+		List<Callable<T>> calls = new ArrayList<Callable<T>>(shards.length);
+		for(int k=0; k<shards.length; k++) {
+			final int index = k;
+			calls.add(new Callable<T>() {
+				@Override
+				public T call() {
+					return operation.run(shards[index], index);
+				}
+			});
+		}
+		List<T> results = new ArrayList<T>(shards.length);
+		try {
+			for(Future<T> future : pool.invokeAll(calls)) results.add(future.get());
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for shards", ex);
+		} catch (ExecutionException ex) {
+			if (ex.getCause() instanceof RuntimeException) throw (RuntimeException) ex.getCause();
+			if (ex.getCause() instanceof Error) throw (Error) ex.getCause();
+			throw new IllegalStateException(ex.getCause());
+		}
+		return results;
+	}
+
+	/** concatenate lists of contacts from the shards. */
+	private static List<Contact> concat(List<List<Contact>> parts) {
+		int size = 0;
+		for(List<Contact> part : parts) size += part.size();
+		List<Contact> all = new ArrayList<Contact>(size);
+		for(List<Contact> part : parts) all.addAll(part);
+		return all;
+	}
+
+	/**
+	 * Keep the contacts that shards returned from a batch, in the order they were given.
+	 * @param given contacts of the batch
+	 * @param results contacts returned by each shard, which are some of the given ones
+	 * @return the returned contacts in order of the batch
+	 */
+	private static List<Contact> inOrder(List<Contact> given, List<List<Contact>> results) {
+		Map<Contact,Boolean> returned = new IdentityHashMap<Contact,Boolean>();
+		for(List<Contact> result : results) {
+			for(Contact contact : result) returned.put(contact, Boolean.TRUE);
+		}
+		List<Contact> merged = new ArrayList<Contact>(returned.size());
+		for(Contact contact : given) {
+			if (returned.containsKey(contact)) merged.add(contact);
+		}
+		return merged;
+	}
+
+	/** give contacts without an id a new one, so they can be sent to a shard. */
+	private void assignIds(List<Contact> contacts) {
+		int newIds = 0;
+		for(Contact contact : contacts) if (contact.getId() == 0) newIds++;
+		long id = nextId.getAndAdd(newIds);
+		for(Contact contact : contacts) if (contact.getId() == 0) contact.setId(id++);
+	}
+
+	/** split contacts into one list per shard, by id. */
+	private List<List<Contact>> partition(List<Contact> contacts) {
+		List<List<Contact>> parts = new ArrayList<List<Contact>>(shards.length);
+		for(int k=0; k<shards.length; k++) parts.add(new ArrayList<Contact>());
+		for(Contact contact : contacts) parts.get(indexOf(contact.getId())).add(contact);
+		return parts;
+	}
+
+	@Override
+	public Contact find(long id) {
+		return shardFor(id).find(id);
+	}
+
+	/**
+	 * Get the contacts of every shard at once, in order of id.
+	 * @see contact.service.ContactDao#findAll()
+	 */
+	@Override
+	public List<Contact> findAll() {
+		List<Contact> all = concat(fanOut(new ShardOperation<List<Contact>>() {
+			@Override
+			public List<Contact> run(MemContactDao shard, int index) {
+				return shard.findAll();
+			}
+		}));
+		Collections.sort(all, BY_ID);
+		return Collections.unmodifiableList(all);
+	}
+
+	/**
+	 * Search every shard at once, and return matches in order of id.
+	 * @see contact.service.ContactDao#findByTitle(java.lang.String)
+	 */
+	@Override
+	public List<Contact> findByTitle(final String prefix) {
+		List<Contact> found = concat(fanOut(new ShardOperation<List<Contact>>() {
+			@Override
+			public List<Contact> run(MemContactDao shard, int index) {
+				return shard.findByTitle(prefix);
+			}
+		}));
+		Collections.sort(found, BY_ID);
+		return found;
+	}
+
+	@Override
+	public List<Contact> findByEmail(final String email) {
+		List<Contact> found = concat(fanOut(new ShardOperation<List<Contact>>() {
+			@Override
+			public List<Contact> run(MemContactDao shard, int index) {
+				return shard.findByEmail(email);
+			}
+		}));
+		Collections.sort(found, BY_ID);
+		return found;
+	}
+
+	/**
+	 * Take the first matches of every shard and keep the first of all of them.
+	 * @see contact.service.ContactDao#findByNamePrefix(java.lang.String, int)
+	 */
+	@Override
+	public List<Contact> findByNamePrefix(final String prefix, final int limit) {
+		List<Contact> found = concat(fanOut(new ShardOperation<List<Contact>>() {
+			@Override
+			public List<Contact> run(MemContactDao shard, int index) {
+				return shard.findByNamePrefix(prefix, limit);
+			}
+		}));
+		Collections.sort(found, BY_NAME);
+		if (limit > 0 && found.size() > limit) found = new ArrayList<Contact>(found.subList(0, limit));
+		return found;
+	}
+
+	/**
+	 * Open a cursor on every shard at once, then merge them in order of id.
+	 * Each shard cursor is already in order of id, so the merge only
+	 * compares the next contact of each shard.
+	 * @see contact.service.ContactDao#scan(java.lang.String, long, int, java.util.Set)
+	 */
+	@Override
+	public ContactCursor scan(final String title, final long after, final int limit, final Set<String> fields) {
+		final List<ContactCursor> cursors = fanOut(new ShardOperation<ContactCursor>() {
+			@Override
+			public ContactCursor run(MemContactDao shard, int index) {
+				return shard.scan(title, after, limit, fields);
+			}
+		});
+		if (cursors.size() == 1) return cursors.get(0);
+		final PriorityQueue<Head> heads = new PriorityQueue<Head>(cursors.size());
+		for(ContactCursor cursor : cursors) {
+			if (cursor.hasNext()) heads.add(new Head(cursor));
+		}
+		final int max = (limit > 0) ? limit : Integer.MAX_VALUE;
+		return new ContactCursor() {
+			private int count = 0;
+
+			@Override
+			public boolean hasNext() {
+				return count < max && !heads.isEmpty();
+			}
+
+			@Override
+			public Contact next() {
+				if (!hasNext()) throw new NoSuchElementException();
+				Head head = heads.poll();
+				Contact contact = head.contact;
+				if (head.cursor.hasNext()) {
+					head.contact = head.cursor.next();
+					heads.add(head);
+				}
+				count++;
+				return contact;
+			}
+
+			@Override
+			public void close() {
+				for(ContactCursor cursor : cursors) cursor.close();
+			}
+		};
+	}
+
+	/** the next contact of a shard cursor, ordered by id for merging. */
+	private static final class Head implements Comparable<Head> {
+		final ContactCursor cursor;
+		Contact contact;
+
+		Head(ContactCursor cursor) {
+			this.cursor = cursor;
+			this.contact = cursor.next();
+		}
+
+		@Override
+		public int compareTo(Head other) {
+			return BY_ID.compare(contact, other.contact);
+		}
+	}
+
+	@Override
+	public boolean delete(long id) {
+		return shardFor(id).delete(id);
+	}
+
+	@Override
+	public boolean save(Contact contact) {
+		if (contact.getId() == 0) contact.setId(nextId.getAndIncrement());
+		return shardFor(contact.getId()).save(contact);
+	}
+
+	@Override
+	public boolean update(Contact update) {
+		return shardFor(update.getId()).update(update);
+	}
+
+	/**
+	 * Save the contacts of each shard on all shards at once.
+	 * Saved contacts are returned in the order they were given; a contact
+	 * saved concurrently with the same id makes its shard save none.
+	 * @see contact.service.ContactDao#saveAll(java.util.List)
+	 */
+	@Override
+	public List<Contact> saveAll(List<Contact> contacts) {
+		// check all shards first, so one shard doesn't save while another refuses
+		if (!MemContactDao.idsAreNew(contacts, this)) return new ArrayList<Contact>();
+		assignIds(contacts);
+		final List<List<Contact>> parts = partition(contacts);
+		return inOrder(contacts, fanOut(new ShardOperation<List<Contact>>() {
+			@Override
+			public List<Contact> run(MemContactDao shard, int index) {
+				return shard.saveAll(parts.get(index));
+			}
+		}));
+	}
+
+	/**
+	 * Apply the updates of each shard on all shards at once.
+	 * Applied updates are returned in the order they were given.
+	 * @see contact.service.ContactDao#updateAll(java.util.List)
+	 */
+	@Override
+	public List<Contact> updateAll(List<Contact> updates) {
+		final List<List<Contact>> parts = partition(updates);
+		return inOrder(updates, fanOut(new ShardOperation<List<Contact>>() {
+			@Override
+			public List<Contact> run(MemContactDao shard, int index) {
+				return shard.updateAll(parts.get(index));
+			}
+		}));
+	}
+
+	@Override
+	public long[] deleteAll(long[] ids) {
+		return MemContactDao.deleteEach(this, ids);
+	}
+
+	/**
+	 * Load the contacts of each shard on all shards at once.
+	 * @see contact.service.mem.Loadable#load(java.util.List)
+	 */
+	@Override
+	public int load(List<Contact> batch) {
+		assignIds(batch);
+		final List<List<Contact>> parts = partition(batch);
+		int count = 0;
+		for(Integer loaded : fanOut(new ShardOperation<Integer>() {
+			@Override
+			public Integer run(MemContactDao shard, int index) {
+				return shard.load(parts.get(index));
+			}
+		})) count += loaded;
+		return count;
+	}
+
+	/**
+	 * Shards take versions from one counter, so this is the latest version of any shard.
+	 * @see contact.service.ContactDao#getStoreVersion()
+	 */
+	@Override
+	public long getStoreVersion() {
+		return versions.get();
+	}
+
+	@Override
+	public long count() {
+		long count = 0;
+		for(MemContactDao shard : shards) count += shard.count();
+		return count;
+	}
+
+	/**
+	 * Stop the threads that run queries on the shards.
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+}
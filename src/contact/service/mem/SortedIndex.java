@@ -0,0 +1,105 @@
+package contact.service.mem;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * A sorted index of case-folded strings, such as names, for prefix lookups.
+ * Entries of (value, id) are kept in a concurrent skip list in order of
+ * value and then id, so a prefix lookup starts at the first entry not
+ * less than the prefix and stops at the first entry that doesn't start
+ * with it.  The work depends on the number of matches, not of contacts.
+ * Like TitleIndex, a lookup may briefly include a contact whose value
+ * is being changed, so callers must check the value of each contact.
+ * 
+ * @author Atit Leelasuksan 5510546221
+ */
+public class SortedIndex {
+	
+	/** an entry of the index, ordered by key and then id. */
+	private static final class Entry implements Comparable<Entry> {
+		final String key;
+		final long id;
+		
+		Entry(String key, long id) {
+			this.key = key;
+			this.id = id;
+		}
+		
+		@Override
+		public int compareTo(Entry other) {
+			int result = key.compareTo(other.key);
+			if (result != 0) return result;
+			return (id < other.id) ? -1 : ((id == other.id) ? 0 : 1);
+		}
+	}
+	
+	private final ConcurrentSkipListSet<Entry> entries;
+	
+	/**
+	 * Create an empty index.
+	 */
+	public SortedIndex() {
+		entries = new ConcurrentSkipListSet<Entry>();
+	}
+	
+	/**
+	 * Add a value to the index.
+	 * @param id of contact
+	 * @param value of contact, may be null.
+	 */
+	public void add(long id, String value) {
+		if (value == null) return;
+		entries.add(new Entry(TitleIndex.fold(value), id));
+	}
+	
+	/**
+	 * Remove a value from the index.
+	 * @param id of contact
+	 * @param value of contact that was indexed, may be null.
+	 */
+	public void remove(long id, String value) {
+		if (value == null) return;
+		entries.remove(new Entry(TitleIndex.fold(value), id));
+	}
+	
+	/**
+	 * Iterate over ids of contacts whose value starts with a prefix, ignoring case.
+	 * Entries are read as the iterator advances, so stopping early is cheap.
+	 * The iterator is weakly consistent and does not support remove.
+	 * @param prefix to find, must not be null.
+	 * @return ids of candidate contacts in order of value and then id.
+	 */
+	public Iterator<Long> startingWith(String prefix) {
+		final String key = TitleIndex.fold(prefix);
+		final Iterator<Entry> tail = entries.tailSet(new Entry(key, Long.MIN_VALUE)).iterator();
+		return new Iterator<Long>() {
+			private Entry next = advance();
+			
+			private Entry advance() {
+				if (!tail.hasNext()) return null;
+				Entry entry = tail.next();
+				return entry.key.startsWith(key) ? entry : null;
+			}
+			
+			@Override
+			public boolean hasNext() {
+				return next != null;
+			}
+			
+			@Override
+			public Long next() {
+				if (next == null) throw new NoSuchElementException();
+				long id = next.id;
+				next = advance();
+				return id;
+			}
+			
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+}
@@ -0,0 +1,156 @@
+package contact.service.mem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Append-only storage of strings as UTF-8 outside the Java heap.
+ * Each string is written once, as its length followed by its bytes,
+ * to the end of the last chunk (a direct byte buffer), and is known by
+ * its address: the chunk number in the high 32 bits and the offset
+ * in the low 32 bits.  A string that is no longer used is only counted
+ * as garbage; the owner copies the live strings to a new arena when
+ * there is too much of it.  The chunks can also be mapped from a
+ * ContactStoreFile; new strings are then added to a new chunk.
+ * Not thread safe: OffHeapContactDao guards it with a read-write lock.
+ * 
+ * @author Atit Leelasuksan 5510546221
+ */
+public class StringArena {
+	/** address of a null string. */
+	public static final long NULL = -1L;
+	/** size of a chunk, unless a string doesn't fit in one. */
+	static final int CHUNK_SIZE = 1 << 24;
+	/** most bytes of chunks mapped at once, unless one chunk is larger. */
+	private static final long REGION_SIZE = 1L << 30;
+	
+	private ByteBuffer[] chunks;
+	/** last chunk, whose position is where the next string is written. */
+	private ByteBuffer tail;
+	/** bytes of all strings written. */
+	private long size;
+	/** bytes of strings that were freed. */
+	private long garbage;
+	
+	/**
+	 * Create an empty arena.
+	 */
+	public StringArena() {
+		chunks = new ByteBuffer[0];
+	}
+	
+	/**
+	 * Create an arena of the chunks in part of a file.  The file is mapped
+	 * read-only, so strings are paged in by the operating system when they are read.
+	 * @param channel of the file
+	 * @param position of the first chunk in the file
+	 * @param lengths of the chunks, which follow each other in the file
+	 * @throws IOException if the file can't be mapped
+	 */
+	StringArena(FileChannel channel, long position, int[] lengths) throws IOException {
+		chunks = new ByteBuffer[lengths.length];
+		int first = 0;
+		while( first < lengths.length ) {
+			long regionSize = lengths[first];
+			int last = first + 1;
+			while( last < lengths.length && regionSize + lengths[last] <= REGION_SIZE ) regionSize += lengths[last++];
+			ByteBuffer region = channel.map(MapMode.READ_ONLY, position, regionSize);
+			int offset = 0;
+			for(int k=first; k<last; k++) {
+				region.clear();
+				region.position(offset);
+				region.limit(offset + lengths[k]);
+				chunks[k] = region.slice().order(LongColumn.ORDER);
+				offset += lengths[k];
+			}
+			position += regionSize;
+			size += regionSize;
+			first = last;
+		}
+	}
+	
+	/**
+	 * Add a string.
+	 * @param value to add, may be null.
+	 * @return address of the string, or NULL if value is null.
+	 */
+	public long add(String value) {
+		if (value == null) return NULL;
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		int length = 4 + bytes.length;
+		if (tail == null || tail.remaining() < length) {
+			tail = ByteBuffer.allocateDirect(Math.max(CHUNK_SIZE, length)).order(LongColumn.ORDER);
+			chunks = Arrays.copyOf(chunks, chunks.length + 1);
+			chunks[chunks.length - 1] = tail;
+		}
+		long address = ((long) (chunks.length - 1) << 32) | tail.position();
+		tail.putInt(bytes.length);
+		tail.put(bytes);
+		size += length;
+		return address;
+	}
+	
+	/**
+	 * Get a string.
+	 * @param address of the string, from add
+	 * @return the string, or null if address is NULL.
+	 */
+	public String get(long address) {
+		byte[] bytes = bytes(address);
+		return (bytes == null) ? null : new String(bytes, StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Get a string as UTF-8.
+	 * @param address of the string, from add
+	 * @return UTF-8 bytes of the string, or null if address is NULL.
+	 */
+	public byte[] bytes(long address) {
+		if (address == NULL) return null;
+		ByteBuffer chunk = chunks[(int) (address >>> 32)];
+		int offset = (int) address;
+		byte[] bytes = new byte[chunk.getInt(offset)];
+		offset += 4;
+		for(int k=0; k<bytes.length; k++) bytes[k] = chunk.get(offset + k);
+		return bytes;
+	}
+	
+	/**
+	 * Count a string as garbage, because it is no longer used.
+	 * @param address of the string, may be NULL.
+	 */
+	public void free(long address) {
+		if (address == NULL) return;
+		garbage += 4 + chunks[(int) (address >>> 32)].getInt((int) address);
+	}
+	
+	/**
+	 * Get the bytes of all strings added, including garbage.
+	 * @return size in bytes
+	 */
+	public long size() {
+		return size;
+	}
+	
+	/**
+	 * Get the bytes of strings that were freed.
+	 * @return garbage in bytes
+	 */
+	public long garbage() {
+		return garbage;
+	}
+	
+	/**
+	 * Get the memory used by this arena, including mapped chunks.
+	 * @return number of bytes allocated outside the heap
+	 */
+	public long bytes() {
+		long bytes = 0;
+		for(ByteBuffer chunk : chunks) bytes += chunk.capacity();
+		return bytes;
+	}
+}
@@ -0,0 +1,109 @@
+package contact.service.mem;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An n-gram index over contact titles for substring search.
+ * Each title is case-folded and every substring of length 1 to 3
+ * (its unigrams, bigrams and trigrams) maps to the set of contact ids
+ * whose title contains it.  A query only looks at the smallest posting
+ * set among the grams of the query, so the work depends on the number
+ * of candidates instead of the number of contacts.
+ * Candidates may contain false positives, so callers must check
+ * the actual title of each candidate with {@link #matches(String, String)}.
+ * 
+ * @author Atit Leelasuksan 5510546221
+ */
+public class TitleIndex {
+	/** length of the longest gram that is indexed. */
+	private static final int GRAM = 3;
+	
+	private final ConcurrentMap<String,LongSet> postings;
+	
+	/**
+	 * Create an empty index.
+	 */
+	public TitleIndex() {
+		postings = new ConcurrentHashMap<String,LongSet>();
+	}
+	
+	/**
+	 * Add a title to the index.
+	 * @param id of contact
+	 * @param title of contact, may be null.
+	 */
+	public void add(long id, String title) {
+		if (title == null) return;
+		String text = fold(title);
+		for(int n=1; n<=GRAM; n++) {
+			for(int k=0; k+n<=text.length(); k++) {
+				String gram = text.substring(k, k+n);
+				LongSet ids = postings.get(gram);
+				if (ids == null) {
+					LongSet created = new LongSet();
+					ids = postings.putIfAbsent(gram, created);
+					if (ids == null) ids = created;
+				}
+				ids.add(id);
+			}
+		}
+	}
+	
+	/**
+	 * Remove a title from the index.
+	 * Empty posting sets are kept so a concurrent add never
+	 * writes to a set that is no longer in the index.
+	 * @param id of contact
+	 * @param title of contact that was indexed, may be null.
+	 */
+	public void remove(long id, String title) {
+		if (title == null) return;
+		String text = fold(title);
+		for(int n=1; n<=GRAM; n++) {
+			for(int k=0; k+n<=text.length(); k++) {
+				LongSet ids = postings.get(text.substring(k, k+n));
+				if (ids != null) ids.remove(id);
+			}
+		}
+	}
+	
+	/**
+	 * Get ids of contacts whose title may contain the query.
+	 * @param query substring to search for, must not be null.
+	 * @return ids of candidate contacts in ascending order,
+	 * 	or null if every contact is a candidate (the query is empty).
+	 */
+	public long[] candidates(String query) {
+		String text = fold(query);
+		if (text.isEmpty()) return null;
+		int n = Math.min(GRAM, text.length());
+		LongSet smallest = null;
+		for(int k=0; k+n<=text.length(); k++) {
+			LongSet ids = postings.get(text.substring(k, k+n));
+			if (ids == null) return new long[0];
+			if (smallest == null || ids.size() < smallest.size()) smallest = ids;
+		}
+		return smallest.toArray();
+	}
+	
+	/**
+	 * Test if a title contains the query, ignoring case.
+	 * @param title of a contact, may be null.
+	 * @param folded substring to search for, already passed through {@link #fold(String)}.
+	 * @return true if title contains query.
+	 */
+	public static boolean matches(String title, String folded) {
+		return title != null && fold(title).contains(folded);
+	}
+	
+	/**
+	 * Case-fold text the same way the index does.
+	 * @param text to fold
+	 * @return folded text
+	 */
+	public static String fold(String text) {
+		return text.toLowerCase(Locale.ROOT);
+	}
+}
@@ -1,11 +1,19 @@
 package main;
 
 
+import java.io.File;
+import java.lang.reflect.Method;
 import java.net.URI;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
 
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.thread.ExecutorThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
 import org.glassfish.jersey.server.ServerProperties;
 
 import contact.service.DaoFactory;
@@ -56,6 +64,26 @@ import contact.service.mem.MemDaoFactory;
  * may cause a problem if you have another version of the same JARs in
  * your project!  If you do, compare the JARs, or switch to a Maven
  * project so Maven will manage your dependencies. 
+ * </p>
+ * <p>
+ * To run each request on its own virtual thread instead of a bounded pool
+ * of platform threads, start with <tt>--virtual-threads</tt> or set the
+ * system property <tt>contact.virtualThreads=true</tt>.  This needs Java 21
+ * or later; on older Java the default thread pool is used.
+ * </p>
+ * <p>
+ * Contacts are loaded from Contact.xml and saved there when the server stops.
+ * Set the system property <tt>contact.file</tt> to use another file; a file
+ * named <tt>*.store</tt> is mapped instead of parsed, so the server starts
+ * at once however many contacts there are.
+ * </p>
+ * <p>
+ * Set the system property <tt>contact.journal</tt> to a directory to keep
+ * contacts in durable mode instead: every change is written to a journal
+ * in that directory before it is applied, so a crash loses no change that
+ * was acknowledged.  Contacts are restored from the journal at startup,
+ * and <tt>contact.file</tt> is not used.
+ * </p>
  * 
  * @author jim, Atit Leelasuksan 5510546221
  *
@@ -65,19 +93,27 @@ public class JettyMain {
 	 * On Ubuntu or MacOS if you are not root then you must use a port > 1024.
 	 */
 	static final int PORT = 8080;
+	/** system property that enables virtual threads when it is "true". */
+	public static final String VIRTUAL_THREADS_PROPERTY = "contact.virtualThreads";
+	/** system property with the contacts file to load and save, Contact.xml by default. */
+	public static final String CONTACTS_FILE_PROPERTY = "contact.file";
+	/** system property with the journal directory of durable mode, not set by default. */
+	public static final String JOURNAL_PROPERTY = "contact.journal";
 
 	static private Server server;
+	static private boolean virtualThreads = Boolean.getBoolean(VIRTUAL_THREADS_PROPERTY);
 	/**
 	 * Create a Jetty server and a context, add Jetty ServletContainer
 	 * which dispatches requests to JAX-RS resource objects,
 	 * and start the Jetty server.
 	 * 
-	 * @param args not used
+	 * @param args "--virtual-threads" to run requests on virtual threads
 	 * @throws Exception if Jetty server encounters any problem
 	 */
 	public static void main(String[] args) throws Exception {
 		int port = PORT;  // the port the server will listen to for HTTP requests
-		Server server = new Server( port );
+		for(String arg : args) if (arg.equals("--virtual-threads")) setVirtualThreads(true);
+		server = createServer( port );
 		
 		// (1) Use a ServletContextHandler to hold a "context" (our application)
 		// that will be deployed on the server.
@@ -108,12 +144,16 @@ public class JettyMain {
 		// This initialization parameter tells Jersey to auto-configure all resource classes
 		// in the named package(s). 
 		holder.setInitParameter(ServerProperties.PROVIDER_PACKAGES, "contact.resource");
+		// resources suspend requests while the DAO works, which needs async servlets
+		holder.setAsyncSupported(true);
 		context.addServlet( holder, "/*" );
 		// (5) Add the context (our application) to the Jetty server.
 		server.setHandler( context );
 		
-		// NOTE: setFactory to use Memory-based DAO Factory with an input file.
-		DaoFactory.setFactory(new MemDaoFactory("Contact.xml"));
+		// NOTE: setFactory to use Memory-based DAO Factory with a journal or an input file.
+		String journalDir = System.getProperty(JOURNAL_PROPERTY);
+		if (journalDir != null) DaoFactory.setFactory(new MemDaoFactory(new File(journalDir)));
+		else DaoFactory.setFactory(new MemDaoFactory(System.getProperty(CONTACTS_FILE_PROPERTY, "Contact.xml")));
 		
 		System.out.println("Starting Jetty server on port " + port);
 		server.start();
@@ -131,11 +171,12 @@ public class JettyMain {
 	 * @return uri of server
 	 */
 	public static String startServer(int port,String resourcePackage) {
-		server = new Server( port );
+		server = createServer( port );
 		ServletContextHandler context = new ServletContextHandler( ServletContextHandler.SESSIONS );
 		context.setContextPath("/*");
 		ServletHolder holder = new ServletHolder( org.glassfish.jersey.servlet.ServletContainer.class );
 		holder.setInitParameter(ServerProperties.PROVIDER_PACKAGES, resourcePackage);
+		holder.setAsyncSupported(true);
 		context.addServlet( holder, "/*" );
 		server.setHandler( context );
 		System.out.println("Starting Jetty server on port " + port);
@@ -147,6 +188,46 @@ public class JettyMain {
 		return server.getURI()+"contacts";
 	}
 	
+	/**
+	 * Choose whether servers started after this run requests on virtual threads.
+	 * @param enabled true to use virtual threads if the JVM has them.
+	 */
+	public static void setVirtualThreads(boolean enabled) {
+		virtualThreads = enabled;
+	}
+	
+	/**
+	 * Create a server that listens on a port, using virtual threads if enabled.
+	 * @param port to listen on
+	 * @return the server, not started
+	 */
+	private static Server createServer(int port) {
+		ThreadPool pool = virtualThreads ? virtualThreadPool() : null;
+		if (pool == null) return new Server( port );
+		Server server = new Server( pool );
+		ServerConnector connector = new ServerConnector( server );
+		connector.setPort( port );
+		server.addConnector( connector );
+		return server;
+	}
+	
+	/**
+	 * Create a thread pool that starts a new virtual thread for each task.
+	 * The executor is looked up by reflection, so this class still runs on Java 7.
+	 * @return the thread pool, or null if this JVM has no virtual threads.
+	 */
+	private static ThreadPool virtualThreadPool() {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return new ExecutorThreadPool( (ExecutorService) factory.invoke(null) );
+		} catch (NoSuchMethodException e) {
+			Logger.getLogger(JettyMain.class.getName()).warning("Virtual threads need Java 21 or later, using the default thread pool");
+		} catch (ReflectiveOperationException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+	
 	/**
 	 * shutdown server.
 	 * @return true if server stopped.
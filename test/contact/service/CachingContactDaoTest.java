@@ -0,0 +1,200 @@
+package contact.service;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import contact.entity.Contact;
+import contact.service.mem.MemContactDao;
+
+/**
+ * JUnit Test of CachingContactDao in front of a MemContactDao.
+ * Test hits and copies, eviction and admission of the W-TinyLFU policy,
+ * and that a write during a load never leaves an old contact cached.
+ * @author Atit Leelasuksan 5510546221
+ *
+ */
+public class CachingContactDaoTest {
+
+	/** a DAO that counts finds and can run a task in the middle of a find. */
+	private static class CountingDao extends ForwardingContactDao {
+		final AtomicInteger finds = new AtomicInteger();
+		volatile Runnable duringFind;
+
+		CountingDao(ContactDao delegate) {
+			super(delegate);
+		}
+
+		@Override
+		public Contact find(long id) {
+			finds.incrementAndGet();
+			Contact contact = delegate.find(id);
+			// copy, so a write afterwards doesn't change the loaded contact
+			if (contact != null) contact = contact.project(null);
+			Runnable task = duringFind;
+			if (task != null) {
+				duringFind = null;
+				task.run();
+			}
+			return contact;
+		}
+	}
+
+	private MemContactDao store;
+	private CountingDao counting;
+
+	/**
+	 * method that done before test
+	 * use to create a store of contacts 1 to 2000.
+	 */
+	@Before
+	public void initializeStore() {
+		store = new MemContactDao();
+		for(long id=1; id<=2000; id++) {
+			Contact contact = new Contact("title "+id, "name "+id, id+"@testing.com");
+			contact.setId(id);
+			store.save(contact);
+		}
+		counting = new CountingDao(store);
+	}
+
+	/**
+	 * test find twice
+	 * should load the contact once, then answer from the cache with a copy.
+	 */
+	@Test
+	public void testHit() {
+		CachingContactDao cache = new CachingContactDao(counting, 100, 1, TimeUnit.HOURS);
+		Contact first = cache.find(1);
+		first.setName("changed by caller");
+		Contact second = cache.find(1);
+		assertEquals("Load once", 1, counting.finds.get());
+		assertEquals("Count the hit", 1, cache.getHitCount());
+		assertEquals("Callers get their own copy", "name 1", second.getName());
+	}
+
+	/**
+	 * test find after the time to live
+	 * should load the contact again.
+	 */
+	@Test
+	public void testExpire() {
+		CachingContactDao cache = new CachingContactDao(counting, 100, 0, TimeUnit.NANOSECONDS);
+		cache.find(1);
+		cache.find(1);
+		assertEquals("Expired contact is loaded again", 2, counting.finds.get());
+	}
+
+	/**
+	 * test update through the cache
+	 * should remove the cached contact, so the next find sees the update.
+	 */
+	@Test
+	public void testWriteInvalidates() {
+		CachingContactDao cache = new CachingContactDao(counting, 100, 1, TimeUnit.HOURS);
+		cache.find(1);
+		Contact update = new Contact("title 1", "updated", "1@testing.com");
+		update.setId(1);
+		assertTrue(cache.update(update));
+		assertEquals("Find sees the update", "updated", cache.find(1).getName());
+		assertTrue(cache.delete(1));
+		assertNull("Find sees the delete", cache.find(1));
+	}
+
+	/**
+	 * test finding more contacts than the cache holds
+	 * should evict contacts so the cache never grows past its maximum size.
+	 */
+	@Test
+	public void testEviction() {
+		CachingContactDao cache = new CachingContactDao(counting, 100, 1, TimeUnit.HOURS);
+		for(long id=1; id<=1000; id++) {
+			cache.find(id);
+			assertTrue("Cache stays within its size", cache.size() <= 100);
+		}
+		assertEquals("Every contact beyond the size is evicted", 1000 - cache.size(), cache.getEvictionCount());
+	}
+
+	/**
+	 * test a scan of contacts used once after contacts used often
+	 * should not admit the scanned contacts in place of the frequent ones,
+	 * including those on probation because the protected part is full.
+	 */
+	@Test
+	public void testAdmission() {
+		CachingContactDao cache = new CachingContactDao(counting, 100, 1, TimeUnit.HOURS);
+		for(int round=0; round<5; round++) {
+			for(long id=1; id<=99; id++) cache.find(id);
+		}
+		for(long id=1001; id<=1100; id++) cache.find(id);
+		// delete behind the cache, so a miss counts but caches nothing
+		for(long id=1; id<=99; id++) store.delete(id);
+		int loads = counting.finds.get();
+		for(long id=1; id<=99; id++) cache.find(id);
+		int evicted = counting.finds.get() - loads;
+		assertTrue("Frequent contacts stay cached, but "+evicted+" of 99 were evicted", evicted <= 10);
+	}
+
+	/**
+	 * test a write while a contact is being loaded
+	 * should not cache the contact that was loaded before the write.
+	 */
+	@Test
+	public void testWriteDuringLoad() {
+		final CachingContactDao cache = new CachingContactDao(counting, 100, 1, TimeUnit.HOURS);
+		counting.duringFind = new Runnable() {
+			@Override
+			public void run() {
+				Contact update = new Contact("title 1", "written during load", "1@testing.com");
+				update.setId(1);
+				cache.update(update);
+			}
+		};
+		assertEquals("The load returns what it read", "name 1", cache.find(1).getName());
+		assertEquals("The old contact is not cached", "written during load", cache.find(1).getName());
+		assertEquals("Load twice", 2, counting.finds.get());
+	}
+
+	/**
+	 * test finds and updates of the same contacts at the same time
+	 * should leave the cache agreeing with the store when they stop.
+	 * @throws InterruptedException if interrupted
+	 */
+	@Test
+	public void testConcurrentWrites() throws InterruptedException {
+		final CachingContactDao cache = new CachingContactDao(store, 100, 1, TimeUnit.HOURS);
+		final AtomicBoolean stop = new AtomicBoolean();
+		Thread[] threads = new Thread[4];
+		for(int t=0; t<threads.length; t++) {
+			final boolean writer = (t % 2 == 0);
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					int n = 0;
+					while(!stop.get()) {
+						long id = 1 + (n++ % 20);
+						if (writer) {
+							Contact update = new Contact("title", "name "+n, "email");
+							update.setId(id);
+							cache.update(update);
+						} else {
+							cache.find(id);
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+		Thread.sleep(300);
+		stop.set(true);
+		for(Thread thread : threads) thread.join();
+		for(long id=1; id<=20; id++) {
+			assertEquals("Cached contact "+id+" is the stored one", store.find(id).getName(), cache.find(id).getName());
+		}
+	}
+}
@@ -0,0 +1,196 @@
+package contact.service;
+
+import static org.junit.Assert.*;
+
+import main.JettyMain;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.http.HttpHeader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import contact.entity.Contact;
+import contact.service.mem.MemDaoFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.ws.rs.core.Response.Status;
+
+/**
+ * JUnit Test of compressed responses.
+ * Test the choice of content coding from Accept-Encoding, that compressed
+ * entities decompress to the identity entity, and that they have their own ETag.
+ * @author Atit Leelasuksan 5510546221
+ *
+ */
+public class CompressionTest {
+
+	private String url;
+	private HttpClient client;
+
+	/**
+	 * method that done before test
+	 * use to start server and a httpclient that doesn't decode responses,
+	 * and add a contact whose XML is long enough to be compressed.
+	 */
+	@Before
+	public void initializeSystem() {
+		client = new HttpClient();
+		try {
+			client.start();
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		// see the encoded bytes, and send Accept-Encoding only when a test does
+		client.getContentDecoderFactories().clear();
+		DaoFactory.setFactory(new MemDaoFactory("ContactTest.xml"));
+		url = JettyMain.startServer(8080,"contact.resource");
+		StringBuilder name = new StringBuilder();
+		for(int k=0; k<100; k++) name.append("Test Name ");
+		Contact test = new Contact("Test contact", name.toString(), "none@testing.com");
+		test.setId(1);
+		DaoFactory.getInstance().getContactDao().save(test);
+		Contact small = new Contact("Small", "Small Name", "small@testing.com");
+		small.setId(2);
+		DaoFactory.getInstance().getContactDao().save(small);
+	}
+
+	/**
+	 * method that done after test
+	 * use to shutdown server and httpclient that tested.
+	 */
+	@After
+	public void shutdownSystem() {
+		JettyMain.stopServer();
+		try {
+			client.stop();
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * GET a path with an Accept-Encoding header.
+	 * @param path after the contacts url
+	 * @param acceptEncoding value of the header, or null to not send it
+	 * @return the response
+	 */
+	private ContentResponse get(String path, String acceptEncoding) throws InterruptedException, TimeoutException, ExecutionException {
+		return client.newRequest(url+path)
+				.header(HttpHeader.ACCEPT, "application/xml")
+				.header(HttpHeader.ACCEPT_ENCODING, acceptEncoding)
+				.send();
+	}
+
+	private static String decode(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1024];
+		int n;
+		while((n = in.read(buffer)) > 0) out.write(buffer, 0, n);
+		in.close();
+		return out.toString("UTF-8");
+	}
+
+	/**
+	 * test GET with gzip accepted, of a contact and of the list
+	 * should response gzip that decompresses to the identity entity, with its own ETag.
+	 */
+	@Test
+	public void testGzip() {
+		try {
+			for(String path : new String[] { "/1", "" }) {
+				ContentResponse identity = get(path, null);
+				ContentResponse res = get(path, "gzip");
+				assertEquals("Response should be 200 OK", Status.OK.getStatusCode(), res.getStatus());
+				assertEquals("Compressed with gzip", "gzip", res.getHeaders().get(HttpHeader.CONTENT_ENCODING));
+				assertEquals("Same entity", identity.getContentAsString()
+						, decode(new GZIPInputStream(new ByteArrayInputStream(res.getContent()))));
+				String tag = identity.getHeaders().get(HttpHeader.ETAG);
+				assertEquals("ETag of the gzip entity", tag.replaceFirst("\"$", "-gzip\""), res.getHeaders().get(HttpHeader.ETAG));
+				assertTrue("Vary on Accept-Encoding", res.getHeaders().getValuesList(HttpHeader.VARY.asString()).contains("Accept-Encoding"));
+			}
+		} catch (InterruptedException | ExecutionException | TimeoutException | IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * test GET preferring deflate
+	 * should response deflate that decompresses to the identity entity.
+	 */
+	@Test
+	public void testDeflate() {
+		try {
+			ContentResponse identity = get("/1", null);
+			ContentResponse res = get("/1", "gzip;q=0.5, deflate");
+			assertEquals("Compressed with deflate", "deflate", res.getHeaders().get(HttpHeader.CONTENT_ENCODING));
+			assertEquals("Same entity", identity.getContentAsString()
+					, decode(new InflaterInputStream(new ByteArrayInputStream(res.getContent()))));
+			res = get("/1", "*, gzip;q=0");
+			assertEquals("Wildcard is any coding but gzip", "deflate", res.getHeaders().get(HttpHeader.CONTENT_ENCODING));
+		} catch (InterruptedException | ExecutionException | TimeoutException | IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * test GET without compression accepted
+	 * should response the entity as it is, with the ETag of the contact.
+	 */
+	@Test
+	public void testIdentity() {
+		try {
+			for(String acceptEncoding : new String[] { null, "identity", "gzip;q=0, deflate;q=0", "*;q=0", "br" }) {
+				ContentResponse res = get("/1", acceptEncoding);
+				assertEquals("Response should be 200 OK", Status.OK.getStatusCode(), res.getStatus());
+				assertNull("Not compressed for "+acceptEncoding, res.getHeaders().get(HttpHeader.CONTENT_ENCODING));
+				assertTrue("Entity as it is", res.getContentAsString().contains("Test Name"));
+				assertFalse("ETag of the contact", res.getHeaders().get(HttpHeader.ETAG).contains("gzip"));
+			}
+		} catch (InterruptedException | ExecutionException | TimeoutException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * test GET of a contact smaller than the minimum size with gzip accepted
+	 * should response the entity as it is.
+	 */
+	@Test
+	public void testSmallEntity() {
+		try {
+			ContentResponse res = get("/2", "gzip");
+			assertNull("Not compressed", res.getHeaders().get(HttpHeader.CONTENT_ENCODING));
+			assertTrue("Entity as it is", res.getContentAsString().contains("Small Name"));
+		} catch (InterruptedException | ExecutionException | TimeoutException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * test conditional GET with the ETag of a gzip response
+	 * should response 304 Not Modified, since the contact didn't change.
+	 */
+	@Test
+	public void testIfNoneMatchGzipTag() {
+		try {
+			String tag = get("/1", "gzip").getHeaders().get(HttpHeader.ETAG);
+			ContentResponse res = client.newRequest(url+"/1")
+					.header(HttpHeader.ACCEPT_ENCODING, "gzip")
+					.header(HttpHeader.IF_NONE_MATCH, tag)
+					.send();
+			assertEquals("Response should be 304 Not Modified", Status.NOT_MODIFIED.getStatusCode(), res.getStatus());
+		} catch (InterruptedException | ExecutionException | TimeoutException e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,123 @@
+package contact.service;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import contact.entity.Contact;
+import contact.entity.ContactCodec;
+
+/**
+ * JUnit Test of ContactCodec.
+ * Test that contacts and lists read back the same as they were written,
+ * that the bytes are the protobuf wire format, and that bad input is an IOException.
+ * @author Atit Leelasuksan 5510546221
+ *
+ */
+public class ContactCodecTest {
+
+	private static Contact contact(long id, String title, String name, String email, String photoUrl) {
+		Contact contact = new Contact(title, name, email);
+		contact.setId(id);
+		contact.setPhotoUrl(photoUrl);
+		return contact;
+	}
+
+	private static byte[] write(Contact contact) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ContactCodec.write(contact, out);
+		return out.toByteArray();
+	}
+
+	private static void assertSameFields(Contact expected, Contact actual) {
+		assertEquals("id", expected.getId(), actual.getId());
+		assertEquals("title", expected.getTitle(), actual.getTitle());
+		assertEquals("name", expected.getName(), actual.getName());
+		assertEquals("email", expected.getEmail(), actual.getEmail());
+		assertEquals("photoUrl", expected.getPhotoUrl(), actual.getPhotoUrl());
+	}
+
+	/**
+	 * test write then read a contact
+	 * should give back every field, including text that isn't ASCII and a large id.
+	 * @throws IOException if the codec fails
+	 */
+	@Test
+	public void testRoundTrip() throws IOException {
+		Contact contact = contact(Long.MAX_VALUE, "\u0e04\u0e38\u0e13", "Test Name", "none@testing.com", "http://testing.com/photo.jpg");
+		assertSameFields(contact, ContactCodec.read(new ByteArrayInputStream(write(contact))));
+	}
+
+	/**
+	 * test write then read a contact without id and with null fields
+	 * should leave them out, and read them back as 0 and null.
+	 * @throws IOException if the codec fails
+	 */
+	@Test
+	public void testRoundTripNulls() throws IOException {
+		Contact contact = contact(0, null, "only name", null, null);
+		assertSameFields(contact, ContactCodec.read(new ByteArrayInputStream(write(contact))));
+	}
+
+	/**
+	 * test write then read a list of contacts
+	 * should give back the contacts in order, and an empty list for no bytes.
+	 * @throws IOException if the codec fails
+	 */
+	@Test
+	public void testListRoundTrip() throws IOException {
+		List<Contact> contacts = Arrays.asList(contact(1, "first", "one", "1@testing.com", null)
+				, contact(2, null, "two", null, null), contact(3, "", "", "", ""));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ContactCodec.writeList(contacts, out);
+		List<Contact> read = ContactCodec.readList(new ByteArrayInputStream(out.toByteArray()));
+		assertEquals("Same number of contacts", contacts.size(), read.size());
+		for(int k=0; k<contacts.size(); k++) assertSameFields(contacts.get(k), read.get(k));
+		assertTrue("No bytes is an empty list", ContactCodec.readList(new ByteArrayInputStream(new byte[0])).isEmpty());
+	}
+
+	/**
+	 * test the encoded bytes
+	 * should be the protobuf encoding, so generated protobuf classes can read them.
+	 * @throws IOException if the codec fails
+	 */
+	@Test
+	public void testWireFormat() throws IOException {
+		byte[] expected = { 0x08, (byte) 0x96, 0x01, 0x1a, 0x02, 'h', 'i' };
+		assertArrayEquals("id 150 and name hi", expected, write(contact(150, null, "hi", null, null)));
+	}
+
+	/**
+	 * test read a contact with fields this version doesn't know
+	 * should skip them and read the known fields.
+	 * @throws IOException if the codec fails
+	 */
+	@Test
+	public void testSkipUnknownFields() throws IOException {
+		byte[] bytes = { 0x30, 0x05, 0x1a, 0x02, 'h', 'i', 0x3a, 0x01, 'x', 0x41, 1, 2, 3, 4, 5, 6, 7, 8 };
+		Contact read = ContactCodec.read(new ByteArrayInputStream(bytes));
+		assertEquals("Known field is read", "hi", read.getName());
+	}
+
+	/**
+	 * test read a message cut off in the middle of a field
+	 * should throw IOException.
+	 * @throws IOException if the codec fails to write
+	 */
+	@Test
+	public void testTruncated() throws IOException {
+		byte[] bytes = write(contact(150, "title", "name", null, null));
+		try {
+			ContactCodec.read(new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length - 2)));
+			fail("Truncated message should not be read");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,182 @@
+package contact.service;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import contact.entity.Contact;
+import contact.service.mem.MemDaoFactory;
+
+/**
+ * JUnit Test of the journal of MemDaoFactory in durable mode.
+ * Test that contacts are restored from the journal after a crash, that a
+ * record torn by the crash is dropped, and that snapshots replace the log.
+ * A crash is a factory that is not shut down, so its journal is never closed.
+ * @author Atit Leelasuksan 5510546221
+ *
+ */
+public class ContactJournalTest {
+
+	private File dir;
+
+	/**
+	 * method that done before test
+	 * use to create an empty journal directory.
+	 * @throws IOException if the directory can't be created
+	 */
+	@Before
+	public void createDir() throws IOException {
+		dir = Files.createTempDirectory("journal").toFile();
+	}
+
+	/**
+	 * method that done after test
+	 * use to delete the journal directory.
+	 */
+	@After
+	public void deleteDir() {
+		File[] files = dir.listFiles();
+		if (files != null) for(File file : files) file.delete();
+		dir.delete();
+	}
+
+	private static Contact contact(long id, String name) {
+		Contact contact = new Contact("title", name, name+"@testing.com");
+		contact.setId(id);
+		return contact;
+	}
+
+	private File file(String name) {
+		return new File(dir, name);
+	}
+
+	/**
+	 * test saves, updates and deletes, then a crash
+	 * should restore the contacts as they were, and not give out their ids again.
+	 * @throws IOException if the journal fails
+	 */
+	@Test
+	public void testReplayAfterCrash() throws IOException {
+		ContactDao dao = new MemDaoFactory(dir).getContactDao();
+		for(long id=1; id<=50; id++) assertTrue(dao.save(contact(id, "name "+id)));
+		assertTrue(dao.update(contact(7, "updated")));
+		assertTrue(dao.delete(9));
+		Contact added = new Contact("new", "new", "new@testing.com");
+		assertTrue(dao.save(added));
+
+		ContactDao restored = new MemDaoFactory(dir).getContactDao();
+		assertEquals("Count after replay", 50, restored.count());
+		assertEquals("Update is replayed", "updated", restored.find(7).getName());
+		assertEquals("Version is replayed", dao.find(7).getVersion(), restored.find(7).getVersion());
+		assertNull("Delete is replayed", restored.find(9));
+		assertEquals("Contact given an id is replayed", "new", restored.find(added.getId()).getName());
+		Contact next = new Contact("next", "next", "next@testing.com");
+		assertTrue(restored.save(next));
+		assertTrue("New ids are after replayed ids", next.getId() > added.getId());
+	}
+
+	/**
+	 * test a crash in the middle of writing a record
+	 * should drop the torn record, keep the records before it,
+	 * and keep records written after restarting.
+	 * @throws IOException if the journal fails
+	 */
+	@Test
+	public void testTornRecord() throws IOException {
+		ContactDao dao = new MemDaoFactory(dir).getContactDao();
+		for(long id=1; id<=10; id++) assertTrue(dao.save(contact(id, "name "+id)));
+		// cut the last record in half
+		RandomAccessFile log = new RandomAccessFile(file("contacts.log"), "rw");
+		try {
+			log.setLength(log.length() - 10);
+		} finally {
+			log.close();
+		}
+
+		dao = new MemDaoFactory(dir).getContactDao();
+		assertEquals("Records before the torn one are replayed", 9, dao.count());
+		assertNull("Torn record is dropped", dao.find(10));
+		assertTrue(dao.save(contact(11, "after restart")));
+
+		dao = new MemDaoFactory(dir).getContactDao();
+		assertEquals("Record written after the torn one is replayed", "after restart", dao.find(11).getName());
+		assertEquals("Count after second replay", 10, dao.count());
+	}
+
+	/**
+	 * test a crash after garbage was written at the end of the log
+	 * should drop the record with a bad checksum and the rest of the log.
+	 * @throws IOException if the journal fails
+	 */
+	@Test
+	public void testBadChecksum() throws IOException {
+		ContactDao dao = new MemDaoFactory(dir).getContactDao();
+		for(long id=1; id<=10; id++) assertTrue(dao.save(contact(id, "name "+id)));
+		FileOutputStream out = new FileOutputStream(file("contacts.log"), true);
+		try {
+			// length 16, a wrong checksum and 16 bytes
+			out.write(new byte[] { 0, 0, 0, 16, 1, 2, 3, 4 });
+			out.write(new byte[16]);
+		} finally {
+			out.close();
+		}
+		dao = new MemDaoFactory(dir).getContactDao();
+		assertEquals("Records before the bad one are replayed", 10, dao.count());
+	}
+
+	/**
+	 * test shut down, then more changes and a crash
+	 * should write a snapshot and start an empty log at shut down,
+	 * and restore the snapshot with the log after it.
+	 * @throws IOException if the journal fails
+	 */
+	@Test
+	public void testSnapshotAndLog() throws IOException {
+		MemDaoFactory factory = new MemDaoFactory(dir);
+		ContactDao dao = factory.getContactDao();
+		for(long id=1; id<=100; id++) assertTrue(dao.save(contact(id, "name "+id)));
+		long logged = file("contacts.log").length();
+		factory.shutdown();
+		assertFalse("Writes fail after shut down", dao.save(contact(101, "too late")));
+		assertTrue("Snapshot is written", file("contacts.snapshot").length() > 0);
+		assertEquals("Log is emptied", 0, file("contacts.log").length());
+		assertTrue("Log was written before", logged > 0);
+
+		dao = new MemDaoFactory(dir).getContactDao();
+		assertEquals("Count from the snapshot", 100, dao.count());
+		assertTrue(dao.delete(1));
+		assertTrue(dao.update(contact(2, "updated")));
+
+		dao = new MemDaoFactory(dir).getContactDao();
+		assertEquals("Count from snapshot and log", 99, dao.count());
+		assertNull("Delete in the log is replayed over the snapshot", dao.find(1));
+		assertEquals("Update in the log is replayed over the snapshot", "updated", dao.find(2).getName());
+	}
+
+	/**
+	 * test a crash while compacting, after the log was moved aside
+	 * should restore the contacts of the old log, and merge it into a new snapshot.
+	 * @throws IOException if the journal fails
+	 */
+	@Test
+	public void testInterruptedCompaction() throws IOException {
+		ContactDao dao = new MemDaoFactory(dir).getContactDao();
+		for(long id=1; id<=20; id++) assertTrue(dao.save(contact(id, "name "+id)));
+		Files.move(file("contacts.log").toPath(), file("contacts.log.old").toPath());
+
+		dao = new MemDaoFactory(dir).getContactDao();
+		assertEquals("Count from the old log", 20, dao.count());
+		assertFalse("Old log is merged into the snapshot", file("contacts.log.old").exists());
+		assertTrue("Snapshot is written", file("contacts.snapshot").exists());
+		dao = new MemDaoFactory(dir).getContactDao();
+		assertEquals("Count from the snapshot", 20, dao.count());
+	}
+}
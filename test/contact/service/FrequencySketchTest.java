@@ -0,0 +1,53 @@
+package contact.service;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * JUnit Test of FrequencySketch.
+ * Test counting, the 4 bit limit and halving of old counts.
+ * @author Atit Leelasuksan 5510546221
+ *
+ */
+public class FrequencySketchTest {
+
+	/**
+	 * test increment
+	 * should count each use of an id, and nothing for other ids.
+	 */
+	@Test
+	public void testCount() {
+		FrequencySketch sketch = new FrequencySketch(1000);
+		assertEquals("Unused id", 0, sketch.frequency(42));
+		for(int k=0; k<5; k++) sketch.increment(42);
+		assertEquals("Five uses", 5, sketch.frequency(42));
+		assertEquals("Other id", 0, sketch.frequency(43));
+	}
+
+	/**
+	 * test many increments of one id
+	 * should stop counting at 15.
+	 */
+	@Test
+	public void testMaximum() {
+		FrequencySketch sketch = new FrequencySketch(1000);
+		for(int k=0; k<100; k++) sketch.increment(7);
+		assertEquals("Counts stop at 15", 15, sketch.frequency(7));
+	}
+
+	/**
+	 * test more increments than the sample size
+	 * should halve old counts, so popularity fades.
+	 */
+	@Test
+	public void testReset() {
+		FrequencySketch sketch = new FrequencySketch(10);
+		for(int k=0; k<10; k++) sketch.increment(1);
+		assertEquals("Ten uses", 10, sketch.frequency(1));
+		// the sample size of a sketch for 10 entries is 100 increments
+		for(long id=1000; id<1100; id++) sketch.increment(id);
+		int halved = sketch.frequency(1);
+		assertTrue("Old count is halved, but is "+halved, halved >= 5 && halved < 10);
+	}
+}
@@ -0,0 +1,287 @@
+package contact.service;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import contact.entity.Contact;
+import contact.service.mem.LongColumn;
+import contact.service.mem.OffHeapContactDao;
+import contact.service.mem.StringArena;
+
+/**
+ * JUnit Test of OffHeapContactDao and the StringArena and LongColumn it keeps contacts in.
+ * Test save, update, delete and find, rows saved out of order of id,
+ * compaction of deleted rows, also while a scan is open, and store files.
+ * @author Atit Leelasuksan 5510546221
+ *
+ */
+public class OffHeapContactDaoTest {
+
+	private OffHeapContactDao dao;
+
+	/**
+	 * method that done before test
+	 * use to create an empty DAO.
+	 */
+	@Before
+	public void initializeDao() {
+		dao = new OffHeapContactDao();
+	}
+
+	private static Contact contact(String title, String name, String email) {
+		return new Contact(title, name, email);
+	}
+
+	/**
+	 * test save, update and delete of one contact
+	 * should find the contact as saved, then as updated, then not at all.
+	 */
+	@Test
+	public void testSaveUpdateDelete() {
+		Contact saved = contact("friend", "Test Name", "none@testing.com");
+		saved.setPhotoUrl("http://testing.com/photo.jpg");
+		assertTrue(dao.save(saved));
+		assertTrue("Id is given", saved.getId() != 0);
+		Contact found = dao.find(saved.getId());
+		assertEquals("Same name", "Test Name", found.getName());
+		assertEquals("Same photo", "http://testing.com/photo.jpg", found.getPhotoUrl());
+		assertEquals("Same version", saved.getVersion(), found.getVersion());
+		assertEquals("Counted", 1, dao.count());
+
+		Contact update = contact("friend", "\u0e04\u0e38\u0e13 Updated", "updated@testing.com");
+		update.setId(saved.getId());
+		assertTrue(dao.update(update));
+		found = dao.find(saved.getId());
+		assertEquals("Updated name", "\u0e04\u0e38\u0e13 Updated", found.getName());
+		assertEquals("Updated email", "updated@testing.com", found.getEmail());
+		assertTrue("New version", found.getVersion() > saved.getVersion());
+		assertEquals("Version is set on the update", found.getVersion(), update.getVersion());
+
+		assertTrue(dao.delete(saved.getId()));
+		assertNull("Deleted", dao.find(saved.getId()));
+		assertFalse("Delete twice", dao.delete(saved.getId()));
+		Contact missing = contact("none", "none", "none");
+		missing.setId(saved.getId());
+		assertFalse("Update deleted contact", dao.update(missing));
+		assertEquals("Not counted", 0, dao.count());
+	}
+
+	/**
+	 * test save of a deleted id and of ids smaller than saved ones
+	 * should find them, and return all contacts in order of id.
+	 */
+	@Test
+	public void testOutOfOrder() {
+		for(int k=0; k<10; k++) dao.save(contact("new", "New "+k, "new@testing.com"));
+		long first = dao.findAll().get(0).getId();
+		for(long id=9; id>=1; id-=2) {
+			Contact contact = contact("old", "Old "+id, "old@testing.com");
+			contact.setId(id);
+			dao.save(contact);
+		}
+		dao.delete(first);
+		Contact again = contact("again", "Again", "again@testing.com");
+		again.setId(first);
+		dao.save(again);
+		assertEquals("Find an id saved out of order", "Old 3", dao.find(3).getName());
+		assertEquals("Find a deleted id saved again", "Again", dao.find(first).getName());
+		assertNull("Id that was never saved", dao.find(4));
+		List<Contact> all = dao.findAll();
+		assertEquals("Count all", 15, all.size());
+		for(int k=1; k<all.size(); k++) assertTrue("In order of id", all.get(k - 1).getId() < all.get(k).getId());
+		assertEquals("Search title", 5, dao.findByTitle("ol").size());
+		assertEquals("Search email", 9, dao.findByEmail("NEW@testing.com").size());
+		assertEquals("Search name in order", "New 2", dao.findByNamePrefix("new", 2).get(1).getName());
+	}
+
+	/**
+	 * test deleting most of many contacts
+	 * should compact the rows to free pages, and keep the contacts that are left.
+	 */
+	@Test
+	public void testCompact() {
+		int total = LongColumn.PAGE_SIZE + 5000;
+		for(int k=0; k<total; k++) dao.save(contact("title", "Name "+k, k+"@testing.com"));
+		List<Contact> all = dao.findAll();
+		long before = dao.getOffHeapBytes();
+		for(int k=total/3; k<total; k++) assertTrue(dao.delete(all.get(k).getId()));
+		assertTrue("Columns of fewer rows use fewer pages", dao.getOffHeapBytes() < before);
+		assertEquals("Count what is left", total/3, dao.count());
+		for(int k=0; k<total/3; k++) {
+			assertEquals("Contact is kept", "Name "+k, dao.find(all.get(k).getId()).getName());
+		}
+		assertNull("Deleted contact", dao.find(all.get(total - 1).getId()));
+		dao.save(contact("after", "After compact", "after@testing.com"));
+		assertEquals("Save after compact", total/3 + 1, dao.count());
+	}
+
+	/**
+	 * test deleting contacts while a scan is open, so rows are compacted under it
+	 * should continue the scan in order of id, without the deleted contacts.
+	 */
+	@Test
+	public void testScanDuringCompact() {
+		int total = 10000;
+		for(int k=0; k<total; k++) dao.save(contact("title", "Name "+k, k+"@testing.com"));
+		List<Contact> all = dao.findAll();
+		ContactCursor cursor = dao.scan(null, 0, 0, null);
+		for(int k=0; k<100; k++) assertEquals("Scan in order", all.get(k).getId(), cursor.next().getId());
+		// delete 3 of every 4 contacts, also before the cursor, so the rows that are left move
+		int left = 0;
+		for(int k=0; k<total; k++) {
+			if (k % 4 != 0) dao.delete(all.get(k).getId());
+			else if (k >= 100) left++;
+		}
+		long last = all.get(99).getId();
+		int count = 0;
+		while(cursor.hasNext()) {
+			Contact contact = cursor.next();
+			assertTrue("Scan in order of id", contact.getId() > last);
+			assertNotNull("Only contacts that are left", dao.find(contact.getId()));
+			last = contact.getId();
+			count++;
+		}
+		cursor.close();
+		assertEquals("Every contact that is left after the cursor", left, count);
+	}
+
+	/**
+	 * test save to a store file and open it again
+	 * should have the same contacts, keep handing out new ids,
+	 * and not change the file until it is saved again.
+	 * @throws IOException if the file can't be written or read
+	 */
+	@Test
+	public void testSaveAndOpen() throws IOException {
+		File file = File.createTempFile("contacts", ".store");
+		file.deleteOnExit();
+		for(int k=0; k<1000; k++) dao.save(contact("title "+k, "Name "+k, k+"@testing.com"));
+		Contact nulls = new Contact(5);
+		nulls.setName("\u0e04\u0e38\u0e13");
+		dao.save(nulls);
+		dao.delete(dao.findAll().get(500).getId());
+		dao.save(file);
+
+		OffHeapContactDao opened = OffHeapContactDao.open(file);
+		assertEquals("Same count", dao.count(), opened.count());
+		assertTrue("Store version doesn't go back", opened.getStoreVersion() >= dao.getStoreVersion());
+		List<Contact> expected = dao.findAll();
+		List<Contact> actual = opened.findAll();
+		for(int k=0; k<expected.size(); k++) {
+			assertEquals("Same id", expected.get(k).getId(), actual.get(k).getId());
+			assertEquals("Same version", expected.get(k).getVersion(), actual.get(k).getVersion());
+			assertEquals("Same title", expected.get(k).getTitle(), actual.get(k).getTitle());
+			assertEquals("Same name", expected.get(k).getName(), actual.get(k).getName());
+			assertEquals("Same email", expected.get(k).getEmail(), actual.get(k).getEmail());
+		}
+		assertNull("Null field is kept", opened.find(5).getEmail());
+
+		Contact created = contact("new", "New Name", "new@testing.com");
+		opened.save(created);
+		assertTrue("New id after the saved ones", created.getId() > expected.get(expected.size() - 1).getId());
+		Contact update = contact("changed", "Changed", "changed@testing.com");
+		update.setId(expected.get(0).getId());
+		assertTrue(opened.update(update));
+		assertEquals("Reopened file is not changed", expected.get(0).getName(), OffHeapContactDao.open(file).find(update.getId()).getName());
+
+		opened.save(file);
+		OffHeapContactDao reopened = OffHeapContactDao.open(file);
+		assertEquals("Saved again", "Changed", reopened.find(update.getId()).getName());
+		assertEquals("Saved again", "New Name", reopened.find(created.getId()).getName());
+		assertEquals("Mapped DAO still reads the file it opened", expected.get(1).getName(), opened.find(expected.get(1).getId()).getName());
+	}
+
+	/**
+	 * test open of files that are not whole store files
+	 * should throw IOException.
+	 * @throws IOException if a test file can't be written
+	 */
+	@Test
+	public void testOpenCorrupt() throws IOException {
+		File file = File.createTempFile("contacts", ".store");
+		file.deleteOnExit();
+		for(int k=0; k<100; k++) dao.save(contact("title "+k, "Name "+k, k+"@testing.com"));
+		dao.save(file);
+		byte[] bytes = Files.readAllBytes(file.toPath());
+		// number of contacts, table position and number of chunks in the header
+		int[][] changes = { {12, 0x7f}, {15, 0x7f}, {12, 101}, {40, 0x7f}, {43, 0x80}, {32, 0}, {39, 0x7f} };
+		for(int[] change : changes) {
+			byte[] corrupt = bytes.clone();
+			corrupt[change[0]] = (byte) change[1];
+			assertOpenFails("Header byte "+change[0]+" set to "+change[1], file, corrupt);
+		}
+		// the length of the one chunk, which is the last 4 bytes
+		byte[] corrupt = bytes.clone();
+		corrupt[corrupt.length - 1] = (byte) 0x80;
+		assertOpenFails("Negative chunk length", file, corrupt);
+		corrupt = bytes.clone();
+		corrupt[corrupt.length - 4]++;
+		assertOpenFails("Chunk longer than the strings", file, corrupt);
+		assertOpenFails("Truncated", file, Arrays.copyOf(bytes, bytes.length - 1));
+		assertOpenFails("Longer", file, Arrays.copyOf(bytes, bytes.length + 8));
+		assertOpenFails("Only the header", file, Arrays.copyOf(bytes, 64));
+		assertOpenFails("Too short for a header", file, Arrays.copyOf(bytes, 10));
+		corrupt = bytes.clone();
+		corrupt[0]++;
+		assertOpenFails("Not a store file", file, corrupt);
+	}
+
+	private static void assertOpenFails(String message, File file, byte[] bytes) throws IOException {
+		Files.write(file.toPath(), bytes);
+		try {
+			OffHeapContactDao.open(file);
+			fail(message+" should not open");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * test StringArena add, get and free
+	 * should give back each string, null for NULL, and count freed strings as garbage.
+	 */
+	@Test
+	public void testStringArena() {
+		StringArena arena = new StringArena();
+		long a = arena.add("first");
+		long b = arena.add("\u0e04\u0e38\u0e13");
+		long c = arena.add("");
+		assertEquals("No address for null", StringArena.NULL, arena.add(null));
+		assertEquals("first", arena.get(a));
+		assertEquals("\u0e04\u0e38\u0e13", arena.get(b));
+		assertEquals("", arena.get(c));
+		assertNull(arena.get(StringArena.NULL));
+		assertEquals("Length and UTF-8 bytes", 4+5 + 4+9 + 4, arena.size());
+		assertEquals("No garbage", 0, arena.garbage());
+		arena.free(a);
+		arena.free(StringArena.NULL);
+		assertEquals("Freed string is garbage", 4+5, arena.garbage());
+		assertEquals("Freed string can still be read", "first", arena.get(a));
+	}
+
+	/**
+	 * test LongColumn set and get
+	 * should keep values on several pages, with 0 for values not set.
+	 */
+	@Test
+	public void testLongColumn() {
+		LongColumn column = new LongColumn();
+		assertEquals("No pages", 0, column.bytes());
+		column.set(0, -1L);
+		column.set(LongColumn.PAGE_SIZE + 7, Long.MAX_VALUE);
+		assertEquals("Two pages", 2L * LongColumn.PAGE_SIZE * 8, column.bytes());
+		assertEquals(-1L, column.get(0));
+		assertEquals(Long.MAX_VALUE, column.get(LongColumn.PAGE_SIZE + 7));
+		assertEquals("Not set", 0, column.get(LongColumn.PAGE_SIZE));
+		column.set(0, 42);
+		assertEquals("Set again", 42, column.get(0));
+	}
+}
@@ -0,0 +1,185 @@
+package contact.service;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import contact.entity.Contact;
+import contact.service.mem.MemContactDao;
+import contact.service.mem.ShardedContactDao;
+
+/**
+ * JUnit Test of ShardedContactDao.
+ * Test that contacts spread over the shards are found again, and that queries
+ * over every shard merge their results in the same order as MemContactDao.
+ * @author Atit Leelasuksan 5510546221
+ *
+ */
+public class ShardedContactDaoTest {
+
+	private ShardedContactDao dao;
+
+	/**
+	 * method that done before test
+	 * use to create a DAO of 8 shards with contacts 1 to 200.
+	 * Contact k has title "even" or "odd", name "Name" and k, and email of k mod 10.
+	 */
+	@Before
+	public void initializeDao() {
+		dao = new ShardedContactDao(8);
+		for(long id=1; id<=200; id++) assertTrue(dao.save(contact(id)));
+	}
+
+	/**
+	 * method that done after test
+	 * use to stop the threads of the DAO.
+	 */
+	@After
+	public void shutdownDao() {
+		dao.shutdown();
+	}
+
+	private static Contact contact(long id) {
+		Contact contact = new Contact((id % 2 == 0) ? "even" : "odd", "Name "+id, (id % 10)+"@testing.com");
+		contact.setId(id);
+		return contact;
+	}
+
+	private static void assertIds(String message, List<Contact> contacts, long... ids) {
+		long[] actual = new long[contacts.size()];
+		for(int k=0; k<actual.length; k++) actual[k] = contacts.get(k).getId();
+		assertArrayEquals(message, ids, actual);
+	}
+
+	private static long[] range(long from, long to, long step) {
+		long[] ids = new long[(int) ((to - from) / step) + 1];
+		for(int k=0; k<ids.length; k++) ids[k] = from + k * step;
+		return ids;
+	}
+
+	/**
+	 * test find and count after saving
+	 * should find every contact on its shard, with all of them counted.
+	 */
+	@Test
+	public void testFind() {
+		assertEquals("Count all shards", 200, dao.count());
+		for(long id=1; id<=200; id++) assertEquals("Find on its shard", "Name "+id, dao.find(id).getName());
+		assertNull("Unknown id", dao.find(201));
+	}
+
+	/**
+	 * test findAll, findByTitle and findByEmail over all shards
+	 * should merge the contacts of every shard in order of id.
+	 */
+	@Test
+	public void testMergeById() {
+		assertIds("All contacts in order", dao.findAll(), range(1, 200, 1));
+		List<Contact> odd = dao.findByTitle("od");
+		assertIds("Title matches in order", odd, range(1, 199, 2));
+		assertIds("Email matches in order", dao.findByEmail("3@TESTING.com"), range(3, 193, 10));
+	}
+
+	/**
+	 * test findByNamePrefix with and without a limit
+	 * should merge the contacts of every shard in order of name, then keep the first ones.
+	 */
+	@Test
+	public void testMergeByName() {
+		assertIds("Names in order", dao.findByNamePrefix("name 1", 0)
+				, 1, 10, 100, 101, 102, 103, 104, 105, 106, 107, 108, 109, 11, 110, 111, 112, 113, 114, 115, 116, 117, 118, 119
+				, 12, 120, 121, 122, 123, 124, 125, 126, 127, 128, 129, 13, 130, 131, 132, 133, 134, 135, 136, 137, 138, 139
+				, 14, 140, 141, 142, 143, 144, 145, 146, 147, 148, 149, 15, 150, 151, 152, 153, 154, 155, 156, 157, 158, 159
+				, 16, 160, 161, 162, 163, 164, 165, 166, 167, 168, 169, 17, 170, 171, 172, 173, 174, 175, 176, 177, 178, 179
+				, 18, 180, 181, 182, 183, 184, 185, 186, 187, 188, 189, 19, 190, 191, 192, 193, 194, 195, 196, 197, 198, 199);
+		assertIds("First names of all shards", dao.findByNamePrefix("NAME 1", 5), 1, 10, 100, 101, 102);
+	}
+
+	/**
+	 * test scan pages over all shards
+	 * should merge the shard cursors in order of id, and page the same way as MemContactDao.
+	 */
+	@Test
+	public void testScan() {
+		List<Contact> paged = new ArrayList<Contact>();
+		long after = 0;
+		while(true) {
+			ContactCursor cursor = dao.scan("even", after, 7, null);
+			int count = 0;
+			while(cursor.hasNext()) {
+				Contact contact = cursor.next();
+				paged.add(contact);
+				after = contact.getId();
+				count++;
+			}
+			cursor.close();
+			if (count == 0) break;
+			assertTrue("Page within the limit", count <= 7);
+		}
+		assertIds("Pages of every shard in order", paged, range(2, 200, 2));
+	}
+
+	/**
+	 * test saveAll, updateAll and deleteAll of contacts on many shards
+	 * should return the contacts the shards saved or updated in the order given, and the ids deleted.
+	 */
+	@Test
+	public void testBatches() {
+		List<Contact> batch = new ArrayList<Contact>();
+		for(long id=300; id>=201; id--) batch.add(contact(id));
+		batch.add(new Contact("new", "New Name", "new@testing.com"));
+		List<Contact> saved = dao.saveAll(batch);
+		assertEquals("Saved every contact", batch, saved);
+		assertTrue("New contact has an id", saved.get(saved.size() - 1).getId() != 0);
+		assertEquals("Count all shards", 301, dao.count());
+		assertTrue("Taken id saves nothing", dao.saveAll(Arrays.asList(contact(400), contact(5))).isEmpty());
+		assertNull("Nothing saved", dao.find(400));
+
+		List<Contact> updates = Arrays.asList(contact(9), contact(500), contact(2));
+		for(Contact update : updates) update.setName("updated");
+		assertIds("Updated in the order given", dao.updateAll(updates), 9, 2);
+		assertEquals("Update applied", "updated", dao.find(9).getName());
+
+		assertArrayEquals("Deleted on all shards in the order given", new long[] { 3, 1, 2 }, dao.deleteAll(new long[] { 3, 999, 1, 2, 1 }));
+		assertEquals("Count all shards", 298, dao.count());
+	}
+
+	/**
+	 * test save, saveAll and load of contacts with a negative id
+	 * should save none of them, rather than fail in the shard.
+	 */
+	@Test
+	public void testNegativeId() {
+		assertFalse("Smallest long is not saved", dao.save(contact(Long.MIN_VALUE)));
+		assertTrue("Batch with a negative id saves nothing", dao.saveAll(Arrays.asList(contact(201), contact(-1))).isEmpty());
+		MemContactDao mem = new MemContactDao();
+		assertEquals("Load skips the negative id", 1, mem.load(Arrays.asList(contact(-5), contact(5))));
+		assertNull("Negative id is not found", mem.find(-5));
+		assertEquals("Count all shards", 200, dao.count());
+	}
+
+	/**
+	 * test the same contacts in a ShardedContactDao and a MemContactDao
+	 * should give the same results for queries over all contacts.
+	 */
+	@Test
+	public void testSameAsMemContactDao() {
+		MemContactDao mem = new MemContactDao();
+		for(long id=1; id<=200; id++) mem.save(contact(id));
+		assertEquals("Same title matches", ids(mem.findByTitle("even")), ids(dao.findByTitle("even")));
+		assertEquals("Same email matches", ids(mem.findByEmail("7@testing.com")), ids(dao.findByEmail("7@testing.com")));
+		assertEquals("Same name matches", ids(mem.findByNamePrefix("name 2", 4)), ids(dao.findByNamePrefix("name 2", 4)));
+	}
+
+	private static List<Long> ids(List<Contact> contacts) {
+		List<Long> ids = new ArrayList<Long>(contacts.size());
+		for(Contact contact : contacts) ids.add(contact.getId());
+		return ids;
+	}
+}
@@ -155,11 +155,41 @@ public class UnitTestWithEtag {
 		}
 	}
 	
+	/**
+	 * test GET list with If-None-Match header request
+	 * should response 304 Not Modified while nothing changed,
+	 * and 200 OK after a contact is added.
+	 */
+	@Test
+	public void testGetListWithETag() {
+		ContentResponse res;
+		try {
+			res = client.GET(url);
+			assertEquals("Response should be 200 OK", Status.OK.getStatusCode(), res.getStatus());
+			assertTrue("Have ETag header", res.getHeaders().containsKey("ETag"));
+			String etag = res.getHeaders().get(HttpHeader.ETAG).replace("\"","");
+			res = client.newRequest(url)
+					.method(HttpMethod.GET)
+					.header(HttpHeader.IF_NONE_MATCH, etag)
+					.send();
+			assertEquals("Response should be 304 Not Modified", Status.NOT_MODIFIED.getStatusCode(), res.getStatus());
+			addContact(2);
+			res = client.newRequest(url)
+					.method(HttpMethod.GET)
+					.header(HttpHeader.IF_NONE_MATCH, etag)
+					.send();
+			assertEquals("Response should be 200 OK after change", Status.OK.getStatusCode(), res.getStatus());
+		} catch (InterruptedException | ExecutionException | TimeoutException e) {
+			e.printStackTrace();
+		}
+	}
+	
 	/**
 	 * test PUT with If-Match, If-None-Match header request
 	 * put an update to exist contact
 	 * for If-Match should response 200 OK.
 	 * for If-None-Match should response 412 Precondition Failed.
+	 * then GET should return the updated contact, not a cached one.
 	 */
 	@Test
 	public void testPUT() {
@@ -186,6 +216,9 @@ public class UnitTestWithEtag {
 					.content(content, "application/xml")
 					.send();
 			assertEquals("PUT Success response 200 OK", Status.OK.getStatusCode(), res.getStatus());
+			res = client.GET(uri);
+			assertNotEquals("GET after PUT has new ETag", etag, res.getHeaders().get(HttpHeader.ETAG).replace("\"",""));
+			assertTrue("GET after PUT has new content", res.getContentAsString().contains("newContactTitle"));
 		} catch (InterruptedException | ExecutionException | TimeoutException e) {
 			e.printStackTrace();
 		} catch (URISyntaxException e) {
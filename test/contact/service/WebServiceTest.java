@@ -7,6 +7,7 @@ import main.JettyMain;
 import org.eclipse.jetty.client.HttpClient;
 import org.eclipse.jetty.client.api.ContentResponse;
 import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.util.BytesContentProvider;
 import org.eclipse.jetty.client.util.StringContentProvider;
 import org.eclipse.jetty.http.HttpHeader;
 import org.eclipse.jetty.http.HttpMethod;
@@ -15,10 +16,17 @@ import org.junit.Before;
 import org.junit.Test;
 
 import contact.entity.Contact;
+import contact.entity.ContactCodec;
 import contact.service.mem.MemDaoFactory;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeoutException;
 import java.util.regex.Matcher;
@@ -255,6 +263,33 @@ public class WebServiceTest {
 		
 	}
 	
+	/**
+	 * test POST of a contact with the id of a deleted contact
+	 * should response the new contact to GET, not the deleted one.
+	 */
+	@Test
+	public void testPOSTAfterDELETE() {
+		ContentResponse res;
+		try {
+			URI uri = new URI(url+"/1");
+			res = client.GET(uri);
+			assertTrue("GET the contact first", res.getContentAsString().contains("Test Name"));
+			res = client.newRequest(uri).method(HttpMethod.DELETE).send();
+			assertEquals("DELETE success response 200 OK", Status.OK.getStatusCode(), res.getStatus());
+			res = client.newRequest(url)
+					.content(new StringContentProvider("<contact id=\"1\"><name>Recreated</name></contact>"),"application/xml")
+					.method(HttpMethod.POST)
+					.send();
+			assertEquals("POST complete should response 201 Created", Status.CREATED.getStatusCode(), res.getStatus());
+			res = client.GET(uri);
+			assertTrue("GET the new contact", res.getContentAsString().contains("Recreated"));
+		} catch (URISyntaxException e1) {
+			e1.printStackTrace();
+		} catch (InterruptedException | TimeoutException | ExecutionException e) {
+			e.printStackTrace();
+		}
+	}
+	
 	/**
 	 * test fail DELETE request
 	 * try to delete contact that doesn't exist
@@ -275,4 +310,360 @@ public class WebServiceTest {
 			e.printStackTrace();
 		}
 	}
+	
+	/**
+	 * test GET metrics
+	 * should response 200 OK with request and DAO metrics in Prometheus text format.
+	 */
+	@Test
+	public void testGetMetrics() {
+		ContentResponse res;
+		try {
+			client.GET(new URI(url+"/1"));
+			res = client.GET(new URI(url.replace("contacts", "metrics")));
+			assertEquals("Response should be 200 OK", Status.OK.getStatusCode(), res.getStatus());
+			String metrics = res.getContentAsString();
+			assertTrue("Count GET by id", metrics.contains("http_requests_total{endpoint=\"GET /contacts/{id}\",status=\"200\"}"));
+			assertTrue("Time DAO find", metrics.contains("dao_operation_seconds_count{operation=\"find\"}"));
+			assertTrue("Count contacts", metrics.contains("contacts_stored "));
+			assertTrue("Cache hits are a counter", metrics.contains("# TYPE contact_cache_hits_total counter"));
+			assertTrue("Cache size is a gauge", metrics.contains("# TYPE contact_cache_size gauge"));
+		} catch (URISyntaxException e1) {
+			e1.printStackTrace();
+		} catch (InterruptedException | ExecutionException | TimeoutException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * test GET by email and by name prefix
+	 * should find the contact ignoring case, and nothing for other values.
+	 */
+	@Test
+	public void testGetByEmailAndName() {
+		ContentResponse res;
+		try {
+			res = client.GET(new URI(url+"?email=NONE@Testing.com"));
+			assertEquals("Response should be 200 OK", Status.OK.getStatusCode(), res.getStatus());
+			assertTrue("Find by email", res.getContentAsString().contains("<contact id=\"1\">"));
+			res = client.GET(new URI(url+"?name=test"));
+			assertTrue("Find by name prefix", res.getContentAsString().contains("<contact id=\"1\">"));
+			res = client.GET(new URI(url+"?name=name"));
+			assertFalse("Name must start with prefix", res.getContentAsString().contains("<contact id=\"1\">"));
+			res = client.GET(new URI(url+"?email=none@testing.com&name=test"));
+			assertEquals("Response should be 400 Bad Request", Status.BAD_REQUEST.getStatusCode(), res.getStatus());
+		} catch (URISyntaxException e1) {
+			e1.printStackTrace();
+		} catch (InterruptedException | ExecutionException | TimeoutException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * POST a list of contacts to /contacts/batch.
+	 * @param contacts XML of the contact elements
+	 * @return the response
+	 */
+	private ContentResponse postBatch(String contacts) throws InterruptedException, TimeoutException, ExecutionException {
+		return client.newRequest(url+"/batch")
+				.content(new StringContentProvider("<contacts>"+contacts+"</contacts>"),"application/xml")
+				.header(HttpHeader.ACCEPT, "application/xml")
+				.method(HttpMethod.POST)
+				.send();
+	}
+
+	/**
+	 * test success POST batch request
+	 * should response 200 OK with the saved contacts, which can then be found.
+	 */
+	@Test
+	public void testPOSTBatchPass() {
+		ContentResponse res;
+		try {
+			res = postBatch("<contact id=\"21\"><name>first</name></contact><contact><name>second</name></contact>");
+			assertEquals("Response should be 200 OK", Status.OK.getStatusCode(), res.getStatus());
+			assertTrue("List the saved contact", res.getContentAsString().contains("<contact id=\"21\">"));
+			assertTrue("List the contact given an id", res.getContentAsString().contains("<name>second</name>"));
+			res = client.GET(new URI(url+"/21"));
+			assertEquals("Saved contact should be found", Status.OK.getStatusCode(), res.getStatus());
+		} catch (URISyntaxException e1) {
+			e1.printStackTrace();
+		} catch (InterruptedException | ExecutionException | TimeoutException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * test fail POST batch request
+	 * a batch with an id that exists, or with one id twice, should response 409 Conflict and save nothing.
+	 */
+	@Test
+	public void testPOSTBatchConflict() {
+		ContentResponse res;
+		try {
+			res = postBatch("<contact id=\"22\"><name>new</name></contact><contact id=\"1\"><name>taken</name></contact>");
+			assertEquals("Existing id should response 409 Conflict", Status.CONFLICT.getStatusCode(), res.getStatus());
+			res = client.GET(new URI(url+"/22"));
+			assertEquals("Nothing should be saved", Status.NOT_FOUND.getStatusCode(), res.getStatus());
+			res = client.GET(new URI(url+"/1"));
+			assertTrue("Existing contact should not be replaced", res.getContentAsString().contains("Test Name"));
+			res = postBatch("<contact id=\"23\"><name>one</name></contact><contact id=\"23\"><name>two</name></contact>");
+			assertEquals("Id twice should response 409 Conflict", Status.CONFLICT.getStatusCode(), res.getStatus());
+			res = client.GET(new URI(url+"/23"));
+			assertEquals("Nothing should be saved", Status.NOT_FOUND.getStatusCode(), res.getStatus());
+		} catch (URISyntaxException e1) {
+			e1.printStackTrace();
+		} catch (InterruptedException | ExecutionException | TimeoutException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Restart the server with another DAO factory, with contacts 1 to count.
+	 * Contact k has title "even" or "odd".
+	 * @param factory of the DAO to use
+	 * @param count number of contacts
+	 */
+	private void restartWith(DaoFactory factory, int count) {
+		JettyMain.stopServer();
+		DaoFactory.setFactory(factory);
+		url = JettyMain.startServer(8080,"contact.resource");
+		for(long id=count; id>=1; id--) {
+			Contact test = new Contact((id % 2 == 0) ? "even" : "odd", "Test Name "+id, id+"@testing.com");
+			test.setId(id);
+			factory.getContactDao().save(test);
+		}
+	}
+
+	/**
+	 * GET every page of a list by following the id of the last contact of each page.
+	 * @param query of the list, or empty for all contacts
+	 * @param limit contacts in a page
+	 * @return the ids of all pages in order
+	 */
+	private List<Long> getPages(String query, int limit) throws URISyntaxException, InterruptedException, ExecutionException, TimeoutException {
+		List<Long> ids = new ArrayList<Long>();
+		long after = 0;
+		while(true) {
+			ContentResponse res = client.GET(new URI(url+"?"+query+"&after="+after+"&limit="+limit));
+			assertEquals("Response should be 200 OK", Status.OK.getStatusCode(), res.getStatus());
+			Matcher id = Pattern.compile("<contact id=\"(\\d+)\"").matcher(res.getContentAsString());
+			int count = 0;
+			while(id.find()) {
+				after = Long.parseLong(id.group(1));
+				ids.add(after);
+				count++;
+			}
+			assertTrue("Page within the limit", count <= limit);
+			if(count==0) return ids;
+		}
+	}
+
+	/**
+	 * test GET pages of the list with after and limit, on each in-memory DAO
+	 * should response every contact once in order of id, also when filtered by title.
+	 */
+	@Test
+	public void testGetPages() {
+		List<Long> all = new ArrayList<Long>();
+		List<Long> odd = new ArrayList<Long>();
+		for(long id=1; id<=25; id++) {
+			all.add(id);
+			if(id % 2 == 1) odd.add(id);
+		}
+		String offHeap = System.setProperty(MemDaoFactory.OFF_HEAP_PROPERTY, "false");
+		try {
+			for(int kind=0; kind<3; kind++) {
+				if(kind==2) System.setProperty(MemDaoFactory.OFF_HEAP_PROPERTY, "true");
+				restartWith((kind==1) ? new MemDaoFactory(8) : new MemDaoFactory(), 25);
+				String dao = DaoFactory.getInstance().getContactDao().getClass().getSimpleName();
+				assertEquals("Pages of "+dao, all, getPages("", 7));
+				assertEquals("Pages of "+dao+" by title", odd, getPages("title=odd", 4));
+				ContentResponse res = client.GET(new URI(url+"?after=20&limit=2"));
+				assertEquals("Page after an id of "+dao, Arrays.asList(21L, 22L), idsOf(res.getContentAsString()));
+			}
+		} catch (URISyntaxException e1) {
+			e1.printStackTrace();
+		} catch (InterruptedException | ExecutionException | TimeoutException e) {
+			e.printStackTrace();
+		} finally {
+			if(offHeap==null) System.clearProperty(MemDaoFactory.OFF_HEAP_PROPERTY);
+			else System.setProperty(MemDaoFactory.OFF_HEAP_PROPERTY, offHeap);
+		}
+	}
+
+	private static List<Long> idsOf(String xml) {
+		List<Long> ids = new ArrayList<Long>();
+		Matcher id = Pattern.compile("<contact id=\"(\\d+)\"").matcher(xml);
+		while(id.find()) ids.add(Long.parseLong(id.group(1)));
+		return ids;
+	}
+
+	/**
+	 * test GET the list with fields
+	 * should response contacts with their id and only the fields asked for,
+	 * and 400 Bad Request for an unknown field or a negative limit.
+	 */
+	@Test
+	public void testGetFields() {
+		ContentResponse res;
+		try {
+			res = client.newRequest(url+"?fields=email,title&limit=1").header(HttpHeader.ACCEPT, "application/xml").send();
+			assertEquals("Response should be 200 OK", Status.OK.getStatusCode(), res.getStatus());
+			String xml = res.getContentAsString();
+			assertTrue("Contact has its id", xml.contains("<contact id=\"1\">"));
+			assertTrue("Email is projected", xml.contains("<email>none@testing.com</email>"));
+			assertTrue("Title is projected", xml.contains("<title>Test contact</title>"));
+			assertFalse("Name is left out", xml.contains("<name>"));
+			res = client.GET(new URI(url+"?fields=id"));
+			xml = res.getContentAsString();
+			assertTrue("Only the id", xml.contains("<contact id=\"1\">") && !xml.contains("<email>") && !xml.contains("<title>"));
+			res = client.GET(new URI(url+"?fields=email,password"));
+			assertEquals("Unknown field should response 400 Bad Request", Status.BAD_REQUEST.getStatusCode(), res.getStatus());
+			res = client.GET(new URI(url+"?limit=-1"));
+			assertEquals("Negative limit should response 400 Bad Request", Status.BAD_REQUEST.getStatusCode(), res.getStatus());
+		} catch (URISyntaxException e1) {
+			e1.printStackTrace();
+		} catch (InterruptedException | ExecutionException | TimeoutException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * test POST of a contact and a batch with a negative id
+	 * should response 400 Bad Request and save nothing.
+	 */
+	@Test
+	public void testPOSTNegativeId() {
+		StringContentProvider content = new StringContentProvider("<contact id=\"-9223372036854775808\"><name>negative</name></contact>");
+		ContentResponse res;
+		try {
+			res = client.newRequest(url)
+					.content(content,"application/xml")
+					.method(HttpMethod.POST)
+					.send();
+			assertEquals("Negative id should response 400 Bad Request", Status.BAD_REQUEST.getStatusCode(), res.getStatus());
+			res = postBatch("<contact id=\"24\"><name>new</name></contact><contact id=\"-1\"><name>negative</name></contact>");
+			assertEquals("Negative id in a batch should response 400 Bad Request", Status.BAD_REQUEST.getStatusCode(), res.getStatus());
+			res = client.GET(new URI(url+"/24"));
+			assertEquals("Nothing should be saved", Status.NOT_FOUND.getStatusCode(), res.getStatus());
+		} catch (URISyntaxException e1) {
+			e1.printStackTrace();
+		} catch (InterruptedException | ExecutionException | TimeoutException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * test empty POST batch request
+	 * should response 200 OK and not change the store, so the list ETag stays the same.
+	 */
+	@Test
+	public void testPOSTBatchEmpty() {
+		ContentResponse res;
+		try {
+			String etag = client.GET(new URI(url)).getHeaders().get(HttpHeader.ETAG);
+			res = postBatch("");
+			assertEquals("Response should be 200 OK", Status.OK.getStatusCode(), res.getStatus());
+			assertEquals("Store version should not change", etag, client.GET(new URI(url)).getHeaders().get(HttpHeader.ETAG));
+		} catch (URISyntaxException e1) {
+			e1.printStackTrace();
+		} catch (InterruptedException | ExecutionException | TimeoutException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * test GET and POST of the binary media type
+	 * should response a contact that ContactCodec reads when asked for application/x-contact,
+	 * XML when not asked for it, and create a contact posted in it.
+	 */
+	@Test
+	public void testBinaryMediaType() {
+		ContentResponse res;
+		try {
+			URI uri = new URI(url+"/1");
+			res = client.newRequest(uri).header(HttpHeader.ACCEPT, "application/x-contact").send();
+			assertEquals("Response should be 200 OK", Status.OK.getStatusCode(), res.getStatus());
+			assertEquals("Binary media type", "application/x-contact", res.getMediaType());
+			Contact contact = ContactCodec.read(new ByteArrayInputStream(res.getContent()));
+			assertEquals("Read the contact", 1, contact.getId());
+			assertEquals("Read the contact", "Test Name", contact.getName());
+			res = client.newRequest(uri).header(HttpHeader.ACCEPT, "*/*").send();
+			assertEquals("XML unless binary is asked for", "application/xml", res.getMediaType());
+			Contact created = new Contact("binary", "Binary Name", "binary@testing.com");
+			created.setId(31);
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			ContactCodec.write(created, out);
+			res = client.newRequest(url)
+					.content(new BytesContentProvider(out.toByteArray()),"application/x-contact")
+					.method(HttpMethod.POST)
+					.send();
+			assertEquals("POST complete should response 201 Created", Status.CREATED.getStatusCode(), res.getStatus());
+			res = client.GET(new URI(url+"/31"));
+			assertTrue("Check by use GET request id that POSTED", res.getContentAsString().contains("Binary Name"));
+		} catch (URISyntaxException e1) {
+			e1.printStackTrace();
+		} catch (InterruptedException | ExecutionException | TimeoutException | IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * test GET changes
+	 * should list a POST made after asking, and answer 410 Gone for changes no longer kept.
+	 */
+	@Test
+	public void testGetChanges() {
+		ContentResponse res;
+		try {
+			res = client.GET(new URI(url+"/changes"));
+			assertEquals("Response should be 200 OK", Status.OK.getStatusCode(), res.getStatus());
+			Matcher next = Pattern.compile("next=\"(\\d+)\"").matcher(res.getContentAsString());
+			assertTrue("Changes should have next", next.find());
+			res = client.newRequest(url)
+					.content(new StringContentProvider("<contact id=\"12\"><name>changed</name></contact>"),"application/xml")
+					.method(HttpMethod.POST)
+					.send();
+			assertEquals("POST complete should response 201 Created", Status.CREATED.getStatusCode(), res.getStatus());
+			res = client.GET(new URI(url+"/changes?wait=5&since="+next.group(1)));
+			assertEquals("Response should be 200 OK", Status.OK.getStatusCode(), res.getStatus());
+			assertTrue("List the saved contact", res.getContentAsString().contains("<id>12</id><op>save</op>"));
+			res = client.GET(new URI(url+"/changes?since=0"));
+			assertEquals("Response should be 410 Gone", Status.GONE.getStatusCode(), res.getStatus());
+		} catch (URISyntaxException e1) {
+			e1.printStackTrace();
+		} catch (InterruptedException | ExecutionException | TimeoutException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * test DELETE batch request with ids that exist and one that doesn't
+	 * should response the number deleted, and list a change for each deleted contact only.
+	 */
+	@Test
+	public void testDELETEBatchChanges() {
+		ContentResponse res;
+		try {
+			addContact(30);
+			addContact(31);
+			Matcher next = Pattern.compile("next=\"(\\d+)\"").matcher(client.GET(new URI(url+"/changes")).getContentAsString());
+			assertTrue("Changes should have next", next.find());
+			res = client.newRequest(url+"/batch")
+					.content(new StringContentProvider("<contacts><contact id=\"30\"/><contact id=\"99\"/><contact id=\"31\"/></contacts>"),"application/xml")
+					.method(HttpMethod.DELETE)
+					.send();
+			assertEquals("Response should be 200 OK", Status.OK.getStatusCode(), res.getStatus());
+			assertEquals("Count the deleted contacts", "2", res.getContentAsString());
+			String changes = client.GET(new URI(url+"/changes?since="+next.group(1))).getContentAsString();
+			assertTrue("List the first deleted contact", changes.contains("<id>30</id><op>delete</op>"));
+			assertTrue("List the second deleted contact", changes.contains("<id>31</id><op>delete</op>"));
+			assertFalse("Don't list the id that doesn't exist", changes.contains("<id>99</id>"));
+		} catch (URISyntaxException e1) {
+			e1.printStackTrace();
+		} catch (InterruptedException | ExecutionException | TimeoutException e) {
+			e.printStackTrace();
+		}
+	}
 }